@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.geoff.binary;
+
+import java.nio.charset.Charset;
+
+/**
+ * Constants of the binary Geoff encoding. A stream consists of a header
+ * followed by a sequence of subgraphs and an end marker:
+ *
+ * <pre>
+ * stream       := 'G' 'F' 'B' VERSION subgraph* END
+ * subgraph     := SUBGRAPH count(nodes) node* count(rels) relationship*
+ * node         := flags [string(name)] [varint(nodeId)] count(labels) word*
+ *                 [word(hookLabel) hookKeys] properties
+ * hookKeys     := word(hookKey)              a single key, or none if null
+ *               | count(keys) word*          with the composite flag
+ * relationship := count(startIndex) word(type) count(endIndex) properties
+ * properties   := count(entries) (word(key) value)*
+ * value        := type-code payload
+ * word         := varint(0)                  null
+ *               | varint(1) string           new word, added to the dictionary
+ *               | varint(n + 2)              the nth word in the dictionary
+ * string       := varint(length) UTF-8 bytes
+ * </pre>
+ *
+ * Labels, keys and relationship types are words, written in full on first
+ * use and by dictionary index thereafter; the dictionary spans the whole
+ * stream. Counts and lengths are unsigned varints (seven bits per byte,
+ * least significant first) and integers are zigzag varints. Floating point
+ * numbers are IEEE 754, big-endian. Arrays are written as an array type
+ * code, a count and the bare items, with booleans taking one byte each.
+ * Relationships refer to nodes by their position within the subgraph.
+ * A node with the reference flag refers to an existing node by its ID.
+ * A hooked node with the composite flag is hooked on several keys.
+ */
+final class BinaryGeoff {
+
+    final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    final static byte[] MAGIC = {'G', 'F', 'B'};
+    final static int VERSION = 1;
+
+    final static int END = 0x00;
+    final static int SUBGRAPH = 0x01;
+
+    final static int NAMED = 0x01;
+    final static int HOOKED = 0x02;
+    final static int REFERENCE = 0x04;
+    final static int COMPOSITE = 0x08;
+
+    final static int WORD_NULL = 0;
+    final static int WORD_NEW = 1;
+    final static int WORD_BASE = 2;
+
+    final static int NULL = 0x00;
+    final static int FALSE = 0x01;
+    final static int TRUE = 0x02;
+    final static int INTEGER = 0x03;
+    final static int LONG = 0x04;
+    final static int FLOAT = 0x05;
+    final static int DOUBLE = 0x06;
+    final static int STRING = 0x07;
+
+    final static int ARRAY = 0x10;
+    final static int BOOLEAN_ARRAY = ARRAY | TRUE;
+    final static int INTEGER_ARRAY = ARRAY | INTEGER;
+    final static int LONG_ARRAY = ARRAY | LONG;
+    final static int FLOAT_ARRAY = ARRAY | FLOAT;
+    final static int DOUBLE_ARRAY = ARRAY | DOUBLE;
+    final static int STRING_ARRAY = ARRAY | STRING;
+
+    // sanity limits applied when decoding untrusted input
+    final static int MAX_STRING_LENGTH = 64 * 1024 * 1024;
+    final static int MAX_COUNT = 16 * 1024 * 1024;
+
+    private BinaryGeoff() {
+    }
+
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.geoff.binary;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.SubgraphReader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static com.nigelsmall.geoff.binary.BinaryGeoff.*;
+
+/**
+ * Reads subgraphs from the binary Geoff encoding described in
+ * {@link BinaryGeoff}. Values are decoded straight from a block buffer,
+ * with no intermediate copies or text to parse, and dictionary words are
+ * shared between every entity that uses them.
+ */
+public class GeoffDecoder implements SubgraphReader {
+
+    final private InputStream in;
+    final private ArrayList<String> dictionary;
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long offset;
+    private boolean started;
+    private boolean finished;
+
+    public GeoffDecoder(InputStream in) {
+        this.in = in;
+        this.dictionary = new ArrayList<>();
+        this.buffer = new byte[65536];
+    }
+
+    @Override
+    public boolean hasMore() throws IOException {
+        if (this.finished) {
+            return false;
+        }
+        if (!this.started) {
+            this.readHeader();
+        }
+        this.require(1);
+        int tag = this.buffer[this.position] & 0xFF;
+        if (tag == END) {
+            this.position += 1;
+            this.finished = true;
+            return false;
+        } else if (tag == SUBGRAPH) {
+            return true;
+        } else {
+            throw this.error("Unexpected tag " + tag);
+        }
+    }
+
+    @Override
+    public Subgraph readSubgraph() throws IOException {
+        Subgraph subgraph = new Subgraph();
+        if (!this.hasMore()) {
+            return subgraph;
+        }
+        this.position += 1;
+        int order = this.readCount();
+        AbstractNode[] nodes = new AbstractNode[order];
+        for (int i = 0; i < order; i++) {
+            nodes[i] = subgraph.mergeNode(this.readNode());
+        }
+        int size = this.readCount();
+        for (int i = 0; i < size; i++) {
+            AbstractNode startNode = this.readNodeReference(nodes);
+            String type = this.readWord();
+            AbstractNode endNode = this.readNodeReference(nodes);
+            if (type == null) {
+                throw this.error("Relationship without type");
+            }
+            subgraph.addRelationship(new AbstractRelationship(startNode, type, this.readProperties(), endNode));
+        }
+        return subgraph;
+    }
+
+    /**
+     * @return the number of bytes consumed so far
+     */
+    public long getOffset() {
+        return this.offset + this.position;
+    }
+
+    private void readHeader() throws IOException {
+        this.require(MAGIC.length + 1);
+        for (byte b : MAGIC) {
+            if (this.buffer[this.position] != b) {
+                throw this.error("Not a binary Geoff stream");
+            }
+            this.position += 1;
+        }
+        int version = this.buffer[this.position] & 0xFF;
+        if (version != VERSION) {
+            throw this.error("Unsupported version " + version);
+        }
+        this.position += 1;
+        this.started = true;
+    }
+
+    private AbstractNode readNode() throws IOException {
+        int flags = this.readByte();
+        String name = (flags & NAMED) == 0 ? null : this.readString();
+        long nodeId = (flags & REFERENCE) == 0 ? -1 : this.readVarint();
+        int labelCount = this.readCount();
+        HashSet<String> labels = null;
+        if (labelCount > 0) {
+            labels = new HashSet<>(labelCount * 2);
+            for (int i = 0; i < labelCount; i++) {
+                labels.add(this.readWord());
+            }
+        }
+        String hookLabel = null;
+        ArrayList<String> hookKeys = new ArrayList<>(1);
+        if ((flags & HOOKED) != 0) {
+            hookLabel = this.readWord();
+            if ((flags & COMPOSITE) != 0) {
+                int keyCount = this.readCount();
+                for (int i = 0; i < keyCount; i++) {
+                    hookKeys.add(this.readWord());
+                }
+            } else {
+                String hookKey = this.readWord();
+                if (hookKey != null) {
+                    hookKeys.add(hookKey);
+                }
+            }
+            if (hookLabel == null) {
+                throw this.error("Hook without label");
+            }
+        }
+        AbstractNode node = new AbstractNode(name, labels, this.readProperties());
+        if (nodeId >= 0) {
+            node.setNodeId(nodeId);
+        }
+        if (hookLabel != null) {
+            node.setHook(hookLabel, hookKeys);
+        }
+        return node;
+    }
+
+    private AbstractNode readNodeReference(AbstractNode[] nodes) throws IOException {
+        int index = this.readCount();
+        if (index >= nodes.length) {
+            throw this.error("Node index " + index + " out of range");
+        }
+        return nodes[index];
+    }
+
+    private Map<String, Object> readProperties() throws IOException {
+        int count = this.readCount();
+        if (count == 0) {
+            return null;
+        }
+        HashMap<String, Object> properties = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = this.readWord();
+            if (key == null) {
+                throw this.error("Property without key");
+            }
+            properties.put(key, this.readValue());
+        }
+        return properties;
+    }
+
+    private Object readValue() throws IOException {
+        int type = this.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case INTEGER:
+                return (int) this.readSignedVarint();
+            case LONG:
+                return this.readSignedVarint();
+            case FLOAT:
+                return Float.intBitsToFloat(this.readInt());
+            case DOUBLE:
+                return Double.longBitsToDouble(this.readLong());
+            case STRING:
+                return this.readString();
+            case BOOLEAN_ARRAY: {
+                Boolean[] items = new Boolean[this.readCount()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = this.readByte() != 0;
+                }
+                return items;
+            }
+            case INTEGER_ARRAY: {
+                Integer[] items = new Integer[this.readCount()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = (int) this.readSignedVarint();
+                }
+                return items;
+            }
+            case LONG_ARRAY: {
+                Long[] items = new Long[this.readCount()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = this.readSignedVarint();
+                }
+                return items;
+            }
+            case FLOAT_ARRAY: {
+                Float[] items = new Float[this.readCount()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = Float.intBitsToFloat(this.readInt());
+                }
+                return items;
+            }
+            case DOUBLE_ARRAY: {
+                Double[] items = new Double[this.readCount()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = Double.longBitsToDouble(this.readLong());
+                }
+                return items;
+            }
+            case STRING_ARRAY: {
+                String[] items = new String[this.readCount()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = this.readString();
+                }
+                return items;
+            }
+            default:
+                throw this.error("Unknown value type " + type);
+        }
+    }
+
+    private String readWord() throws IOException {
+        int code = this.readCount();
+        if (code == WORD_NULL) {
+            return null;
+        } else if (code == WORD_NEW) {
+            String word = this.readString();
+            this.dictionary.add(word);
+            return word;
+        } else if (code - WORD_BASE < this.dictionary.size()) {
+            return this.dictionary.get(code - WORD_BASE);
+        } else {
+            throw this.error("Undefined word " + (code - WORD_BASE));
+        }
+    }
+
+    private String readString() throws IOException {
+        int length = this.readVarintAsInt(MAX_STRING_LENGTH);
+        this.require(length);
+        String s = new String(this.buffer, this.position, length, UTF_8);
+        this.position += length;
+        return s;
+    }
+
+    private int readCount() throws IOException {
+        return this.readVarintAsInt(MAX_COUNT);
+    }
+
+    private int readVarintAsInt(int max) throws IOException {
+        long value = this.readVarint();
+        if (value < 0 || value > max) {
+            throw this.error("Count or length " + value + " out of range");
+        }
+        return (int) value;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = this.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw this.error("Malformed varint");
+    }
+
+    private long readSignedVarint() throws IOException {
+        long value = this.readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readInt() throws IOException {
+        this.require(4);
+        byte[] b = this.buffer;
+        int p = this.position;
+        this.position += 4;
+        return (b[p] & 0xFF) << 24 | (b[p + 1] & 0xFF) << 16 | (b[p + 2] & 0xFF) << 8 | (b[p + 3] & 0xFF);
+    }
+
+    private long readLong() throws IOException {
+        return (long) this.readInt() << 32 | (this.readInt() & 0xFFFFFFFFL);
+    }
+
+    private int readByte() throws IOException {
+        if (this.position >= this.limit) {
+            this.require(1);
+        }
+        int b = this.buffer[this.position] & 0xFF;
+        this.position += 1;
+        return b;
+    }
+
+    /**
+     * Ensure that at least a given number of bytes are available in the
+     * buffer from the current position, growing the buffer if necessary.
+     */
+    private void require(int n) throws IOException {
+        if (this.limit - this.position >= n) {
+            return;
+        }
+        int remaining = this.limit - this.position;
+        if (n > this.buffer.length) {
+            byte[] buffer = new byte[Math.max(n, this.buffer.length * 2)];
+            System.arraycopy(this.buffer, this.position, buffer, 0, remaining);
+            this.buffer = buffer;
+        } else {
+            System.arraycopy(this.buffer, this.position, this.buffer, 0, remaining);
+        }
+        this.offset += this.position;
+        this.position = 0;
+        this.limit = remaining;
+        while (this.limit < n) {
+            int count = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of data at byte " + (this.offset + this.limit));
+            }
+            this.limit += count;
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at byte " + this.getOffset());
+    }
+
+}
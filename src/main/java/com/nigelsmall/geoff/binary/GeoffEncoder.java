@@ -0,0 +1,331 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.geoff.binary;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.nigelsmall.geoff.binary.BinaryGeoff.*;
+
+/**
+ * Writes subgraphs in the binary Geoff encoding described in
+ * {@link BinaryGeoff}. Comments are not encoded.
+ */
+public class GeoffEncoder implements Closeable {
+
+    final private OutputStream out;
+    final private byte[] buffer;
+    final private HashMap<String, Integer> dictionary;
+
+    private int position;
+    private boolean started;
+    private boolean finished;
+
+    public GeoffEncoder(OutputStream out) {
+        this.out = out;
+        this.buffer = new byte[65536];
+        this.dictionary = new HashMap<>();
+    }
+
+    /**
+     * Encode a subgraph.
+     *
+     * @param subgraph the subgraph to write
+     * @throws IllegalArgumentException if a property value is of a type that cannot be encoded
+     */
+    public void writeSubgraph(Subgraph subgraph) throws IOException {
+        if (this.finished) {
+            throw new IllegalStateException("Stream has already been finished");
+        }
+        if (!this.started) {
+            this.writeHeader();
+        }
+        Map<String, AbstractNode> nodes = subgraph.getNodes();
+        HashMap<String, Integer> indexes = new HashMap<>(nodes.size());
+        this.writeByte(SUBGRAPH);
+        this.writeVarint(nodes.size());
+        for (AbstractNode node : nodes.values()) {
+            indexes.put(node.getName(), indexes.size());
+            this.writeNode(node);
+        }
+        this.writeVarint(subgraph.size());
+        for (AbstractRelationship rel : subgraph.getRelationships()) {
+            this.writeVarint(indexes.get(rel.getStartNode().getName()));
+            this.writeWord(rel.getType());
+            this.writeVarint(indexes.get(rel.getEndNode().getName()));
+            this.writeProperties(rel.getProperties());
+        }
+    }
+
+    /**
+     * Write the end marker and flush, leaving the underlying stream open.
+     */
+    public void finish() throws IOException {
+        if (!this.finished) {
+            if (!this.started) {
+                this.writeHeader();
+            }
+            this.writeByte(END);
+            this.finished = true;
+        }
+        this.flush();
+    }
+
+    public void flush() throws IOException {
+        this.out.write(this.buffer, 0, this.position);
+        this.position = 0;
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finish();
+        this.out.close();
+    }
+
+    private void writeHeader() throws IOException {
+        for (byte b : MAGIC) {
+            this.writeByte(b);
+        }
+        this.writeByte(VERSION);
+        this.started = true;
+    }
+
+    private void writeNode(AbstractNode node) throws IOException {
+        String hookLabel = node.getHookLabel();
+        int flags = 0;
+        if (node.isNamed()) {
+            flags |= NAMED;
+        }
+        if (hookLabel != null) {
+            flags |= HOOKED;
+            if (node.getHookKeys().size() > 1) {
+                flags |= COMPOSITE;
+            }
+        }
+        Long nodeId = node.getNodeId();
+        if (nodeId != null) {
+            flags |= REFERENCE;
+        }
+        this.writeByte(flags);
+        if (node.isNamed()) {
+            this.writeString(node.getName());
+        }
+        if (nodeId != null) {
+            this.writeVarint(nodeId);
+        }
+        Set<String> labels = node.getLabels();
+        if (labels == null) {
+            this.writeVarint(0);
+        } else {
+            this.writeVarint(labels.size());
+            for (String label : labels) {
+                this.writeWord(label);
+            }
+        }
+        if (hookLabel != null) {
+            this.writeWord(hookLabel);
+            List<String> hookKeys = node.getHookKeys();
+            if (hookKeys.size() > 1) {
+                this.writeVarint(hookKeys.size());
+                for (String hookKey : hookKeys) {
+                    this.writeWord(hookKey);
+                }
+            } else {
+                this.writeWord(node.getHookKey());
+            }
+        }
+        this.writeProperties(node.getProperties());
+    }
+
+    private void writeProperties(Map<String, Object> properties) throws IOException {
+        if (properties == null) {
+            this.writeVarint(0);
+            return;
+        }
+        this.writeVarint(properties.size());
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            this.writeWord(entry.getKey());
+            this.writeValue(entry.getValue());
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            this.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            this.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            this.writeByte(INTEGER);
+            this.writeSignedVarint((Integer) value);
+        } else if (value instanceof Long) {
+            this.writeByte(LONG);
+            this.writeSignedVarint((Long) value);
+        } else if (value instanceof Float) {
+            this.writeByte(FLOAT);
+            this.writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            this.writeByte(DOUBLE);
+            this.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof String) {
+            this.writeByte(STRING);
+            this.writeString((String) value);
+        } else if (value instanceof Boolean[]) {
+            Boolean[] items = (Boolean[]) value;
+            this.writeByte(BOOLEAN_ARRAY);
+            this.writeVarint(items.length);
+            for (Boolean item : items) {
+                this.writeByte(item ? 1 : 0);
+            }
+        } else if (value instanceof Integer[]) {
+            Integer[] items = (Integer[]) value;
+            this.writeByte(INTEGER_ARRAY);
+            this.writeVarint(items.length);
+            for (Integer item : items) {
+                this.writeSignedVarint(item);
+            }
+        } else if (value instanceof Long[]) {
+            Long[] items = (Long[]) value;
+            this.writeByte(LONG_ARRAY);
+            this.writeVarint(items.length);
+            for (Long item : items) {
+                this.writeSignedVarint(item);
+            }
+        } else if (value instanceof Float[]) {
+            Float[] items = (Float[]) value;
+            this.writeByte(FLOAT_ARRAY);
+            this.writeVarint(items.length);
+            for (Float item : items) {
+                this.writeInt(Float.floatToIntBits(item));
+            }
+        } else if (value instanceof Double[]) {
+            Double[] items = (Double[]) value;
+            this.writeByte(DOUBLE_ARRAY);
+            this.writeVarint(items.length);
+            for (Double item : items) {
+                this.writeLong(Double.doubleToLongBits(item));
+            }
+        } else if (value instanceof String[]) {
+            String[] items = (String[]) value;
+            this.writeByte(STRING_ARRAY);
+            this.writeVarint(items.length);
+            for (String item : items) {
+                this.writeString(item);
+            }
+        } else if (value instanceof Object[] && ((Object[]) value).length == 0) {
+            // an empty array of unknown type
+            this.writeByte(STRING_ARRAY);
+            this.writeVarint(0);
+        } else {
+            throw new IllegalArgumentException("Cannot encode value of type " + value.getClass().getName());
+        }
+    }
+
+    private void writeWord(String word) throws IOException {
+        if (word == null) {
+            this.writeVarint(WORD_NULL);
+            return;
+        }
+        Integer index = this.dictionary.get(word);
+        if (index == null) {
+            this.dictionary.put(word, this.dictionary.size());
+            this.writeVarint(WORD_NEW);
+            this.writeString(word);
+        } else {
+            this.writeVarint(WORD_BASE + index);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        this.writeVarint(bytes.length);
+        if (bytes.length > this.buffer.length - this.position) {
+            this.out.write(this.buffer, 0, this.position);
+            this.position = 0;
+            if (bytes.length > this.buffer.length) {
+                this.out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (this.position == this.buffer.length) {
+            this.out.write(this.buffer, 0, this.position);
+            this.position = 0;
+        }
+        this.buffer[this.position] = (byte) b;
+        this.position += 1;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            this.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.writeByte((int) value);
+    }
+
+    private void writeSignedVarint(long value) throws IOException {
+        this.writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeInt(int value) throws IOException {
+        this.writeByte(value >>> 24);
+        this.writeByte(value >>> 16);
+        this.writeByte(value >>> 8);
+        this.writeByte(value);
+    }
+
+    private void writeLong(long value) throws IOException {
+        this.writeInt((int) (value >>> 32));
+        this.writeInt((int) value);
+    }
+
+    /**
+     * Convert a Geoff document to the binary encoding.
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: GeoffEncoder SOURCE.geoff TARGET");
+            System.exit(2);
+        }
+        long t0 = System.currentTimeMillis();
+        int count = 0;
+        try (Reader reader = new InputStreamReader(new FileInputStream(args[0]), UTF_8);
+             GeoffEncoder encoder = new GeoffEncoder(new FileOutputStream(args[1]))) {
+            GeoffReader geoffReader = new GeoffReader(reader);
+            while (geoffReader.hasMore()) {
+                encoder.writeSubgraph(geoffReader.readSubgraph());
+                count += 1;
+            }
+        }
+        long t1 = System.currentTimeMillis() - t0;
+        System.out.println("Encoded " + count + " subgraphs of " + args[0] + " in " + t1 + "ms");
+    }
+
+}
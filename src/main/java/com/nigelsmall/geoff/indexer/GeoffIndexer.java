@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.geoff.indexer;
+
+import com.nigelsmall.geoff.reader.GeoffIndex;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command line tool that writes a sidecar index (DOCUMENT.idx) alongside
+ * each Geoff document given.
+ */
+public class GeoffIndexer {
+
+    public static GeoffIndex index(File file) throws IOException {
+        GeoffIndex index = GeoffIndex.build(file);
+        index.save(GeoffIndex.sidecar(file));
+        return index;
+    }
+
+    public static void main(String... args) throws IOException {
+        for (String arg : args) {
+            File file = new File(arg);
+            long t0 = System.currentTimeMillis();
+            GeoffIndex index = index(file);
+            long t1 = System.currentTimeMillis() - t0;
+            System.out.println("Indexed " + index.count() + " subgraphs of " + arg +
+                    " in " + t1 + "ms");
+        }
+    }
+
+}
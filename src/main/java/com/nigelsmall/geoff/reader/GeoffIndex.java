@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.geoff.reader;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of the subgraphs within a UTF-8 encoded Geoff document, holding
+ * the byte offset, line number and entity counts of each. An index can be
+ * saved alongside its document as a sidecar file and used to read any
+ * subgraph, or range of subgraphs, without parsing those that precede it.
+ */
+public class GeoffIndex {
+
+    final public static String SUFFIX = ".idx";
+
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Entry {
+
+        final private long offset;
+        final private long length;
+        final private long lineNumber;
+        final private int order;
+        final private int size;
+        final private int hooks;
+
+        public Entry(long offset, long length, long lineNumber, int order, int size, int hooks) {
+            this.offset = offset;
+            this.length = length;
+            this.lineNumber = lineNumber;
+            this.order = order;
+            this.size = size;
+            this.hooks = hooks;
+        }
+
+        public String toString() {
+            return this.offset + "\t" + this.length + "\t" + this.lineNumber + "\t" +
+                    this.order + "\t" + this.size + "\t" + this.hooks;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        public long getLineNumber() {
+            return this.lineNumber;
+        }
+
+        public int order() {
+            return this.order;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int hooks() {
+            return this.hooks;
+        }
+
+    }
+
+    final private ArrayList<Entry> entries;
+
+    public GeoffIndex(List<Entry> entries) {
+        this.entries = new ArrayList<>(entries);
+    }
+
+    /**
+     * Build an index by scanning a Geoff document from start to finish.
+     *
+     * @param file the Geoff document to index
+     * @return a new index of the subgraphs within the document
+     * @throws IOException if the document cannot be read or is not valid Geoff
+     */
+    public static GeoffIndex build(File file) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+            GeoffReader geoffReader = new GeoffReader(reader);
+            geoffReader.readWhitespace();
+            while (geoffReader.hasMore()) {
+                long offset = geoffReader.getOffset();
+                long lineNumber = geoffReader.getLineNumber();
+                SubgraphSummary summary = geoffReader.scanSubgraph();
+                entries.add(new Entry(offset, geoffReader.getOffset() - offset, lineNumber,
+                        summary.order(), summary.size(), summary.hooks()));
+            }
+        }
+        return new GeoffIndex(entries);
+    }
+
+    /**
+     * Load an index previously saved as a sidecar file.
+     *
+     * @param file the index file
+     * @return the index held within the file
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static GeoffIndex load(File file) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 6) {
+                    throw new IOException("Malformed index entry: " + line);
+                }
+                try {
+                    entries.add(new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                            Integer.parseInt(fields[4]), Integer.parseInt(fields[5])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed index entry: " + line);
+                }
+            }
+        }
+        return new GeoffIndex(entries);
+    }
+
+    /**
+     * Save this index as a sidecar file, one tab-separated line per subgraph.
+     *
+     * @param file the index file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8))) {
+            writer.write("# offset\tlength\tline\tnodes\trelationships\thooks\n");
+            for (Entry entry : this.entries) {
+                writer.write(entry.toString());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @param file a Geoff document
+     * @return the file in which the index for that document is kept
+     */
+    public static File sidecar(File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    public int count() {
+        return this.entries.size();
+    }
+
+    public Entry get(int number) {
+        return this.entries.get(number);
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    /**
+     * Open a reader over a single subgraph of an indexed document.
+     *
+     * @param file the document described by this index
+     * @param number the zero-based number of the subgraph to read
+     * @return a reader positioned at the start of the subgraph
+     * @throws IOException if the document cannot be opened
+     */
+    public GeoffReader open(File file, int number) throws IOException {
+        return this.open(file, number, number + 1);
+    }
+
+    /**
+     * Open a reader over a contiguous range of subgraphs of an indexed
+     * document. The reader will report no more data after the last subgraph
+     * in the range.
+     *
+     * @param file the document described by this index
+     * @param from the zero-based number of the first subgraph to read
+     * @param to the zero-based number of the subgraph at which to stop (exclusive)
+     * @return a reader positioned at the start of the first subgraph
+     * @throws IOException if the document cannot be opened
+     */
+    public GeoffReader open(File file, int from, int to) throws IOException {
+        if (from < 0 || to > this.entries.size() || from > to) {
+            throw new IndexOutOfBoundsException("Subgraph range " + from + ".." + to +
+                    " not within index of " + this.entries.size());
+        }
+        if (from == to) {
+            return new GeoffReader("");
+        }
+        Entry first = this.entries.get(from);
+        Entry last = this.entries.get(to - 1);
+        long length = last.offset + last.length - first.offset;
+        FileInputStream in = new FileInputStream(file);
+        FileChannel channel = in.getChannel();
+        channel.position(first.offset);
+        InputStream bounded = new BoundedInputStream(Channels.newInputStream(channel), length);
+        return new GeoffReader(new InputStreamReader(bounded, UTF_8), first.offset, first.lineNumber);
+    }
+
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                this.remaining -= 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, this.remaining));
+            if (n > 0) {
+                this.remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, this.remaining));
+            this.remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), this.remaining);
+        }
+
+    }
+
+}
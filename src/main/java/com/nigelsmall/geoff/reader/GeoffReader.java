@@ -18,34 +18,201 @@ package com.nigelsmall.geoff.reader;
 
 import com.nigelsmall.load2neo.AbstractNode;
 import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.SpillableSubgraph;
 import com.nigelsmall.load2neo.Subgraph;
-import org.codehaus.jackson.map.ObjectMapper;
+import com.nigelsmall.load2neo.SubgraphReader;
+import com.nigelsmall.load2neo.Template;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.*;
 
-public class GeoffReader {
+public class GeoffReader implements SubgraphReader {
 
     final private Logger logger = LoggerFactory.getLogger(GeoffReader.class);
 
-    final private static class UnexpectedEndOfData extends IOException {}
+    final private static class UnexpectedEndOfData extends GeoffReaderException {
 
-    final private static ObjectMapper mapper = new ObjectMapper();
+        UnexpectedEndOfData(long lineNumber, long columnNumber) {
+            super("Unexpected end of data", lineNumber, columnNumber);
+        }
+
+    }
+
+    /**
+     * Receives the entities of a subgraph as its grammar is parsed. Reading
+     * and scanning share the same grammar and differ only in their builder.
+     * A scan does not materialise values, so its labels and properties are
+     * always null.
+     */
+    private interface Builder {
+
+        /**
+         * @param name the name of the node, or null if anonymous
+         * @param nodeId the ID of the existing node referred to, or null
+         * @return the node, passed back when it is added, hooked or related
+         */
+        public Object node(String name, Long nodeId, Set<String> labels, Map<String, Object> properties);
+
+        public void addNode(Object node, Map<String, Object> properties);
+
+        public void addHook(Object node, String label, List<String> keys);
+
+        public void addRelationship(Object startNode, AbstractRelationship rel, Object endNode,
+                                    Map<String, Object> properties);
+
+        public void addComment(String comment);
+
+    }
+
+    final private static class SubgraphBuilder implements Builder {
+
+        final private Subgraph subgraph;
+
+        SubgraphBuilder(Subgraph subgraph) {
+            this.subgraph = subgraph;
+        }
+
+        @Override
+        public Object node(String name, Long nodeId, Set<String> labels, Map<String, Object> properties) {
+            AbstractNode node = new AbstractNode(name, labels, properties);
+            if (nodeId != null) {
+                node.setNodeId(nodeId);
+            }
+            return node;
+        }
+
+        @Override
+        public void addNode(Object node, Map<String, Object> properties) {
+            ((AbstractNode) node).mergeProperties(properties);
+            this.subgraph.mergeNode((AbstractNode) node);
+        }
+
+        @Override
+        public void addHook(Object node, String label, List<String> keys) {
+            this.subgraph.mergeNode((AbstractNode) node).setHook(label, keys);
+        }
+
+        @Override
+        public void addRelationship(Object startNode, AbstractRelationship rel, Object endNode,
+                                    Map<String, Object> properties) {
+            AbstractRelationship relationship = new AbstractRelationship((AbstractNode) startNode,
+                    rel.getType(), rel.getProperties(), (AbstractNode) endNode);
+            relationship.mergeProperties(properties);
+            this.subgraph.addRelationship(relationship);
+        }
+
+        @Override
+        public void addComment(String comment) {
+            this.subgraph.addComment(comment);
+        }
+
+    }
+
+    /**
+     * Counts entities without building them. Named nodes are counted once
+     * however often they appear, as they would be merged by a subgraph.
+     */
+    final private static class SummaryBuilder implements Builder {
+
+        final private static Object ANONYMOUS = new Object();
+
+        final private HashSet<String> names = new HashSet<>();
+        final private HashSet<String> hookNames = new HashSet<>();
+        private int anonymousNodes;
+        private int anonymousHooks;
+        private int size;
+
+        @Override
+        public Object node(String name, Long nodeId, Set<String> labels, Map<String, Object> properties) {
+            if (nodeId != null) {
+                name = "#" + nodeId;
+            }
+            if (name == null) {
+                this.anonymousNodes += 1;
+                return ANONYMOUS;
+            } else {
+                this.names.add(name);
+                return name;
+            }
+        }
+
+        @Override
+        public void addNode(Object node, Map<String, Object> properties) {
+            // counted when read
+        }
+
+        @Override
+        public void addHook(Object node, String label, List<String> keys) {
+            if (node == ANONYMOUS) {
+                this.anonymousHooks += 1;
+            } else {
+                this.hookNames.add((String) node);
+            }
+        }
+
+        @Override
+        public void addRelationship(Object startNode, AbstractRelationship rel, Object endNode,
+                                    Map<String, Object> properties) {
+            this.size += 1;
+        }
+
+        @Override
+        public void addComment(String comment) {
+            // not counted
+        }
+
+        SubgraphSummary toSummary() {
+            return new SubgraphSummary(this.names.size() + this.anonymousNodes, this.size,
+                    this.hookNames.size() + this.anonymousHooks);
+        }
+
+    }
 
     final protected static int NULL = -2;
     final protected static int END_OF_DATA = -1;
 
     private BufferedReader reader;
     private int peeked;
+    private long offset;
+    private long lineNumber;
+    private long columnNumber;
+    final private StringBuilder numberText = new StringBuilder(20);
+    private boolean materialising = true;
+    private int spillThreshold;
+    private File spillDirectory;
+    private boolean hashing;
+    private long hash1;
+    private long hash2;
+    private long contentHash1;
+    private long contentHash2;
+    private StringBuilder capture;
+    private LinkedHashMap<String, Template.Parameter> parameters;
 
     public GeoffReader(Reader reader) {
+        this(reader, 0, 1);
+    }
+
+    /**
+     * Create a reader for data that begins part way through a document,
+     * such as a subgraph located via a {@link GeoffIndex}.
+     *
+     * @param reader the source of Geoff data
+     * @param offset the UTF-8 byte offset within the document at which the data begins
+     * @param lineNumber the line number within the document at which the data begins
+     */
+    public GeoffReader(Reader reader, long offset, long lineNumber) {
         this.reader = new BufferedReader(reader);
         this.peeked = NULL;
+        this.offset = offset;
+        this.lineNumber = lineNumber;
+        this.columnNumber = 1;
     }
 
     public GeoffReader(String string) {
@@ -61,9 +228,33 @@ public class GeoffReader {
             this.peeked = NULL;
         }
         if (ch == END_OF_DATA)
-            throw new UnexpectedEndOfData();
-        else
-            return (char)ch;
+            throw new UnexpectedEndOfData(this.lineNumber, this.columnNumber);
+        this.advance((char)ch);
+        return (char)ch;
+    }
+
+    private void advance(char ch) {
+        if (this.capture != null) {
+            this.capture.append(ch);
+        }
+        if (this.hashing) {
+            this.hash1 = (this.hash1 ^ ch) * 0x100000001b3L;
+            this.hash2 = (this.hash2 + ch) * 0x9e3779b97f4a7c15L;
+        }
+        if (ch < 0x80) {
+            this.offset += 1;
+        } else if (ch < 0x800 || Character.isSurrogate(ch)) {
+            // each half of a surrogate pair accounts for two of its four bytes
+            this.offset += 2;
+        } else {
+            this.offset += 3;
+        }
+        if (ch == '\n') {
+            this.lineNumber += 1;
+            this.columnNumber = 1;
+        } else {
+            this.columnNumber += 1;
+        }
     }
 
     private Character peek() throws IOException {
@@ -81,97 +272,109 @@ public class GeoffReader {
         if (this.nextCharEquals(ch)) {
             return this.read();
         } else {
-            throw new GeoffReaderException("Unexpected character");
+            throw this.error("Expected '" + ch + "'");
         }
     }
 
-    private String readUntil(char terminator) throws IOException {
-        StringBuilder s = new StringBuilder(200);
-        char ch = '\0';
-        while (this.hasMore() && ch != terminator) {
-            ch = this.read();
-            s.append(ch);
-        }
-        return s.toString();
+    private boolean nextCharEquals(char ch) throws IOException {
+        Character nextChar = this.peek();
+        return nextChar != null && nextChar == ch;
     }
 
-    private String readUntil(String terminator) throws IOException {
-        StringBuilder s = new StringBuilder(200);
-        char terminatorChar = terminator.charAt(terminator.length() - 1);
-        while (this.hasMore() && !s.toString().endsWith(terminator)) {
-            s.append(this.readUntil(terminatorChar));
-        }
-        return s.toString();
+    private boolean nextCharIsDigit() throws IOException {
+        Character nextChar = this.peek();
+        return nextChar != null && Character.isDigit(nextChar);
     }
 
-    private boolean nextCharEquals(char ch) throws IOException {
-        Character nextChar = this.peek();
-        return nextChar != null && nextChar == ch;
+    private GeoffReaderException error(String message) {
+        return new GeoffReaderException(message, this.lineNumber, this.columnNumber);
     }
 
+    @Override
     public boolean hasMore() throws IOException {
         return this.peek() != null;
     }
 
-    private List readArray() throws IOException {
+    /**
+     * @return the UTF-8 byte offset of the next character to be read
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * @return the line number of the next character to be read
+     */
+    public long getLineNumber() {
+        return this.lineNumber;
+    }
+
+    /**
+     * @return the column number of the next character to be read
+     */
+    public long getColumnNumber() {
+        return this.columnNumber;
+    }
+
+
+    /**
+     * Read an array of strings, numbers or booleans, all of the same kind
+     * as the first. Integers are widened to longs if any needs it, and all
+     * numbers are read as doubles if any is not an integer.
+     *
+     * @return the items read, or null if not materialising values
+     */
+    private List<Object> readArray() throws IOException {
         this.readChar('[');
         this.readWhitespace();
+        ArrayList<Object> items = this.materialising ? new ArrayList<>() : null;
         if (this.nextCharEquals(']')) {
             this.readChar(']');
-            return new ArrayList<Object>();
+            return items;
         }
+        final char kind;
         if (this.nextCharEquals('"')) {
-            ArrayList<Object> items = new ArrayList<>();
-            items.add(this.readString());
-            this.readWhitespace();
-            while (this.nextCharEquals(',')) {
-                this.readChar(',');
-                this.readWhitespace();
-                items.add(this.readString());
-                this.readWhitespace();
+            kind = '"';
+        } else if (this.nextCharEquals('-') || this.nextCharIsDigit()) {
+            kind = '0';
+        } else if (this.nextCharEquals('t') || this.nextCharEquals('f')) {
+            kind = 't';
+        } else {
+            throw this.error("Disarray");
+        }
+        boolean integral = true;
+        boolean wide = false;
+        while (true) {
+            Object item;
+            if (kind == '"') {
+                item = this.readString();
+            } else if (kind == '0') {
+                Number n = this.readNumber();
+                integral = integral && !(n instanceof Double);
+                wide = wide || n instanceof Long;
+                item = n;
+            } else {
+                item = this.readBoolean();
             }
-            this.readChar(']');
-            return items;
-        } else if (this.nextCharEquals('-') || Character.isDigit(this.peek())) {
-            ArrayList<Object> integerItems = new ArrayList<>();
-            ArrayList<Object> doubleItems = new ArrayList<>();
-            Number n = this.readNumber();
-            doubleItems.add(n.doubleValue());
-            if (n instanceof Integer) {
-                integerItems.add(n.intValue());
+            if (items != null) {
+                items.add(item);
             }
             this.readWhitespace();
-            while (this.nextCharEquals(',')) {
-                this.readChar(',');
-                this.readWhitespace();
-                n = this.readNumber();
-                doubleItems.add(n.doubleValue());
-                if (n instanceof Integer) {
-                    integerItems.add(n.intValue());
-                }
-                this.readWhitespace();
+            if (!this.nextCharEquals(',')) {
+                break;
             }
-            this.readChar(']');
-            if (integerItems.size() == doubleItems.size()) {
-                return integerItems;
-            } else {
-                return doubleItems;
-            }
-        } else if (this.nextCharEquals('t') || this.nextCharEquals('f')) {
-            ArrayList<Object> items = new ArrayList<>();
-            items.add(this.readBoolean());
+            this.readChar(',');
             this.readWhitespace();
-            while (this.nextCharEquals(',')) {
-                this.readChar(',');
-                this.readWhitespace();
-                items.add(this.readBoolean());
-                this.readWhitespace();
+        }
+        this.readChar(']');
+        if (items != null && kind == '0' && (wide || !integral)) {
+            // convert everything so the array can be stored as a single type
+            for (int i = 0; i < items.size(); i++) {
+                Number n = (Number) items.get(i);
+                items.set(i, integral ? (Object) n.longValue() : (Object) n.doubleValue());
             }
-            this.readChar(']');
-            return items;
-        } else {
-            throw new GeoffReaderException("Disarray");
         }
+        return items;
     }
 
     private String readArrow() throws IOException {
@@ -188,7 +391,7 @@ public class GeoffReader {
                 return "-";
             }
         } else {
-            throw new GeoffReaderException("Broken arrow");
+            throw this.error("Broken arrow");
         }
     }
 
@@ -207,7 +410,7 @@ public class GeoffReader {
             readChar('e');
             return false;
         } else {
-            throw new GeoffReaderException("Cannot establish truth");
+            throw this.error("Cannot establish truth");
         }
     }
 
@@ -221,11 +424,28 @@ public class GeoffReader {
         }
     }
 
+    /**
+     * @return the text of a comment, trimmed, or null if not materialising
+     *         values
+     */
     private String readComment() throws IOException {
         this.readChar('/');
         this.readChar('*');
-        String comment = this.readUntil("*/");
-        return comment.substring(0, comment.length() - 2).trim();
+        StringBuilder s = this.materialising ? new StringBuilder() : null;
+        char previous = '\0';
+        boolean closed = false;
+        while (!closed && this.hasMore()) {
+            char ch = this.read();
+            closed = previous == '*' && ch == '/';
+            if (s != null) {
+                s.append(ch);
+            }
+            previous = ch;
+        }
+        if (s == null) {
+            return null;
+        }
+        return s.substring(0, closed ? s.length() - 2 : s.length()).trim();
     }
 
     private void readKeyValuePairInto(HashMap<String, Object> map) throws IOException {
@@ -234,108 +454,159 @@ public class GeoffReader {
         this.readChar(':');
         this.readWhitespace();
         Object value = this.readValue();
-        map.put(key, value);
+        if (map != null) {
+            map.put(key, value);
+        }
     }
 
     private HashSet<String> readLabels() throws IOException {
-        HashSet<String> labels = new HashSet<>();
+        HashSet<String> labels = this.materialising ? new HashSet<String>() : null;
         while (this.nextCharEquals(':')) {
             this.readChar(':');
-            labels.add(this.readName());
+            String label = this.readName();
+            if (labels != null) {
+                labels.add(label);
+            }
         }
         return labels;
     }
 
     private String readName() throws IOException {
+        StringBuilder s = new StringBuilder();
         if (this.nextCharEquals('"')) {
-            return this.readString();
+            this.readString(s);
         } else {
-            StringBuilder s = new StringBuilder();
             while (this.hasMore() && (Character.isLetterOrDigit(this.peek()) || this.nextCharEquals('_'))) {
                 s.append(this.read());
             }
-            return s.toString();
         }
+        return s.toString();
     }
 
-    private AbstractNode readNode() throws IOException {
-        String name;
-        HashSet<String> labels;
-        HashMap<String, Object> properties;
+    /**
+     * Read a node and pass it to a builder.
+     *
+     * @param hook true if the node is hooked, so cannot refer to a node by ID
+     * @return the node, as returned by the builder
+     */
+    private Object readNode(Builder builder, boolean hook) throws IOException {
+        String name = null;
+        Long nodeId = null;
+        HashSet<String> labels = null;
+        HashMap<String, Object> properties = null;
         this.readChar('(');
         this.readWhitespace();
-        if (this.nextCharEquals(')')) {
-            name = null;
-            labels = null;
-            properties = null;
-        } else if (this.nextCharEquals(':')) {
-            name = null;
-            labels = this.readLabels();
-            this.readWhitespace();
-            if (this.nextCharEquals('{')) {
-                properties = this.readPropertyMap();
-            } else {
-                properties = null;
+        if (this.nextCharEquals('#')) {
+            if (hook) {
+                throw this.error("Hooks cannot refer to nodes by ID");
             }
-        } else if (this.nextCharEquals('{')) {
-            name = null;
-            labels = null;
-            properties = this.readPropertyMap();
-        } else {
-            name = this.readName();
+            nodeId = this.readNodeId();
             this.readWhitespace();
-            if (this.nextCharEquals(':')) {
-                labels = this.readLabels();
-            } else {
-                labels = null;
-            }
+        } else if (!this.nextCharEquals(')') && !this.nextCharEquals(':') && !this.nextCharEquals('{')) {
+            name = this.readName();
             this.readWhitespace();
-            if (this.nextCharEquals('{')) {
-                properties = this.readPropertyMap();
-            } else {
-                properties = null;
-            }
+        }
+        if (this.nextCharEquals(':')) {
+            labels = this.readLabels();
+        }
+        this.readWhitespace();
+        if (this.nextCharEquals('{')) {
+            properties = this.readPropertyMap();
         }
         this.readWhitespace();
         this.readChar(')');
-        return new AbstractNode(name, labels, properties);
+        return builder.node(name, nodeId, labels, properties);
+    }
+
+    /**
+     * Read a reference to an existing node by ID, such as <code>#123</code>.
+     */
+    private long readNodeId() throws IOException {
+        this.readChar('#');
+        StringBuilder s = this.numberText;
+        s.setLength(0);
+        while (this.nextCharIsDigit()) {
+            s.append(this.read());
+        }
+        try {
+            return Long.parseLong(s.toString());
+        } catch (NumberFormatException e) {
+            throw this.error("Invalid node ID");
+        }
     }
 
+    /**
+     * Read a JSON formatted number, checking it as it goes.
+     *
+     * @return an Integer or Long if integral and in range, otherwise a
+     *         Double, or null if not materialising values
+     */
     private Number readNumber() throws IOException {
-        StringBuilder s = new StringBuilder(20);
+        StringBuilder s = this.numberText;
+        s.setLength(0);
+        int integerDigits = 0;
+        int fractionDigits = 0;
+        int exponentDigits = 0;
         boolean isReal = false;
+        boolean hasExponent = false;
         if (this.nextCharEquals('-')) {
             s.append(this.read());
         }
-        while (Character.isDigit(this.peek())) {
+        while (this.nextCharIsDigit()) {
             s.append(this.read());
+            integerDigits += 1;
         }
         if (this.nextCharEquals('.')) {
             isReal = true;
             s.append(this.read());
-            while (Character.isDigit(this.peek())) {
+            while (this.nextCharIsDigit()) {
                 s.append(this.read());
+                fractionDigits += 1;
             }
         }
         if (this.nextCharEquals('E') || this.nextCharEquals('e')) {
             isReal = true;
+            hasExponent = true;
             s.append(this.read());
             if (this.nextCharEquals('+') || this.nextCharEquals('-')) {
                 s.append(this.read());
             }
-            while (Character.isDigit(this.peek())) {
+            while (this.nextCharIsDigit()) {
                 s.append(this.read());
+                exponentDigits += 1;
             }
         }
+        if (integerDigits + fractionDigits == 0 || (hasExponent && exponentDigits == 0)) {
+            throw this.error("Unable to parse number");
+        }
         if (isReal) {
-            return Double.parseDouble(s.toString());
+            return this.materialising ? Double.parseDouble(s.toString()) : null;
+        } else if (integerDigits < 10) {
+            return this.materialising ? Integer.parseInt(s.toString()) : null;
+        } else if (!this.materialising && integerDigits < 19) {
+            return null;
+        }
+        // only now might the value be too large for a long, or even an int
+        long n;
+        try {
+            n = Long.parseLong(s.toString());
+        } catch (NumberFormatException e) {
+            throw this.error("Unable to parse number");
+        }
+        if (!this.materialising) {
+            return null;
+        } else if (n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE) {
+            return (int) n;
         } else {
-            return Integer.parseInt(s.toString());
+            return n;
         }
     }
 
+    /**
+     * @return the properties read, or null if not materialising values
+     */
     private HashMap<String, Object> readPropertyMap() throws IOException {
-        HashMap<String, Object> properties = new HashMap<>();
+        HashMap<String, Object> properties = this.materialising ? new HashMap<String, Object>() : null;
         this.readChar('{');
         this.readWhitespace();
         if (!this.nextCharEquals('}')) {
@@ -375,47 +646,121 @@ public class GeoffReader {
         return rel;
     }
 
-    /** Reads a JSON formatted string
+    /**
+     * Read a JSON formatted string.
+     *
+     * @return the string, or null if not materialising values
      */
     private String readString() throws IOException {
-        StringBuilder s = new StringBuilder(200);
-        s.append(this.read());
-        boolean endOfString = false;
-        while (this.hasMore() && !endOfString) {
-            s.append(this.readUntil('"'));
-            endOfString = !s.toString().endsWith("\\\"");
+        if (this.materialising) {
+            StringBuilder s = new StringBuilder();
+            this.readString(s);
+            return s.toString();
+        } else {
+            this.readString(null);
+            return null;
         }
-        try {
-            return mapper.readValue(s.toString(), String.class);
-        } catch (IOException e) {
-            throw new GeoffReaderException("Unable to parse JSON string");
+    }
+
+    /**
+     * Read a JSON formatted string, checking it as it goes.
+     *
+     * @param s the builder into which to decode the string, or null only to check it
+     */
+    private void readString(StringBuilder s) throws IOException {
+        this.readChar('"');
+        while (true) {
+            char ch = this.read();
+            if (ch == '"') {
+                return;
+            } else if (ch == '\\') {
+                char escaped = this.read();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        ch = escaped;
+                        break;
+                    case 'b':
+                        ch = '\b';
+                        break;
+                    case 'f':
+                        ch = '\f';
+                        break;
+                    case 'n':
+                        ch = '\n';
+                        break;
+                    case 'r':
+                        ch = '\r';
+                        break;
+                    case 't':
+                        ch = '\t';
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(this.read(), 16);
+                            if (digit < 0) {
+                                throw this.error("Unable to parse JSON string");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        ch = (char) code;
+                        break;
+                    default:
+                        throw this.error("Unable to parse JSON string");
+                }
+            } else if (ch < 0x20) {
+                throw this.error("Unable to parse JSON string");
+            }
+            if (s != null) {
+                s.append(ch);
+            }
         }
     }
 
+    /**
+     * @return the value read, or null if not materialising values
+     */
     private Object readValue() throws IOException {
         Object value;
         if (this.nextCharEquals('[')) {
-            List listValue = this.readArray();
-            int listValueSize = listValue.size();
-            if (listValueSize == 0) {
+            List<Object> listValue = this.readArray();
+            if (listValue == null) {
+                value = null;
+            } else if (listValue.isEmpty()) {
                 value = new Object[0];
             } else if (listValue.get(0) instanceof String) {
-                value = listValue.toArray(new String[listValueSize]);
+                value = listValue.toArray(new String[listValue.size()]);
             } else if (listValue.get(0) instanceof Integer) {
-                value = listValue.toArray(new Integer[listValueSize]);
+                value = listValue.toArray(new Integer[listValue.size()]);
+            } else if (listValue.get(0) instanceof Long) {
+                value = listValue.toArray(new Long[listValue.size()]);
             } else if (listValue.get(0) instanceof Double) {
-                value = listValue.toArray(new Double[listValueSize]);
+                value = listValue.toArray(new Double[listValue.size()]);
             } else if (listValue.get(0) instanceof Boolean) {
-                value = listValue.toArray(new Boolean[listValueSize]);
+                value = listValue.toArray(new Boolean[listValue.size()]);
             } else {
-                throw new GeoffReaderException("Unexpected array type");
+                throw this.error("Unexpected array type");
             }
         } else if (this.nextCharEquals('"')) {
             value = this.readString();
-        } else if (this.nextCharEquals('-') || Character.isDigit(this.peek())) {
+        } else if (this.nextCharEquals('-') || this.nextCharIsDigit()) {
             value = this.readNumber();
         } else if (this.nextCharEquals('t') || this.nextCharEquals('f')) {
             value = this.readBoolean();
+        } else if (this.parameters != null && this.nextCharEquals('$')) {
+            this.readChar('$');
+            String name = this.readName();
+            if (name.isEmpty()) {
+                throw this.error("Parameter name expected");
+            }
+            value = this.parameters.get(name);
+            if (value == null) {
+                Template.Parameter parameter = new Template.Parameter(name);
+                this.parameters.put(name, parameter);
+                value = parameter;
+            }
         } else if (this.nextCharEquals('n')) {
             this.readChar('n');
             this.readChar('u');
@@ -423,7 +768,7 @@ public class GeoffReader {
             this.readChar('l');
             value = null;
         } else {
-            throw new GeoffReaderException("Unexpected character");
+            throw this.error("Unexpected character");
         }
         return value;
     }
@@ -436,29 +781,186 @@ public class GeoffReader {
         return builder.toString();
     }
 
+    /**
+     * Read subsequent subgraphs into {@link SpillableSubgraph}s, which move
+     * their entities out to disk once they grow beyond a given size.
+     *
+     * @param threshold the number of nodes and relationships to hold in memory, or 0 never to spill
+     * @param directory the directory for spill files, or null for the default temporary directory
+     */
+    public void setSpillThreshold(int threshold, File directory) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Spill threshold must not be negative");
+        }
+        this.spillThreshold = threshold;
+        this.spillDirectory = directory;
+    }
+
+    /**
+     * Choose whether each subgraph read is given a content hash, computed
+     * from the characters read for it as they are consumed. Replays of the
+     * same text therefore have the same hash, at almost no extra cost.
+     *
+     * @param hashing true to hash subgraphs
+     * @see Subgraph#getContentHash()
+     */
+    public void setHashing(boolean hashing) {
+        this.hashing = hashing;
+    }
+
+    /**
+     * Choose whether property values may be given as parameters, such as
+     * <code>$name</code>, to be filled in later. Each parameter is read as
+     * a {@link Template.Parameter}, the same object standing for every use
+     * of the same name within a subgraph.
+     *
+     * @param parameterised true to allow parameters
+     * @see Template
+     */
+    public void setParameterised(boolean parameterised) {
+        this.parameters = parameterised ? new LinkedHashMap<String, Template.Parameter>() : null;
+    }
+
+    /**
+     * @return the parameters used in the last subgraph, in order of first
+     *         use, or null if parameters are not allowed
+     */
+    public List<Template.Parameter> getParameters() {
+        return this.parameters == null ? null : new ArrayList<>(this.parameters.values());
+    }
+
+    /**
+     * Choose whether the text of each subgraph is kept as it is read, so
+     * that a subgraph that cannot be read or loaded can be set aside.
+     *
+     * @param capturing true to keep subgraph text
+     * @see #getSubgraphText()
+     */
+    public void setCapturing(boolean capturing) {
+        this.capture = capturing ? new StringBuilder() : null;
+    }
+
+    /**
+     * @return the text read for the last subgraph, including any skipped
+     *         after an error, or null if not capturing
+     */
+    public String getSubgraphText() {
+        return this.capture == null ? null : this.capture.toString();
+    }
+
+    /**
+     * Skip the rest of a subgraph that could not be read, up to and
+     * including the next boundary at the start of a line, so that reading
+     * can carry on with the subgraph after.
+     */
+    public void skipToBoundary() throws IOException {
+        // the number of tildes read at the start of the line, or -1 if none
+        int tildes = this.columnNumber == 1 ? 0 : -1;
+        while (this.hasMore()) {
+            char ch = this.read();
+            if (ch == '\n') {
+                tildes = 0;
+            } else if (ch == '~' && tildes >= 0) {
+                tildes += 1;
+                if (tildes == 4) {
+                    while (this.nextCharEquals('~')) {
+                        this.read();
+                    }
+                    return;
+                }
+            } else {
+                tildes = -1;
+            }
+        }
+    }
+
+    @Override
     public Subgraph readSubgraph() throws IOException {
-        logger.info("Reading subgraph...");
+        logger.debug("Reading subgraph...");
         long t0 = System.currentTimeMillis();
-        Subgraph subgraph = new Subgraph();
-        boolean endOfSubgraph = false;
+        Subgraph subgraph;
+        if (this.spillThreshold > 0) {
+            subgraph = new SpillableSubgraph(this.spillThreshold, this.spillDirectory);
+        } else {
+            subgraph = new Subgraph();
+        }
+        this.readWhitespace();
+        this.hash1 = 0xcbf29ce484222325L;
+        this.hash2 = 0;
+        if (this.capture != null) {
+            this.capture.setLength(0);
+        }
+        if (this.parameters != null) {
+            this.parameters.clear();
+        }
+        try {
+            this.parse(new SubgraphBuilder(subgraph));
+        } catch (IOException | RuntimeException e) {
+            // release any spill files
+            if (subgraph instanceof Closeable) {
+                ((Closeable) subgraph).close();
+            }
+            throw e;
+        }
+        if (this.hashing) {
+            subgraph.setContentHash(String.format("geoff:%016x%016x", this.contentHash1, this.contentHash2));
+        }
+        // finish read
+        long t1 = System.currentTimeMillis() - t0;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Read subgraph with {} nodes and {} relationships in {}ms",
+                    new Object[] {subgraph.order(), subgraph.size(), t1});
+        }
+        return subgraph;
+    }
+
+    /**
+     * Scan the next subgraph, checking that it is well formed and counting
+     * its entities, but without building it. Property values are checked
+     * but not decoded and only the names of named nodes are retained, so
+     * this is considerably cheaper than {@link #readSubgraph()}.
+     *
+     * @return the entity counts of the subgraph scanned
+     * @throws IOException if the data cannot be read or is not valid Geoff
+     */
+    public SubgraphSummary scanSubgraph() throws IOException {
+        SummaryBuilder summary = new SummaryBuilder();
         this.readWhitespace();
+        this.materialising = false;
+        try {
+            this.parse(summary);
+        } finally {
+            this.materialising = true;
+        }
+        return summary.toSummary();
+    }
+
+    /**
+     * Parse statements up to the end of the data or the next boundary,
+     * passing each entity to a builder.
+     */
+    private void parse(Builder builder) throws IOException {
+        boolean endOfSubgraph = false;
+        this.contentHash1 = this.hash1;
+        this.contentHash2 = this.hash2;
         while (this.hasMore() && !endOfSubgraph) {
             if(this.nextCharEquals('(')) {
-                AbstractNode node = this.readNode();
-                ArrayList<AbstractRelationship> relationships = new ArrayList<>();
+                Object node = this.readNode(builder, false);
+                // start node, relationship box and end node of each relationship in a path
+                ArrayList<Object> relationships = new ArrayList<>();
                 while (this.nextCharEquals('<') || this.nextCharEquals('-')) {
                     String arrow1 = this.readArrow();
                     AbstractRelationship rel = this.readRelationshipBox();
                     String arrow2 = this.readArrow();
-                    AbstractNode otherNode = this.readNode();
+                    Object otherNode = this.readNode(builder, false);
                     if ("-".equals(arrow1) && "-".equals(arrow2)) {
-                        throw new GeoffReaderException("Lack of direction");
+                        throw this.error("Lack of direction");
                     }
                     if ("<-".equals(arrow1)) {
-                        relationships.add(new AbstractRelationship(otherNode, rel.getType(), rel.getProperties(), node));
+                        Collections.addAll(relationships, otherNode, rel, node);
                     }
                     if ("->".equals(arrow2)) {
-                        relationships.add(new AbstractRelationship(node, rel.getType(), rel.getProperties(), otherNode));
+                        Collections.addAll(relationships, node, rel, otherNode);
                     }
                     node = otherNode;
                 }
@@ -468,13 +970,12 @@ public class GeoffReader {
                     properties = this.readPropertyMap();
                 }
                 if (relationships.size() > 0) {
-                    for (AbstractRelationship rel : relationships) {
-                        rel.mergeProperties(properties);
-                        subgraph.addRelationship(rel);
+                    for (int i = 0; i < relationships.size(); i += 3) {
+                        builder.addRelationship(relationships.get(i), (AbstractRelationship) relationships.get(i + 1),
+                                relationships.get(i + 2), properties);
                     }
                 } else {
-                    node.mergeProperties(properties);
-                    subgraph.mergeNode(node);
+                    builder.addNode(node, properties);
                 }
             } else if(this.nextCharEquals(':')) {
                 this.readChar(':');
@@ -483,32 +984,32 @@ public class GeoffReader {
                 this.readWhitespace();
                 this.readChar(':');
                 this.readWhitespace();
-                String key = null;
-                if (!this.nextCharEquals('=')) {
-                    key = this.readName();
+                // any number of keys may follow, all of which must match
+                ArrayList<String> keys = new ArrayList<>(1);
+                while (!this.nextCharEquals('=')) {
+                    keys.add(this.readName());
                     this.readWhitespace();
                     this.readChar(':');
                     this.readWhitespace();
                 }
                 this.readChar('=');
                 this.readChar('>');
-                AbstractNode node = this.readNode();
-                subgraph.mergeNode(node).setHook(label, key);
+                builder.addHook(this.readNode(builder, true), label, keys);
             } else  if(this.nextCharEquals('/')) {
-                subgraph.addComment(this.readComment());
+                builder.addComment(this.readComment());
             } else if(this.nextCharEquals('~')) {
                 this.readBoundary();
                 endOfSubgraph = true;
             } else if(this.hasMore()) {
-                throw new GeoffReaderException("Unexpected character " + this.peek());
+                throw this.error("Unexpected character " + this.peek());
+            }
+            if (!endOfSubgraph) {
+                // leave the boundary and trailing whitespace out of the hash
+                this.contentHash1 = this.hash1;
+                this.contentHash2 = this.hash2;
             }
             this.readWhitespace();
         }
-        // finish read
-        long t1 = System.currentTimeMillis() - t0;
-        logger.info(String.format("Read subgraph with %d nodes and %d relationships in %dms",
-                subgraph.order(), subgraph.size(), t1));
-        return subgraph;
     }
 
 }
@@ -20,8 +20,31 @@ import java.io.IOException;
 
 public class GeoffReaderException extends IOException {
 
+    private long lineNumber;
+    private long columnNumber;
+
     public GeoffReaderException(String message) {
         super(message);
     }
 
+    public GeoffReaderException(String message, long lineNumber, long columnNumber) {
+        super(message + " at line " + lineNumber + ", column " + columnNumber);
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+    }
+
+    /**
+     * @return the line at which the error was found, or 0 if unknown
+     */
+    public long getLineNumber() {
+        return this.lineNumber;
+    }
+
+    /**
+     * @return the column at which the error was found, or 0 if unknown
+     */
+    public long getColumnNumber() {
+        return this.columnNumber;
+    }
+
 }
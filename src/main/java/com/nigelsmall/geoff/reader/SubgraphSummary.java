@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.geoff.reader;
+
+/**
+ * Entity counts for a subgraph that has been scanned but not built.
+ */
+public class SubgraphSummary {
+
+    final private int order;
+    final private int size;
+    final private int hooks;
+
+    public SubgraphSummary(int order, int size, int hooks) {
+        this.order = order;
+        this.size = size;
+        this.hooks = hooks;
+    }
+
+    public String toString() {
+        return this.order + " nodes, " + this.size + " relationships, " + this.hooks + " hooks";
+    }
+
+    public int order() {
+        return this.order;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int hooks() {
+        return this.hooks;
+    }
+
+}
@@ -18,14 +18,71 @@ package com.nigelsmall.geoff.validator;
 
 import com.nigelsmall.geoff.reader.GeoffReaderException;
 import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.geoff.reader.SubgraphSummary;
 import com.nigelsmall.load2neo.Subgraph;
 
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.Reader;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 public class GeoffValidator {
 
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The outcome of checking a single document.
+     */
+    public static class Report {
+
+        private int subgraphs;
+        private long nodes;
+        private long relationships;
+        private long hooks;
+        private IOException error;
+
+        public String toString() {
+            if (this.error == null) {
+                return "OK\t" + this.subgraphs + " subgraphs\t" + this.nodes + " nodes\t" +
+                        this.relationships + " relationships\t" + this.hooks + " hooks";
+            } else {
+                return "ERROR\t" + this.error.getMessage() + " (in subgraph " + this.subgraphs + ")";
+            }
+        }
+
+        public boolean isValid() {
+            return this.error == null;
+        }
+
+        /**
+         * @return the error that ended the check, or null if the document is valid
+         */
+        public IOException getError() {
+            return this.error;
+        }
+
+        /**
+         * @return the number of subgraphs read, excluding any in which an error occurred
+         */
+        public int getSubgraphCount() {
+            return this.subgraphs;
+        }
+
+        public long getNodeCount() {
+            return this.nodes;
+        }
+
+        public long getRelationshipCount() {
+            return this.relationships;
+        }
+
+        public long getHookCount() {
+            return this.hooks;
+        }
+
+    }
+
     public static void validate(Reader reader) throws IOException, GeoffReaderException {
         int i = 0;
         GeoffReader geoffReader = new GeoffReader(reader);
@@ -39,7 +96,96 @@ public class GeoffValidator {
         }
     }
 
-    public static void main(String... args) throws IOException, GeoffReaderException {
+    /**
+     * Check that a document is valid Geoff and count its entities, without
+     * building any of them. Errors are reported, with their line and column,
+     * through the report returned rather than thrown.
+     *
+     * @param reader the document to check
+     * @return a report of the document's contents or of the first error found
+     */
+    public static Report check(Reader reader) {
+        Report report = new Report();
+        GeoffReader geoffReader = new GeoffReader(reader);
+        try {
+            while (geoffReader.hasMore()) {
+                SubgraphSummary summary = geoffReader.scanSubgraph();
+                report.subgraphs += 1;
+                report.nodes += summary.order();
+                report.relationships += summary.size();
+                report.hooks += summary.hooks();
+            }
+        } catch (IOException e) {
+            report.error = e;
+        }
+        return report;
+    }
+
+    /**
+     * Check a number of documents in parallel.
+     *
+     * @param files the documents to check
+     * @param threads the maximum number of documents to check at once
+     * @return a report for each document, in the order given
+     * @throws InterruptedException if interrupted while waiting for a check to complete
+     */
+    public static List<Report> check(List<File> files, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+        try {
+            ArrayList<Future<Report>> futures = new ArrayList<>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Report>() {
+
+                    @Override
+                    public Report call() throws IOException {
+                        try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+                            return check(reader);
+                        }
+                    }
+
+                }));
+            }
+            ArrayList<Report> reports = new ArrayList<>(files.size());
+            for (Future<Report> future : futures) {
+                try {
+                    reports.add(future.get());
+                } catch (ExecutionException e) {
+                    Report report = new Report();
+                    Throwable cause = e.getCause();
+                    report.error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    reports.add(report);
+                }
+            }
+            return reports;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Validate the documents given. By default, each subgraph is printed in
+     * full. With -q, documents are checked in parallel and only a one line
+     * report is printed for each; the exit status is non-zero if any
+     * document is invalid.
+     */
+    public static void main(String... args) throws IOException, GeoffReaderException, InterruptedException {
+        if (args.length > 0 && "-q".equals(args[0])) {
+            ArrayList<File> files = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                files.add(new File(args[i]));
+            }
+            List<Report> reports = check(files, Runtime.getRuntime().availableProcessors());
+            boolean valid = true;
+            for (int i = 0; i < files.size(); i++) {
+                Report report = reports.get(i);
+                System.out.println(files.get(i) + "\t" + report);
+                valid = valid && report.isValid();
+            }
+            if (!valid) {
+                System.exit(1);
+            }
+            return;
+        }
         for (String arg: args) {
             System.out.println("========================================");
             System.out.println("Document: " + arg);
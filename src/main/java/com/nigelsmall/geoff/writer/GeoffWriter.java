@@ -0,0 +1,458 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.geoff.writer;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.kernel.Traversal;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Streams nodes and relationships from a database as Geoff. Output is
+ * written incrementally in subgraphs of bounded size, separated by
+ * boundaries (~~~~). All selected nodes are written first, followed by the
+ * relationships between them. Each relationship subgraph refers to its
+ * endpoints by hook, so every subgraph can be loaded independently of the
+ * others. Relationships are therefore only written when a hook key is
+ * given and both endpoints carry the hook label and key.
+ */
+public class GeoffWriter {
+
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+
+    final private Logger logger = LoggerFactory.getLogger(GeoffWriter.class);
+
+    final private GraphDatabaseService database;
+    final private Appendable out;
+
+    private int batchSize;
+    private long nodeCount;
+    private long relationshipCount;
+    private long skippedCount;
+    private long omittedCount;
+
+    private interface Selection {
+
+        public Iterable<Node> nodes();
+
+        public boolean contains(Node node);
+
+    }
+
+    public GeoffWriter(GraphDatabaseService database, Appendable out) {
+        this.database = database;
+        this.out = out;
+        this.batchSize = 1000;
+    }
+
+    public GeoffWriter(GraphDatabaseService database, OutputStream out) {
+        this(database, new BufferedWriter(new OutputStreamWriter(out, UTF_8)));
+    }
+
+    /**
+     * Set the maximum number of entities written per subgraph.
+     *
+     * @param batchSize the maximum number of nodes or relationships in a subgraph
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getNodeCount() {
+        return this.nodeCount;
+    }
+
+    public long getRelationshipCount() {
+        return this.relationshipCount;
+    }
+
+    /**
+     * @return the number of relationships between selected nodes that could
+     *         not be written because an endpoint cannot be hooked
+     */
+    public long getSkippedCount() {
+        return this.skippedCount;
+    }
+
+    /**
+     * @return the number of properties left out because their values, such
+     *         as NaN or infinity, cannot be represented in Geoff
+     */
+    public long getOmittedCount() {
+        return this.omittedCount;
+    }
+
+    /**
+     * Write all nodes with a given label, along with the relationships
+     * between them.
+     *
+     * @param label the label of the nodes to write
+     * @param key the property key by which nodes are hooked, or null to write nodes only
+     * @throws IOException if the output cannot be written
+     */
+    public void writeLabel(final String label, final String key) throws IOException {
+        if (label == null) {
+            throw new IllegalArgumentException("A label must be given");
+        }
+        final Label hookLabel = DynamicLabel.label(label);
+        this.write(new Selection() {
+
+            @Override
+            public Iterable<Node> nodes() {
+                return GlobalGraphOperations.at(database).getAllNodesWithLabel(hookLabel);
+            }
+
+            @Override
+            public boolean contains(Node node) {
+                return node.hasLabel(hookLabel);
+            }
+
+        }, label, key);
+    }
+
+    /**
+     * Write all nodes matching a hook, along with the relationships between
+     * them. If a depth is given, all hookable nodes within that many hops of
+     * the matching nodes are written as well.
+     *
+     * @param label the hook label
+     * @param key the hook key
+     * @param value the hook value, or null to match every node with the key
+     * @param depth the maximum number of hops to traverse from each matching node
+     * @throws IllegalArgumentException if no label or key is given
+     * @throws IOException if the output cannot be written
+     */
+    public void writeHook(final String label, final String key, final Object value, final int depth) throws IOException {
+        if (label == null) {
+            throw new IllegalArgumentException("A label must be given");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("A hook key must be given");
+        }
+        final Label hookLabel = DynamicLabel.label(label);
+        final Iterable<Node> matches;
+        if (value == null) {
+            matches = GlobalGraphOperations.at(database).getAllNodesWithLabel(hookLabel);
+        } else {
+            matches = database.findNodesByLabelAndProperty(hookLabel, key, value);
+        }
+        if (depth <= 0) {
+            this.write(new Selection() {
+
+                @Override
+                public Iterable<Node> nodes() {
+                    return matches;
+                }
+
+                @Override
+                public boolean contains(Node node) {
+                    return node.hasLabel(hookLabel) && node.hasProperty(key) &&
+                            (value == null || value.equals(node.getProperty(key)));
+                }
+
+            }, label, key);
+        } else {
+            // a traversal must remember where it has been, so this is the
+            // one form of export whose memory use grows with its size
+            final HashSet<Long> visited = new HashSet<>();
+            for (Node match : matches) {
+                for (Node node : Traversal.description().breadthFirst()
+                        .evaluator(Evaluators.toDepth(depth)).traverse(match).nodes()) {
+                    if (node.hasLabel(hookLabel) && node.hasProperty(key)) {
+                        visited.add(node.getId());
+                    }
+                }
+            }
+            this.write(new Selection() {
+
+                @Override
+                public Iterable<Node> nodes() {
+                    final Set<Long> ids = visited;
+                    return new Iterable<Node>() {
+                        @Override
+                        public Iterator<Node> iterator() {
+                            final Iterator<Long> it = ids.iterator();
+                            return new Iterator<Node>() {
+                                @Override
+                                public boolean hasNext() {
+                                    return it.hasNext();
+                                }
+
+                                @Override
+                                public Node next() {
+                                    return database.getNodeById(it.next());
+                                }
+
+                                @Override
+                                public void remove() {
+                                    throw new UnsupportedOperationException();
+                                }
+                            };
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Node node) {
+                    return visited.contains(node.getId());
+                }
+
+            }, label, key);
+        }
+    }
+
+    private void write(Selection selection, String label, String key) throws IOException {
+        logger.info("Writing nodes...");
+        long t0 = System.currentTimeMillis();
+        int count = 0;
+        for (Node node : selection.nodes()) {
+            if (!selection.contains(node)) {
+                continue;
+            }
+            if (count == this.batchSize) {
+                this.writeBoundary();
+                count = 0;
+            }
+            if (key != null && node.hasProperty(key)) {
+                this.writeHookPrefix(label, key);
+            }
+            this.writeNode(node);
+            this.nodeCount += 1;
+            count += 1;
+        }
+        if (key == null) {
+            logger.info("No hook key given, relationships will not be written");
+        } else {
+            if (count > 0) {
+                this.writeBoundary();
+                count = 0;
+            }
+            logger.info("Writing relationships...");
+            Set<Long> hooked = new HashSet<>(Math.min(this.batchSize, 1024) * 2);
+            for (Node node : selection.nodes()) {
+                for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
+                    Node endNode = rel.getEndNode();
+                    if (!selection.contains(endNode)) {
+                        continue;
+                    }
+                    if (!node.hasProperty(key) || !endNode.hasProperty(key)) {
+                        this.skippedCount += 1;
+                        continue;
+                    }
+                    if (count == this.batchSize) {
+                        this.writeBoundary();
+                        hooked.clear();
+                        count = 0;
+                    }
+                    if (hooked.add(node.getId())) {
+                        this.writeHookFor(node, label, key);
+                    }
+                    if (hooked.add(endNode.getId())) {
+                        this.writeHookFor(endNode, label, key);
+                    }
+                    this.writeRelationship(rel);
+                    this.relationshipCount += 1;
+                    count += 1;
+                }
+            }
+        }
+        this.flush();
+        long t1 = System.currentTimeMillis() - t0;
+        logger.info(String.format("Wrote %d nodes and %d relationships in %dms " +
+                "(%d relationships skipped, %d properties omitted)",
+                this.nodeCount, this.relationshipCount, t1, this.skippedCount, this.omittedCount));
+    }
+
+    private void writeHookPrefix(String label, String key) throws IOException {
+        this.out.append(':');
+        this.writeName(label);
+        this.out.append(':');
+        this.writeName(key);
+        this.out.append(":=>");
+    }
+
+    private void writeHookFor(Node node, String label, String key) throws IOException {
+        this.writeHookPrefix(label, key);
+        this.out.append("(_").append(Long.toString(node.getId())).append(" {");
+        this.writeString(key);
+        this.out.append(':');
+        this.writeValue(node.getProperty(key));
+        this.out.append("})\n");
+    }
+
+    /**
+     * Write a node, named after its ID, with all labels and properties.
+     *
+     * @param node the node to write
+     * @throws IOException if the output cannot be written
+     */
+    public void writeNode(Node node) throws IOException {
+        this.out.append("(_").append(Long.toString(node.getId()));
+        for (Label label : node.getLabels()) {
+            this.out.append(':');
+            this.writeName(label.name());
+        }
+        this.writeProperties(node);
+        this.out.append(")\n");
+    }
+
+    /**
+     * Write a relationship between two nodes named after their IDs.
+     *
+     * @param rel the relationship to write
+     * @throws IOException if the output cannot be written
+     */
+    public void writeRelationship(Relationship rel) throws IOException {
+        this.out.append("(_").append(Long.toString(rel.getStartNode().getId())).append(")-[:");
+        this.writeName(rel.getType().name());
+        this.writeProperties(rel);
+        this.out.append("]->(_").append(Long.toString(rel.getEndNode().getId())).append(")\n");
+    }
+
+    public void writeBoundary() throws IOException {
+        this.out.append("~~~~\n");
+        this.flush();
+    }
+
+    public void flush() throws IOException {
+        if (this.out instanceof Flushable) {
+            ((Flushable) this.out).flush();
+        }
+    }
+
+    private void writeProperties(PropertyContainer entity) throws IOException {
+        boolean first = true;
+        for (String key : entity.getPropertyKeys()) {
+            Object value = entity.getProperty(key);
+            if (!isWritable(value)) {
+                logger.warn("Property {} of {} cannot be represented in Geoff and has been omitted", key, entity);
+                this.omittedCount += 1;
+                continue;
+            }
+            this.out.append(first ? " {" : ",");
+            this.writeString(key);
+            this.out.append(':');
+            this.writeValue(value);
+            first = false;
+        }
+        if (!first) {
+            this.out.append('}');
+        }
+    }
+
+    private void writeName(String name) throws IOException {
+        boolean plain = name.length() > 0;
+        for (int i = 0; plain && i < name.length(); i++) {
+            char ch = name.charAt(i);
+            plain = Character.isLetterOrDigit(ch) || ch == '_';
+        }
+        if (plain) {
+            this.out.append(name);
+        } else {
+            this.writeString(name);
+        }
+    }
+
+    /**
+     * Check that a value contains no NaN or infinite number, neither of
+     * which can be represented in Geoff.
+     */
+    private static boolean isWritable(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            return !Double.isNaN(d) && !Double.isInfinite(d);
+        } else if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (!isWritable(Array.get(value, i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            this.out.append("null");
+        } else if (value instanceof String) {
+            this.writeString((String) value);
+        } else if (value instanceof Character) {
+            this.writeString(value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            this.out.append(Double.toString(((Number) value).doubleValue()));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            this.out.append(value.toString());
+        } else if (value.getClass().isArray()) {
+            this.out.append('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    this.out.append(',');
+                }
+                this.writeValue(Array.get(value, i));
+            }
+            this.out.append(']');
+        } else {
+            this.writeString(value.toString());
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        this.out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+                case '"':
+                    this.out.append("\\\"");
+                    break;
+                case '\\':
+                    this.out.append("\\\\");
+                    break;
+                case '\n':
+                    this.out.append("\\n");
+                    break;
+                case '\r':
+                    this.out.append("\\r");
+                    break;
+                case '\t':
+                    this.out.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        this.out.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        this.out.append(ch);
+                    }
+            }
+        }
+        this.out.append('"');
+    }
+
+}
@@ -31,7 +31,8 @@ public class AbstractNode {
     private HashSet<String> labels;
     private HashMap<String, Object> properties;
     private String hookLabel;
-    private String hookKey;
+    private List<String> hookKeys;
+    private Long nodeId;
 
     public AbstractNode(String name, Set<String> labels, Map<String, Object> properties) {
         if (name == null) {
@@ -47,7 +48,9 @@ public class AbstractNode {
 
     public String toString() {
         final ArrayList<String> parts = new ArrayList<>();
-        if (this.name != null && !this.name.equals("")) {
+        if (this.nodeId != null) {
+            parts.add("#" + this.nodeId);
+        } else if (this.name != null && !this.name.equals("")) {
             parts.add(this.name);
         }
         if (this.labels != null) {
@@ -69,10 +72,11 @@ public class AbstractNode {
         }
         if (this.hookLabel == null) {
             return "(" + StringUtils.join(parts, "") + ")";
-        } else if (this.hookKey == null) {
+        } else if (this.hookKeys == null) {
             return ":" + this.hookLabel + ":=>(" + StringUtils.join(parts, "") + ")";
         } else {
-            return ":" + this.hookLabel + ":" + this.hookKey + ":=>(" + StringUtils.join(parts, "") + ")";
+            return ":" + this.hookLabel + ":" + StringUtils.join(this.hookKeys, ":") + ":=>(" +
+                    StringUtils.join(parts, "") + ")";
         }
     }
 
@@ -96,6 +100,9 @@ public class AbstractNode {
         if (node.name != null) {
             this.name = node.name;
         }
+        if (node.nodeId != null) {
+            this.nodeId = node.nodeId;
+        }
         this.mergeLabels(node.labels);
         this.mergeProperties(node.properties);
     }
@@ -121,28 +128,74 @@ public class AbstractNode {
     }
 
     public void setHook(String label, String key) {
+        this.setHook(label, key == null ? null : Collections.singletonList(key));
+    }
+
+    /**
+     * Hook this node on a label and a combination of property keys, all of
+     * which must match for an existing node to be found.
+     *
+     * @param label the hook label
+     * @param keys the hook keys, or null or empty to hook on the label alone
+     */
+    public void setHook(String label, List<String> keys) {
         if (this.labels == null) {
             this.labels = new HashSet<>();
         }
         this.labels.add(label);
         this.hookLabel = label;
-        if (key != null) {
-            if (this.properties == null) {
-                this.properties = new HashMap<>();
-            }
+        if (keys == null || keys.isEmpty()) {
+            this.hookKeys = null;
+            return;
+        }
+        if (this.properties == null) {
+            this.properties = new HashMap<>();
+        }
+        for (String key : keys) {
             if (!this.properties.containsKey(key)) {
                 this.properties.put(key, null);
             }
         }
-        this.hookKey = key;
+        this.hookKeys = new ArrayList<>(keys);
     }
 
     public String getHookLabel() {
         return this.hookLabel;
     }
 
+    /**
+     * @return the first hook key, or null if hooked on the label alone
+     */
     public String getHookKey() {
-        return this.hookKey;
+        return this.hookKeys == null ? null : this.hookKeys.get(0);
+    }
+
+    /**
+     * @return every hook key, which is empty if hooked on the label alone
+     */
+    public List<String> getHookKeys() {
+        return this.hookKeys == null ? Collections.<String>emptyList() : this.hookKeys;
+    }
+
+    /**
+     * Refer this specification to the existing node with a given ID. The
+     * node is then identified within its subgraph by that ID instead of by
+     * a name, so every reference to the same ID is merged into one.
+     *
+     * @param nodeId the ID of an existing node
+     */
+    public void setNodeId(long nodeId) {
+        this.name = "#" + nodeId;
+        this.named = false;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * @return the ID of the existing node referred to, or null if this is
+     *         not a reference by ID
+     */
+    public Long getNodeId() {
+        return this.nodeId;
     }
 
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the transactions, lookups and writes passed on to another sink,
+ * by default a {@link NullSink} for a dry run. Counts cover everything
+ * passed on, including writes later rolled back.
+ *
+ * A counting sink may be shared between threads if the sink it passes on
+ * to may be.
+ */
+public class CountingSink implements GraphSink {
+
+    final private GraphSink sink;
+
+    final private AtomicLong transactions = new AtomicLong();
+    final private AtomicLong lookups = new AtomicLong();
+    final private AtomicLong nodes = new AtomicLong();
+    final private AtomicLong relationships = new AtomicLong();
+    final private AtomicLong labels = new AtomicLong();
+    final private AtomicLong properties = new AtomicLong();
+
+    public CountingSink() {
+        this(new NullSink());
+    }
+
+    /**
+     * @param sink the sink to which to pass everything on
+     */
+    public CountingSink(GraphSink sink) {
+        this.sink = sink;
+    }
+
+    public long getTransactionCount() {
+        return this.transactions.get();
+    }
+
+    /**
+     * @return the number of hook lookups, not including those answered by
+     *         the hook registry
+     */
+    public long getLookupCount() {
+        return this.lookups.get();
+    }
+
+    public long getNodeCount() {
+        return this.nodes.get();
+    }
+
+    public long getRelationshipCount() {
+        return this.relationships.get();
+    }
+
+    /**
+     * @return the number of labels written, both to new nodes and to
+     *         existing ones
+     */
+    public long getLabelCount() {
+        return this.labels.get();
+    }
+
+    /**
+     * @return the number of property values written, to nodes and to
+     *         relationships, whether new or existing
+     */
+    public long getPropertyCount() {
+        return this.properties.get();
+    }
+
+    private static int countProperties(Map<String, Object> properties) {
+        int count = 0;
+        if (properties != null) {
+            for (Object value : properties.values()) {
+                if (value != null) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Transaction beginTx() {
+        this.transactions.incrementAndGet();
+        return this.sink.beginTx();
+    }
+
+    @Override
+    public boolean nodeExists(long nodeId) {
+        return this.sink.nodeExists(nodeId);
+    }
+
+    @Override
+    public Iterable<Long> findNodes(String label, String key, Object value) {
+        this.lookups.incrementAndGet();
+        return this.sink.findNodes(label, key, value);
+    }
+
+    @Override
+    public boolean hasLabel(long nodeId, String label) {
+        return this.sink.hasLabel(nodeId, label);
+    }
+
+    @Override
+    public Object getProperty(long nodeId, String key) {
+        return this.sink.getProperty(nodeId, key);
+    }
+
+    @Override
+    public long createNode(Set<String> labels, Map<String, Object> properties) {
+        this.nodes.incrementAndGet();
+        if (labels != null) {
+            this.labels.addAndGet(labels.size());
+        }
+        this.properties.addAndGet(countProperties(properties));
+        return this.sink.createNode(labels, properties);
+    }
+
+    @Override
+    public void addLabel(long nodeId, String label) {
+        this.labels.incrementAndGet();
+        this.sink.addLabel(nodeId, label);
+    }
+
+    @Override
+    public void setProperty(long nodeId, String key, Object value) {
+        this.properties.incrementAndGet();
+        this.sink.setProperty(nodeId, key, value);
+    }
+
+    @Override
+    public void createRelationship(long startNodeId, String type, Map<String, Object> properties, long endNodeId) {
+        this.relationships.incrementAndGet();
+        this.properties.addAndGet(countProperties(properties));
+        this.sink.createRelationship(startNodeId, type, properties, endNodeId);
+    }
+
+    @Override
+    public boolean hasIndex(String label, String key) {
+        return this.sink.hasIndex(label, key);
+    }
+
+    @Override
+    public boolean isUnique(String label, String key) {
+        return this.sink.isUnique(label, key);
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The graph into which a {@link NeoLoader} writes, and in which it looks up
+ * hooks and references. Nodes are identified by ID throughout, as they are
+ * within the loader.
+ *
+ * {@link NeoSink} writes to a Neo4j database and is used unless another is
+ * given. {@link NullSink} writes nothing, so that reading and planning can
+ * be measured apart from storage, and {@link CountingSink} counts what is
+ * written to another sink.
+ */
+public interface GraphSink {
+
+    /**
+     * Begin a transaction, within which each load takes place.
+     */
+    public Transaction beginTx();
+
+    /**
+     * @return true if a node with a given ID exists
+     */
+    public boolean nodeExists(long nodeId);
+
+    /**
+     * Find the nodes with a label and property value. The IDs should be
+     * produced lazily, as usually only the first is wanted.
+     *
+     * @return the IDs of the nodes found
+     */
+    public Iterable<Long> findNodes(String label, String key, Object value);
+
+    public boolean hasLabel(long nodeId, String label);
+
+    /**
+     * @return the value of a property of a node, or null if it has none
+     */
+    public Object getProperty(long nodeId, String key);
+
+    /**
+     * Create a node. Properties with null values are left out.
+     *
+     * @param labels the labels of the node, or null for none
+     * @param properties the properties of the node, or null for none
+     * @return the ID of the node created
+     */
+    public long createNode(Set<String> labels, Map<String, Object> properties);
+
+    public void addLabel(long nodeId, String label);
+
+    public void setProperty(long nodeId, String key, Object value);
+
+    /**
+     * Create a relationship. Properties with null values are left out.
+     *
+     * @param properties the properties of the relationship, or null for none
+     */
+    public void createRelationship(long startNodeId, String type, Map<String, Object> properties, long endNodeId);
+
+    /**
+     * @return true if lookups on a label and key are backed by an index
+     *         that is online
+     */
+    public boolean hasIndex(String label, String key);
+
+    /**
+     * @return true if values of a key are unique among nodes with a label
+     */
+    public boolean isUnique(String label, String key);
+
+}
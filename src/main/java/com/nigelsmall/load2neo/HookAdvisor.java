@@ -0,0 +1,311 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the index lookups made to resolve hooks, by label and key, and
+ * detects those that are not backed by a schema index. Such lookups scan
+ * every node with the label, so a single missing index can slow a load by
+ * orders of magnitude. The advisor can also create missing indexes before
+ * they are needed.
+ */
+public class HookAdvisor {
+
+    final private static Logger logger = LoggerFactory.getLogger(HookAdvisor.class);
+
+    /**
+     * The time for which {@link #prepare(Subgraph, boolean)} waits for new
+     * indexes to come online, in seconds.
+     */
+    final public static long DEFAULT_INDEX_TIMEOUT = 60;
+
+    final private static WeakHashMap<GraphDatabaseService, HookAdvisor> instances = new WeakHashMap<>();
+
+    /**
+     * Lookup statistics for one hook label and key.
+     */
+    public static class HookStats {
+
+        final private String label;
+        final private String key;
+        private boolean indexed;
+        private long lookups;
+        private long lookupNanos;
+        private long scans;
+        private long scanNanos;
+
+        HookStats(String label, String key, boolean indexed) {
+            this.label = label;
+            this.key = key;
+            this.indexed = indexed;
+        }
+
+        public String getLabel() {
+            return this.label;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        /**
+         * @return true if a schema index was found for the label and key
+         *         when last checked
+         */
+        public synchronized boolean isIndexed() {
+            return this.indexed;
+        }
+
+        /**
+         * @return the number of lookups made, including scans
+         */
+        public synchronized long getLookups() {
+            return this.lookups;
+        }
+
+        public synchronized long getLookupNanos() {
+            return this.lookupNanos;
+        }
+
+        /**
+         * @return the number of lookups made while no index was available
+         */
+        public synchronized long getScans() {
+            return this.scans;
+        }
+
+        public synchronized long getScanNanos() {
+            return this.scanNanos;
+        }
+
+        synchronized void record(long nanos) {
+            this.lookups += 1;
+            this.lookupNanos += nanos;
+            if (!this.indexed) {
+                this.scans += 1;
+                this.scanNanos += nanos;
+            }
+        }
+
+    }
+
+    final private GraphDatabaseService database;
+    final private TreeMap<String, HookStats> stats;
+
+    public HookAdvisor(GraphDatabaseService database) {
+        this.database = database;
+        this.stats = new TreeMap<>();
+    }
+
+    /**
+     * Get the advisor shared by all loads into a database, so that its
+     * statistics cover every load since the database was started.
+     *
+     * @param database the database whose advisor is required
+     * @return the advisor for that database
+     */
+    public static synchronized HookAdvisor forDatabase(GraphDatabaseService database) {
+        HookAdvisor advisor = instances.get(database);
+        if (advisor == null) {
+            advisor = new HookAdvisor(database);
+            instances.put(database, advisor);
+        }
+        return advisor;
+    }
+
+    /**
+     * Record a hook lookup. This must be called within a transaction, as
+     * the schema is checked for an index the first time that a label and
+     * key are seen.
+     *
+     * @param label the hook label
+     * @param key the hook key
+     * @param nanos the time taken by the lookup
+     */
+    public void record(String label, String key, long nanos) {
+        this.getStats(label, key).record(nanos);
+    }
+
+    /**
+     * Check that every keyed hook within a subgraph is backed by an index,
+     * optionally creating those that are not and waiting for them to come
+     * online. A hook on several keys needs only one of them indexed; if
+     * none is, every one is indexed so that the most selective can be
+     * chosen. This opens transactions of its own, so must be called before
+     * the subgraph is loaded rather than within its transaction.
+     *
+     * @param subgraph the subgraph about to be loaded
+     * @param createIndexes true to create missing indexes
+     * @throws IllegalStateException if an index does not come online
+     *                               within the default timeout
+     */
+    public void prepare(Subgraph subgraph, boolean createIndexes) {
+        this.prepare(subgraph, createIndexes, DEFAULT_INDEX_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Check the hooks within a subgraph as above, waiting no longer than
+     * a given time for missing indexes to come online. An index that is
+     * still being populated by an earlier load is waited for in the same
+     * way, rather than created again.
+     *
+     * @param subgraph the subgraph about to be loaded
+     * @param createIndexes true to create missing indexes
+     * @param timeout the longest time to wait for every index to come online
+     * @param unit the unit of the timeout
+     * @throws IllegalStateException if an index fails or does not come
+     *                               online in time
+     */
+    public void prepare(Subgraph subgraph, boolean createIndexes, long timeout, TimeUnit unit) {
+        ArrayList<HookStats> missing = new ArrayList<>();
+        try (Transaction tx = database.beginTx()) {
+            for (AbstractNode abstractNode : subgraph.getNodes().values()) {
+                String label = abstractNode.getHookLabel();
+                if (label == null || abstractNode.getHookKey() == null) {
+                    continue;
+                }
+                ArrayList<HookStats> unindexed = new ArrayList<>();
+                for (String key : abstractNode.getHookKeys()) {
+                    HookStats hookStats = this.getStats(label, key);
+                    synchronized (hookStats) {
+                        // an index may have been created since the last check
+                        if (!hookStats.indexed && !missing.contains(hookStats)) {
+                            hookStats.indexed = this.hasIndex(label, key);
+                        }
+                        if (!hookStats.indexed) {
+                            unindexed.add(hookStats);
+                        }
+                    }
+                }
+                if (unindexed.size() == abstractNode.getHookKeys().size()) {
+                    for (HookStats hookStats : unindexed) {
+                        if (!missing.contains(hookStats)) {
+                            missing.add(hookStats);
+                        }
+                    }
+                }
+            }
+            tx.success();
+        }
+        if (!createIndexes || missing.isEmpty()) {
+            return;
+        }
+        ArrayList<IndexDefinition> indexes = new ArrayList<>(missing.size());
+        try (Transaction tx = database.beginTx()) {
+            for (HookStats hookStats : missing) {
+                // another load may have created the index in the meantime
+                IndexDefinition index = this.findIndex(hookStats.label, hookStats.key);
+                if (index == null) {
+                    logger.info("Creating index on :{}({})", hookStats.label, hookStats.key);
+                    index = database.schema().indexFor(DynamicLabel.label(hookStats.label)).on(hookStats.key).create();
+                }
+                indexes.add(index);
+            }
+            tx.success();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try (Transaction tx = database.beginTx()) {
+            for (int i = 0; i < indexes.size(); i++) {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                try {
+                    database.schema().awaitIndexOnline(indexes.get(i), remaining, TimeUnit.NANOSECONDS);
+                } catch (IllegalStateException e) {
+                    HookStats hookStats = missing.get(i);
+                    throw new IllegalStateException("Index on :" + hookStats.label + "(" + hookStats.key +
+                            ") is not online: " + e.getMessage(), e);
+                }
+            }
+            tx.success();
+        }
+        for (HookStats hookStats : missing) {
+            synchronized (hookStats) {
+                hookStats.indexed = true;
+            }
+        }
+    }
+
+    /**
+     * @return the statistics of every hook label and key seen, ordered by
+     *         label and key
+     */
+    public synchronized List<HookStats> getStats() {
+        return new ArrayList<>(this.stats.values());
+    }
+
+    private HookStats getStats(String label, String key) {
+        String labelKey = label + ":" + key;
+        synchronized (this) {
+            HookStats hookStats = this.stats.get(labelKey);
+            if (hookStats != null) {
+                return hookStats;
+            }
+        }
+        boolean indexed = this.hasIndex(label, key);
+        if (!indexed) {
+            logger.warn("Hooks on :{}({}) are not backed by an index, so each will scan every node " +
+                    "labelled {}", new Object[] {label, key, label});
+        }
+        synchronized (this) {
+            HookStats hookStats = this.stats.get(labelKey);
+            if (hookStats == null) {
+                hookStats = new HookStats(label, key, indexed);
+                this.stats.put(labelKey, hookStats);
+            }
+            return hookStats;
+        }
+    }
+
+    /**
+     * @return true if lookups on a label and key are backed by an index
+     *         that is online; one still being populated cannot be used
+     */
+    private boolean hasIndex(String label, String key) {
+        IndexDefinition index = this.findIndex(label, key);
+        return index != null && database.schema().getIndexState(index) == Schema.IndexState.ONLINE;
+    }
+
+    /**
+     * @return the index on a label and key, in whatever state, or null
+     */
+    private IndexDefinition findIndex(String label, String key) {
+        Label hookLabel = DynamicLabel.label(label);
+        for (IndexDefinition index : database.schema().getIndexes(hookLabel)) {
+            for (String propertyKey : index.getPropertyKeys()) {
+                if (propertyKey.equals(key)) {
+                    return index;
+                }
+            }
+        }
+        return null;
+    }
+
+}
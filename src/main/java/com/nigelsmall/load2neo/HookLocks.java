@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A striped table of in-process locks for hooks. Each (label, key, value)
+ * combination maps to one stripe, so two loads hooking the same node take
+ * the same lock and cannot both fail to find and then create it. Stripes
+ * are always acquired in ascending order, so loads holding several cannot
+ * deadlock each other.
+ */
+public class HookLocks {
+
+    final private static HookLocks instance = new HookLocks(1024, 60, TimeUnit.SECONDS);
+
+    final private ReentrantLock[] stripes;
+    final private long timeout;
+    final private TimeUnit unit;
+
+    public HookLocks(int stripes, long timeout, TimeUnit unit) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("There must be at least one stripe");
+        }
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.timeout = timeout;
+        this.unit = unit;
+    }
+
+    /**
+     * @return the lock table shared by all loads within this process
+     */
+    public static HookLocks getInstance() {
+        return instance;
+    }
+
+    public int getStripeCount() {
+        return this.stripes.length;
+    }
+
+    public int stripeFor(String label, String key, Object value) {
+        int hash = Arrays.deepHashCode(new Object[] {label, key, value});
+        hash ^= hash >>> 16;
+        return (hash & 0x7FFFFFFF) % this.stripes.length;
+    }
+
+    /**
+     * Acquire a set of stripes in ascending order, adding each to a list of
+     * locks held. On failure, stripes acquired by this call are released.
+     *
+     * @param stripes the stripes to acquire
+     * @param held the list to which acquired locks are added
+     * @throws IllegalStateException if a stripe cannot be acquired in time
+     */
+    public void acquire(BitSet stripes, List<ReentrantLock> held) {
+        int start = held.size();
+        try {
+            for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+                ReentrantLock lock = this.stripes[i];
+                if (!lock.tryLock(this.timeout, this.unit)) {
+                    throw new IllegalStateException("Timed out waiting for hook lock");
+                }
+                held.add(lock);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(held.subList(start, held.size()));
+            throw new IllegalStateException("Interrupted while waiting for hook lock", e);
+        } catch (IllegalStateException e) {
+            release(held.subList(start, held.size()));
+            throw e;
+        }
+    }
+
+    /**
+     * Release and forget a list of held locks.
+     */
+    public static void release(List<ReentrantLock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+        }
+        held.clear();
+    }
+
+}
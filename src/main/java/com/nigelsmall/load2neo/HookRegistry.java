@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * A persistent, memory-mapped hash table from hooks, that is from (label,
+ * key, value) combinations, to the IDs of the nodes they match. Resolving a
+ * hook through the registry costs a single probe of mapped memory instead
+ * of a schema index lookup.
+ *
+ * The registry is a cache of the graph rather than part of it. Each hook is
+ * held as a 64-bit fingerprint, and every node found through the registry
+ * is checked against the hook before use, so entries left behind by rolled
+ * back transactions, deleted nodes or a crash are simply ignored. A hook
+ * with no usable entry is resolved through the index as usual and then
+ * registered. Once the registry reaches its maximum size, further hooks are
+ * not registered.
+ */
+public class HookRegistry implements Closeable {
+
+    final public static long NONE = -1;
+
+    final private static String FILE_NAME = "load2neo-hooks.reg";
+
+    final private static HashMap<String, HookRegistry> instances = new HashMap<>();
+
+    final private static int MAGIC = 0x4C324E52;  // "L2NR"
+    final private static int VERSION = 1;
+    final private static int HEADER_SIZE = 32;
+
+    // each slot holds a fingerprint (zero marking an empty slot) followed
+    // by a node ID
+    final private static int SLOT_SIZE = 16;
+
+    // the largest table that can be mapped as a single buffer
+    final private static int MAX_CAPACITY = 1 << 26;
+
+    final private File file;
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int mask;
+    private int size;
+
+    public HookRegistry(File file) throws IOException {
+        this.file = file;
+        this.open();
+    }
+
+    /**
+     * Get the registry kept alongside the store of a database, opening or
+     * creating it if necessary. The registry is closed when the database
+     * shuts down.
+     *
+     * @param database the database whose registry is required
+     * @return the registry for that database
+     */
+    public static synchronized HookRegistry forDatabase(GraphDatabaseService database) throws IOException {
+        final String storeDir = ((GraphDatabaseAPI) database).getDependencyResolver()
+                .resolveDependency(Config.class).get(GraphDatabaseSettings.store_dir).getPath();
+        HookRegistry registry = instances.get(storeDir);
+        if (registry == null) {
+            registry = new HookRegistry(new File(storeDir, FILE_NAME));
+            instances.put(storeDir, registry);
+            final HookRegistry closing = registry;
+            database.registerKernelEventHandler(new KernelEventHandler() {
+
+                @Override
+                public void beforeShutdown() {
+                    synchronized (HookRegistry.class) {
+                        instances.remove(storeDir);
+                    }
+                    closing.close();
+                }
+
+                @Override
+                public Object getResource() {
+                    return null;
+                }
+
+                @Override
+                public void kernelPanic(ErrorState error) { }
+
+                @Override
+                public ExecutionOrder orderComparedTo(KernelEventHandler other) {
+                    return ExecutionOrder.DOESNT_MATTER;
+                }
+
+            });
+        }
+        return registry;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the ID of the node registered for a hook, or {@link #NONE} if
+     *         there is none
+     */
+    public synchronized long get(String label, String key, Object value) {
+        long fingerprint = fingerprint(label, key, value);
+        int position = this.find(fingerprint);
+        if (this.buffer.getLong(position) == 0) {
+            return NONE;
+        }
+        return this.buffer.getLong(position + 8);
+    }
+
+    /**
+     * Register the node matched by a hook, replacing any earlier entry.
+     */
+    public synchronized void put(String label, String key, Object value, long nodeId) {
+        long fingerprint = fingerprint(label, key, value);
+        int position = this.find(fingerprint);
+        boolean added = this.buffer.getLong(position) == 0;
+        if (added && this.size * 10L >= (this.mask + 1) * 9L) {
+            // full, so leave this hook to the index
+            return;
+        }
+        // write the ID before the fingerprint that makes the slot live
+        this.buffer.putLong(position + 8, nodeId);
+        this.buffer.putLong(position, fingerprint);
+        if (added) {
+            this.size += 1;
+            this.buffer.putInt(12, this.size);
+            if (this.size * 2 > this.mask + 1 && this.mask + 1 < MAX_CAPACITY) {
+                try {
+                    this.grow();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to grow hook registry", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        for (int position = HEADER_SIZE; position < this.buffer.capacity(); position += 8) {
+            this.buffer.putLong(position, 0);
+        }
+        this.size = 0;
+        this.buffer.putInt(12, 0);
+    }
+
+    /**
+     * Register every node with a given label and a value for a given key.
+     * This must be called within a transaction.
+     *
+     * @return the number of nodes registered
+     */
+    public long rebuild(GraphDatabaseService database, String label, String key) {
+        long count = 0;
+        for (Node node : GlobalGraphOperations.at(database).getAllNodesWithLabel(DynamicLabel.label(label))) {
+            Object value = node.getProperty(key, null);
+            if (value != null) {
+                this.put(label, key, value, node.getId());
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write any changes through to the file.
+     */
+    public synchronized void force() {
+        this.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.raf != null) {
+            this.buffer.force();
+            try {
+                this.raf.close();
+            } catch (IOException e) {
+                // the mapping remains valid until collected
+            }
+            this.raf = null;
+        }
+    }
+
+    /**
+     * Map the registry file, starting afresh if it is missing or unreadable.
+     */
+    private void open() throws IOException {
+        this.raf = new RandomAccessFile(this.file, "rw");
+        int capacity = 0;
+        if (this.raf.length() >= HEADER_SIZE) {
+            this.raf.seek(0);
+            if (this.raf.readInt() == MAGIC && this.raf.readInt() == VERSION) {
+                capacity = this.raf.readInt();
+                if (Integer.bitCount(capacity) != 1 || capacity > MAX_CAPACITY ||
+                        this.raf.length() != HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+                    capacity = 0;
+                }
+            }
+        }
+        if (capacity == 0) {
+            this.raf.setLength(0);
+            this.map(1024);
+        } else {
+            this.map(capacity);
+            this.size = this.buffer.getInt(12);
+        }
+    }
+
+    private void map(int capacity) throws IOException {
+        long length = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        boolean created = this.raf.length() != length;
+        this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        this.mask = capacity - 1;
+        if (created) {
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putInt(4, VERSION);
+            this.buffer.putInt(8, capacity);
+            this.buffer.putInt(12, 0);
+            this.size = 0;
+        }
+    }
+
+    /**
+     * Find the slot holding a fingerprint, or the empty slot where it belongs.
+     *
+     * @return the position of the slot within the buffer
+     */
+    private int find(long fingerprint) {
+        int slot = (int) fingerprint & this.mask;
+        while (true) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            long stored = this.buffer.getLong(position);
+            if (stored == 0 || stored == fingerprint) {
+                return position;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Copy the table into a new file of twice the capacity, then replace
+     * the old file with it.
+     */
+    private void grow() throws IOException {
+        MappedByteBuffer old = this.buffer;
+        int oldCapacity = this.mask + 1;
+        File temporary = new File(this.file.getPath() + ".tmp");
+        if (temporary.exists() && !temporary.delete()) {
+            throw new IOException("Unable to delete " + temporary);
+        }
+        RandomAccessFile oldRaf = this.raf;
+        this.raf = new RandomAccessFile(temporary, "rw");
+        this.map(oldCapacity * 2);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int oldPosition = HEADER_SIZE + slot * SLOT_SIZE;
+            long fingerprint = old.getLong(oldPosition);
+            if (fingerprint != 0) {
+                int position = this.find(fingerprint);
+                this.buffer.putLong(position + 8, old.getLong(oldPosition + 8));
+                this.buffer.putLong(position, fingerprint);
+            }
+        }
+        this.size = old.getInt(12);
+        this.buffer.putInt(12, this.size);
+        this.buffer.force();
+        oldRaf.close();
+        if (!temporary.renameTo(this.file)) {
+            throw new IOException("Unable to replace " + this.file);
+        }
+    }
+
+    private static long fingerprint(String label, String key, Object value) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, label);
+        h = hash(h, "\u0000");
+        h = hash(h, key);
+        h = hash(h, "\u0000");
+        if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                h = hashValue(h, Array.get(value, i));
+            }
+            h = hash(h, "[]");
+        } else {
+            h = hashValue(h, value);
+        }
+        // spread the bits so that the low bits used for the slot are well mixed
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Hash a single value, tagged with its kind so that, for example, the
+     * string "1" and the number 1 differ. Numbers of different types are
+     * left to be told apart by the check made on each node found.
+     */
+    private static long hashValue(long h, Object value) {
+        String tag = value instanceof String ? "s" : value instanceof Number ? "n" : "o";
+        return hash(hash(h, tag), String.valueOf(value) + "\u0000");
+    }
+
+    private static long hash(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+}
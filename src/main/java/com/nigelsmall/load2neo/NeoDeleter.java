@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Deletes nodes, along with all of their relationships, in transactions of
+ * bounded size. Nodes to delete are gathered by ID first, either from the
+ * hooks and references of a subgraph or from a label scan, and then
+ * deleted batch by batch, so that no single transaction has to hold the
+ * whole deletion however large it is.
+ */
+public class NeoDeleter {
+
+    final private Logger logger = LoggerFactory.getLogger(NeoDeleter.class);
+
+    /**
+     * Receives the running totals of a deletion as each batch is committed.
+     */
+    public interface Progress {
+
+        void batchDeleted(long nodes, long relationships) throws IOException;
+
+    }
+
+    final private GraphDatabaseService database;
+    final private NeoLoader neoLoader;
+
+    private int batchSize;
+    private long[] pending;
+    private int pendingCount;
+    private long deletedNodes;
+    private long deletedRelationships;
+
+    public NeoDeleter(GraphDatabaseService database) {
+        this.database = database;
+        this.neoLoader = new NeoLoader(database);
+        this.batchSize = 1000;
+        this.pending = new long[1024];
+    }
+
+    /**
+     * @param batchSize the largest number of nodes and relationships to
+     *                  delete in one transaction
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getDeletedNodes() {
+        return this.deletedNodes;
+    }
+
+    public long getDeletedRelationships() {
+        return this.deletedRelationships;
+    }
+
+    /**
+     * Add the nodes matched by the hooks and ID references of a subgraph
+     * to those awaiting deletion. Hooks are resolved as for a load, and
+     * those that match nothing are ignored, as are other nodes and all
+     * relationships. As for a load, every node referred to by ID must
+     * exist; otherwise, nothing from the subgraph is added.
+     *
+     * @param subgraph the subgraph describing the nodes to delete
+     * @return the number of nodes matched
+     * @throws NotFoundException if any referenced node does not exist
+     */
+    public int addSubgraph(Subgraph subgraph) {
+        ArrayList<Long> matched = new ArrayList<>();
+        ArrayList<Long> missing = new ArrayList<>();
+        try (Transaction tx = database.beginTx()) {
+            for (AbstractNode abstractNode : subgraph.getNodes().values()) {
+                long nodeId;
+                try {
+                    nodeId = this.neoLoader.findNodeId(abstractNode);
+                } catch (NotFoundException e) {
+                    missing.add(abstractNode.getNodeId());
+                    continue;
+                }
+                if (nodeId != NeoLoader.NONE) {
+                    matched.add(nodeId);
+                }
+            }
+            tx.success();
+        }
+        if (!missing.isEmpty()) {
+            throw new NotFoundException("Referenced nodes not found: " + missing);
+        }
+        for (long nodeId : matched) {
+            this.add(nodeId);
+        }
+        return matched.size();
+    }
+
+    /**
+     * Add all nodes with a given label to those awaiting deletion, or only
+     * those whose value for a key falls within a range. Numbers are compared
+     * with numbers and strings with strings; a node whose value cannot be
+     * compared with a bound is not matched.
+     *
+     * @param label the label of the nodes to delete
+     * @param key the key to compare, or null to match every node with the label
+     * @param from the lowest value to match, inclusive, or null for no lower bound
+     * @param to the highest value to match, inclusive, or null for no upper bound
+     * @return the number of nodes matched
+     */
+    public int addLabel(String label, String key, Object from, Object to) {
+        int matched = 0;
+        try (Transaction tx = database.beginTx()) {
+            for (Node node : GlobalGraphOperations.at(database).getAllNodesWithLabel(DynamicLabel.label(label))) {
+                if (key != null) {
+                    Object value = node.getProperty(key, null);
+                    if (value == null || !atLeast(value, from) || !atLeast(to, value)) {
+                        continue;
+                    }
+                }
+                this.add(node.getId());
+                matched += 1;
+            }
+            tx.success();
+        }
+        return matched;
+    }
+
+    /**
+     * Delete all nodes awaiting deletion, with their relationships, in
+     * batches. Nodes matched more than once, or already deleted, are
+     * skipped.
+     *
+     * @param progress notified as each batch is committed, or null
+     */
+    public void flush(Progress progress) throws IOException {
+        // sorting keeps each batch within a compact range of the store
+        Arrays.sort(this.pending, 0, this.pendingCount);
+        int index = 0;
+        while (index < this.pendingCount) {
+            int count = 0;
+            try (Transaction tx = database.beginTx()) {
+                while (index < this.pendingCount && count < this.batchSize) {
+                    if (index > 0 && this.pending[index] == this.pending[index - 1]) {
+                        // matched more than once
+                        index += 1;
+                        continue;
+                    }
+                    Node node;
+                    try {
+                        node = database.getNodeById(this.pending[index]);
+                    } catch (NotFoundException e) {
+                        index += 1;
+                        continue;
+                    }
+                    for (Relationship rel : node.getRelationships()) {
+                        if (count == this.batchSize) {
+                            break;
+                        }
+                        rel.delete();
+                        this.deletedRelationships += 1;
+                        count += 1;
+                    }
+                    // leave a node with relationships remaining to the next batch
+                    if (count < this.batchSize) {
+                        node.delete();
+                        this.deletedNodes += 1;
+                        count += 1;
+                        index += 1;
+                    }
+                }
+                tx.success();
+            }
+            logger.debug("Deleted {} nodes and {} relationships so far", this.deletedNodes, this.deletedRelationships);
+            if (progress != null) {
+                progress.batchDeleted(this.deletedNodes, this.deletedRelationships);
+            }
+        }
+        this.pendingCount = 0;
+    }
+
+    private void add(long nodeId) {
+        if (this.pendingCount == this.pending.length) {
+            this.pending = Arrays.copyOf(this.pending, this.pending.length * 2);
+        }
+        this.pending[this.pendingCount] = nodeId;
+        this.pendingCount += 1;
+    }
+
+    /**
+     * @return true if a is at least b, or if either is null (an open bound)
+     */
+    private static boolean atLeast(Object a, Object b) {
+        if (a == null || b == null) {
+            return true;
+        }
+        if (isIntegral(a) && isIntegral(b)) {
+            // compared exactly, as doubles cannot tell apart longs above 2^53
+            return ((Number) a).longValue() >= ((Number) b).longValue();
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() >= ((Number) b).doubleValue();
+        }
+        if (a instanceof String && b instanceof String) {
+            return ((String) a).compareTo((String) b) >= 0;
+        }
+        return false;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Creates relationships between nodes that already exist, each end being
+ * given as a hook. Unlike a subgraph load, missing nodes are never created:
+ * a relationship with an end that cannot be found is skipped and reported.
+ */
+public class NeoEdgeLoader {
+
+    final private static long NONE = NeoLoader.NONE;
+
+    final private Logger logger = LoggerFactory.getLogger(NeoEdgeLoader.class);
+
+    final private GraphDatabaseService database;
+    final private NeoLoader neoLoader;
+
+    private long createdCount;
+
+    public NeoEdgeLoader(GraphDatabaseService database) {
+        this.database = database;
+        this.neoLoader = new NeoLoader(database);
+    }
+
+    /**
+     * @see NeoLoader#setHookRegistry(HookRegistry)
+     */
+    public void setHookRegistry(HookRegistry hookRegistry) {
+        this.neoLoader.setHookRegistry(hookRegistry);
+    }
+
+    /**
+     * @see NeoLoader#setHookAdvisor(HookAdvisor)
+     */
+    public void setHookAdvisor(HookAdvisor hookAdvisor) {
+        this.neoLoader.setHookAdvisor(hookAdvisor);
+    }
+
+    /**
+     * @return the number of relationships created by the last load
+     */
+    public long getCreatedCount() {
+        return this.createdCount;
+    }
+
+    /**
+     * Create a batch of relationships between existing nodes. This must be
+     * called within a transaction.
+     *
+     * Each distinct hook in the batch is looked up only once, however many
+     * relationships it ends. Relationships are then created in order of
+     * start node and type, so that those from the same node are written
+     * together.
+     *
+     * @param relationships relationships between hooked nodes
+     * @return the positions of those relationships that were not created
+     *         because an end could not be found
+     */
+    public BitSet load(final List<AbstractRelationship> relationships) {
+        int size = relationships.size();
+        logger.debug("Loading {} relationships between existing nodes...", size);
+        long t0 = System.currentTimeMillis();
+        // resolve each distinct end once
+        HashMap<List<Object>, Long> resolved = new HashMap<>();
+        final long[] startNodeIds = new long[size];
+        long[] endNodeIds = new long[size];
+        BitSet missing = new BitSet(size);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            AbstractRelationship abstractRelationship = relationships.get(i);
+            startNodeIds[i] = this.resolve(abstractRelationship.getStartNode(), resolved);
+            endNodeIds[i] = this.resolve(abstractRelationship.getEndNode(), resolved);
+            if (startNodeIds[i] == NONE || endNodeIds[i] == NONE) {
+                missing.set(i);
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(startNodeIds[a], startNodeIds[b]);
+                if (c == 0) {
+                    c = relationships.get(a).getType().compareTo(relationships.get(b).getType());
+                }
+                return c;
+            }
+        });
+        // create relationships
+        this.createdCount = 0;
+        Node startNode = null;
+        for (int i : order) {
+            if (missing.get(i)) {
+                continue;
+            }
+            AbstractRelationship abstractRelationship = relationships.get(i);
+            if (startNode == null || startNode.getId() != startNodeIds[i]) {
+                startNode = database.getNodeById(startNodeIds[i]);
+            }
+            Node endNode = database.getNodeById(endNodeIds[i]);
+            Relationship relationship = startNode.createRelationshipTo(endNode,
+                    DynamicRelationshipType.withName(abstractRelationship.getType()));
+            if (abstractRelationship.getProperties() != null) {
+                NeoSink.setProperties(relationship, abstractRelationship.getProperties());
+            }
+            this.createdCount += 1;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded {} relationships between {} distinct nodes in {}ms",
+                    new Object[] {this.createdCount, resolved.size(), System.currentTimeMillis() - t0});
+        }
+        return missing;
+    }
+
+    private long resolve(AbstractNode abstractNode, Map<List<Object>, Long> resolved) {
+        String key = abstractNode.getHookKey();
+        List<Object> hook = Arrays.asList(abstractNode.getHookLabel(), key, abstractNode.getProperties().get(key));
+        Long nodeId = resolved.get(hook);
+        if (nodeId == null) {
+            nodeId = this.neoLoader.findNodeId(abstractNode);
+            resolved.put(hook, nodeId);
+        }
+        return nodeId;
+    }
+
+}
@@ -16,126 +16,786 @@
 
 package com.nigelsmall.load2neo;
 
-import org.neo4j.graphdb.*;
+import com.nigelsmall.load2neo.util.NameMap;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class NeoLoader {
 
+    final public static long NONE = -1;
+
     final private Logger logger = LoggerFactory.getLogger(NeoLoader.class);
-    final private GraphDatabaseService database;
+    final private GraphSink sink;
+
+    private boolean offHeap;
+    private boolean planning;
+    private boolean diff;
+    private HookLocks hookLocks;
+    private boolean useConstraints;
+    private boolean session;
+    private NameMap sessionNodeIds;
+    // names bound within the current transaction, kept only once committed
+    private NameMap pendingNodeIds;
+    // reused by each load, so that off-heap buffers are not allocated every time
+    private NameMap nodeIds;
+    private NameMap namedNodeIds;
+    private HookRegistry hookRegistry;
+    private HookAdvisor hookAdvisor;
+    final private ArrayList<ReentrantLock> heldLocks = new ArrayList<>();
+    final private HashMap<String, Boolean> constrained = new HashMap<>();
+    // lookups and candidates found by label and key, or -1 lookups if unindexed
+    final private HashMap<String, long[]> probeStats = new HashMap<>();
+
+    private long createdCount;
+    private long updatedCount;
+    private long unchangedCount;
+    private long hookNanos;
+    private long nodeNanos;
+    private long relationshipNanos;
 
     public NeoLoader(GraphDatabaseService database) {
-        this.database = database;
+        this(new NeoSink(database));
+    }
+
+    /**
+     * @param sink the graph into which to load, and in which to resolve
+     *             hooks and references
+     */
+    public NeoLoader(GraphSink sink) {
+        this.sink = sink;
+        this.planning = true;
     }
 
     /**
-     * Load a subgraph into the database.
+     * Choose whether writes are planned before each load, as described in
+     * {@link #load(Subgraph)}. Planning is on by default.
+     *
+     * @param planning true to plan writes
+     */
+    public void setPlanning(boolean planning) {
+        this.planning = planning;
+    }
+
+    /**
+     * Choose whether hooked nodes that are found are compared with their
+     * specification before being written. In diff mode, only labels that
+     * are missing and properties whose values differ are written, and a
+     * node with nothing to change is left untouched, taking no write lock.
+     *
+     * @param diff true to write only changes
+     */
+    public void setDiff(boolean diff) {
+        this.diff = diff;
+    }
+
+    /**
+     * Take in-process locks on hooks before resolving them, so that
+     * concurrent loads cannot each create the same hooked node. The locks
+     * taken by a load are held until {@link #releaseHookLocks()} is called,
+     * which must happen once the enclosing transaction has been closed.
+     *
+     * @param hookLocks the lock table to use, or null to take no locks
+     */
+    public void setHookLocks(HookLocks hookLocks) {
+        this.hookLocks = hookLocks;
+    }
+
+    /**
+     * Choose whether to rely on uniqueness constraints, where they exist,
+     * instead of in-process locks. Such hooks are then also safe against
+     * loads from other processes, although a clash fails the transaction
+     * rather than waiting for the other load.
+     *
+     * @param useConstraints true to skip locking for constrained hooks
+     */
+    public void setUseConstraints(boolean useConstraints) {
+        this.useConstraints = useConstraints;
+    }
+
+    /**
+     * Release the hook locks taken by the loads since the last release.
+     */
+    public void releaseHookLocks() {
+        HookLocks.release(this.heldLocks);
+    }
+
+    /**
+     * Resolve hooks through a registry before falling back to the index,
+     * registering each hooked node that is looked up or created. Hooks
+     * without a key or value are always resolved through the index.
+     *
+     * @param hookRegistry the registry to use, or null to use none
+     */
+    public void setHookRegistry(HookRegistry hookRegistry) {
+        this.hookRegistry = hookRegistry;
+    }
+
+    /**
+     * Report each hook lookup made through the index to an advisor, which
+     * tracks those that are not backed by a schema index.
+     *
+     * @param hookAdvisor the advisor to use, or null to use none
+     */
+    public void setHookAdvisor(HookAdvisor hookAdvisor) {
+        this.hookAdvisor = hookAdvisor;
+    }
+
+    /**
+     * Start or end a session. Within a session, the IDs of named nodes are
+     * kept from one load to the next, so a name used again in a later
+     * subgraph refers to the node already loaded rather than creating
+     * another. Each call starts afresh, forgetting any earlier session.
+     *
+     * Names are only kept beyond the transaction that bound them once
+     * {@link #endTransaction(boolean)} has been told it was committed, so
+     * a name from a transaction that was rolled back is bound afresh.
+     *
+     * @param session true to start a session, false to end it
+     */
+    public void setSession(boolean session) {
+        this.session = session;
+        this.sessionNodeIds = null;
+        this.pendingNodeIds = null;
+    }
+
+    /**
+     * End a transaction within a session. The names bound by the loads
+     * since the last call are kept for later loads if the transaction was
+     * committed, or forgotten if it was rolled back. This must be called
+     * once the enclosing transaction has been closed.
+     *
+     * @param committed true if the transaction was committed
+     */
+    public void endTransaction(boolean committed) {
+        if (this.pendingNodeIds == null || this.pendingNodeIds.size() == 0) {
+            return;
+        }
+        if (committed) {
+            for (Map.Entry<String, Long> entry : this.pendingNodeIds.entries()) {
+                this.sessionNodeIds.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.pendingNodeIds.clear();
+    }
+
+    /**
+     * @return the number of nodes and relationships created by the last load
+     */
+    public long getCreatedCount() {
+        return this.createdCount;
+    }
+
+    /**
+     * @return the number of existing nodes changed by the last load; outside
+     *         diff mode, every hooked node found counts as updated
+     */
+    public long getUpdatedCount() {
+        return this.updatedCount;
+    }
+
+    /**
+     * @return the number of existing nodes left unchanged by the last load
+     */
+    public long getUnchangedCount() {
+        return this.unchangedCount;
+    }
+
+    /**
+     * @return the time spent by the last load resolving hooks and
+     *         references and updating the nodes found; when writes are not
+     *         planned, this is counted as node time instead
+     */
+    public long getHookNanos() {
+        return this.hookNanos;
+    }
+
+    /**
+     * @return the time spent by the last load creating nodes
+     */
+    public long getNodeNanos() {
+        return this.nodeNanos;
+    }
+
+    /**
+     * @return the time spent by the last load creating relationships
+     */
+    public long getRelationshipNanos() {
+        return this.relationshipNanos;
+    }
+
+    /**
+     * Choose whether the maps of node names to IDs built during each load
+     * are held outside the Java heap. This suits very large subgraphs,
+     * particularly those spilled to disk.
+     *
+     * @param offHeap true to hold name maps off-heap
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Load a subgraph into the sink, which is the database unless another
+     * has been given. Nodes are tracked by ID rather than as Node objects,
+     * so the memory used for a load is flat and free of per-node objects;
+     * relationship endpoints are looked up by ID as each relationship is
+     * created.
+     *
+     * Nodes referred to by ID are fetched directly, with no index lookup, as
+     * are named nodes already loaded earlier in a session.
+     * All such references are checked before anything is written, so a
+     * load referring to missing nodes fails as a whole, naming each one.
+     *
+     * Unless a subgraph has been spilled to disk, writes are first planned.
+     * Hooked nodes are looked up before anything is written and those found
+     * are updated in order of node ID, so that concurrent loads lock shared
+     * nodes in the same order rather than deadlocking. New nodes are then
+     * created in groups with the same labels, and relationships in order of
+     * start node and type, so that related records are written together.
      *
      * @param subgraph the subgraph to load
-     * @return a Map of named Nodes that have been loaded
+     * @return a map of the names of named nodes to the IDs of the nodes
+     *         loaded, which is reused by the next load, so must be copied
+     *         to be kept
      */
-    public Map<String, Node> load(Subgraph subgraph) {
+    public NameMap load(Subgraph subgraph) {
         // gather entities and stats
         Map<String, AbstractNode> abstractNodes = subgraph.getNodes();
-        List<AbstractRelationship> abstractRelationships = subgraph.getRelationships();
+        Collection<AbstractRelationship> abstractRelationships = subgraph.getRelationships();
         int order = subgraph.order();
         int size = subgraph.size();
-        HashMap<String, Node> nodes = new HashMap<>(order);
-        HashMap<String, Node> namedNodes = new HashMap<>(order);
+        if (this.nodeIds == null || this.nodeIds.isOffHeap() != this.offHeap) {
+            this.nodeIds = new NameMap(order, this.offHeap);
+            this.namedNodeIds = new NameMap(order, this.offHeap);
+        } else {
+            this.nodeIds.clear(order);
+            this.namedNodeIds.clear(order);
+        }
+        NameMap nodeIds = this.nodeIds;
+        NameMap namedNodeIds = this.namedNodeIds;
+        this.createdCount = 0;
+        this.updatedCount = 0;
+        this.unchangedCount = 0;
+        if (this.session && this.sessionNodeIds == null) {
+            this.sessionNodeIds = new NameMap(order, this.offHeap);
+            this.pendingNodeIds = new NameMap(order, this.offHeap);
+        }
+        boolean planned = this.planning &&
+                !(subgraph instanceof SpillableSubgraph && ((SpillableSubgraph) subgraph).isSpilled());
         // start load
-        logger.info(String.format("Loading subgraph with %d nodes and %d relationships...",
-                    order, size));
-        long t0 = System.currentTimeMillis();
+        logger.debug("Loading subgraph with {} nodes and {} relationships...", order, size);
+        long t0 = System.nanoTime();
+        if (this.hookLocks != null) {
+            this.lockHooks(abstractNodes.values());
+        }
+        this.checkReferences(abstractNodes.values());
         // load nodes
-        for (AbstractNode abstractNode : abstractNodes.values()) {
-            Node node = this.createOrUpdateNode(abstractNode);
-            nodes.put(abstractNode.getName(), node);
+        Iterable<AbstractNode> nodeWrites = abstractNodes.values();
+        IdentityHashMap<AbstractNode, List<AbstractNode>> sameHooks = null;
+        if (planned) {
+            sameHooks = new IdentityHashMap<>();
+            nodeWrites = this.planNodes(abstractNodes.values(), nodeIds, namedNodeIds, sameHooks);
+        }
+        long t1 = System.nanoTime();
+        for (AbstractNode abstractNode : nodeWrites) {
+            // planned writes have already had their hooks looked up
+            long nodeId = planned ? this.createNode(abstractNode) : this.createOrUpdateNode(abstractNode);
+            nodeIds.put(abstractNode.getName(), nodeId);
             if (abstractNode.isNamed()) {
-                namedNodes.put(abstractNode.getName(), node);
+                namedNodeIds.put(abstractNode.getName(), nodeId);
+            }
+            // later nodes with the same hook update the node just created
+            List<AbstractNode> others = planned ? sameHooks.get(abstractNode) : null;
+            if (others != null) {
+                for (AbstractNode other : others) {
+                    this.updateNode(nodeId, other);
+                    nodeIds.put(other.getName(), nodeId);
+                    if (other.isNamed()) {
+                        namedNodeIds.put(other.getName(), nodeId);
+                    }
+                }
             }
         }
         // load relationships
-        for (AbstractRelationship abstractRelationship : abstractRelationships) {
-            Node startNode = nodes.get(abstractRelationship.getStartNode().getName());
-            Node endNode = nodes.get(abstractRelationship.getEndNode().getName());
-            DynamicRelationshipType type = DynamicRelationshipType.withName(abstractRelationship.getType());
-            Relationship rel = startNode.createRelationshipTo(endNode, type);
-            this.addProperties(rel, abstractRelationship.getProperties());
+        long t2 = System.nanoTime();
+        Iterable<AbstractRelationship> relationshipWrites = abstractRelationships;
+        if (planned) {
+            relationshipWrites = planRelationships(abstractRelationships, nodeIds);
+        }
+        for (AbstractRelationship abstractRelationship : relationshipWrites) {
+            this.sink.createRelationship(nodeIds.get(abstractRelationship.getStartNode().getName()),
+                    abstractRelationship.getType(), abstractRelationship.getProperties(),
+                    nodeIds.get(abstractRelationship.getEndNode().getName()));
+            this.createdCount += 1;
+        }
+        // remember named nodes for later loads in the session, once committed
+        if (this.pendingNodeIds != null) {
+            for (Map.Entry<String, Long> entry : namedNodeIds.entries()) {
+                this.pendingNodeIds.put(entry.getKey(), entry.getValue());
+            }
         }
         // finish load
-        long t1 = System.currentTimeMillis() - t0;
-        logger.info(String.format("Loaded subgraph with %d nodes and %d relationships in %dms", order, size, t1));
-        return namedNodes;
+        long t3 = System.nanoTime();
+        this.hookNanos = t1 - t0;
+        this.nodeNanos = t2 - t1;
+        this.relationshipNanos = t3 - t2;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded subgraph with {} nodes and {} relationships in {}ms",
+                    new Object[] {order, size, (t3 - t0) / 1000000});
+        }
+        return namedNodeIds;
     }
 
     /**
-     * Create a new node or update an existing one. An update will occur only
-     * if this is a hooked node specification and a match can be found.
+     * Check that every node referred to by ID exists.
      *
-     * @param abstractNode an abstract node specification
-     * @return the concrete Node object that is either fetched or created
+     * @throws NotFoundException if any referenced node does not exist
      */
-    public Node createOrUpdateNode(AbstractNode abstractNode) {
-        Node node = null;
-        String hookLabel = abstractNode.getHookLabel();
-        // is this a hooked node?
-        if (hookLabel != null) {
-            // determine the label, key and value to look up
-            Label label = DynamicLabel.label(hookLabel);
-            String hookKey = abstractNode.getHookKey();
-            Object hookValue = null;
-            if (abstractNode.getProperties().containsKey(hookKey)) {
-                hookValue = abstractNode.getProperties().get(hookKey);
-            }
-            // find the "first" node with the given label, key and value
-            for (Node foundNode : database.findNodesByLabelAndProperty(label, hookKey, hookValue)) {
-                node = foundNode;
-                break;
+    private void checkReferences(Collection<AbstractNode> abstractNodes) {
+        ArrayList<Long> missing = new ArrayList<>();
+        for (AbstractNode abstractNode : abstractNodes) {
+            Long nodeId = abstractNode.getNodeId();
+            if (nodeId != null && !this.sink.nodeExists(nodeId)) {
+                missing.add(nodeId);
             }
         }
-        // if not hooked, or cannot find, create anew
-        if (node == null) {
-            node = database.createNode();
+        if (!missing.isEmpty()) {
+            throw new NotFoundException("Referenced nodes not found: " + missing);
         }
-        this.addLabels(node, abstractNode.getLabels());
-        this.addProperties(node, abstractNode.getProperties());
-        return node;
     }
 
     /**
-     * Add a set of labels to a node.
+     * Lock the hooks of several subgraphs that are to be loaded within the
+     * same transaction. Taking them all at once keeps the stripes in order;
+     * each load then finds its own hook locks already held.
      *
-     * @param node the destination Node to which to add the labels
-     * @param labels a set of strings containing label names
+     * @param subgraphs the subgraphs about to be loaded
      */
-    public void addLabels(Node node, Set<String> labels) {
-        if (labels == null)
+    public void lockHooks(List<Subgraph> subgraphs) {
+        if (this.hookLocks == null) {
             return;
-        for (String label : labels) {
-            node.addLabel(DynamicLabel.label(label));
         }
+        ArrayList<AbstractNode> abstractNodes = new ArrayList<>();
+        for (Subgraph subgraph : subgraphs) {
+            abstractNodes.addAll(subgraph.getNodes().values());
+        }
+        this.lockHooks(abstractNodes);
     }
 
     /**
-     * Add a map of properties to a node or relationship.
+     * Acquire the hook lock stripes for every hooked node in a subgraph.
+     * Constraints are looked up once per label and key for the life of the
+     * loader.
+     */
+    private void lockHooks(Collection<AbstractNode> abstractNodes) {
+        BitSet stripes = new BitSet(this.hookLocks.getStripeCount());
+        for (AbstractNode abstractNode : abstractNodes) {
+            String label = abstractNode.getHookLabel();
+            if (label == null) {
+                continue;
+            }
+            List<String> keys = abstractNode.getHookKeys();
+            if (this.useConstraints && this.isConstrained(label, keys)) {
+                continue;
+            }
+            if (keys.size() > 1) {
+                // a composite hook locks the combination of its values
+                Object[] values = new Object[keys.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = abstractNode.getProperties().get(keys.get(i));
+                }
+                stripes.set(this.hookLocks.stripeFor(label, keys.toString(), values));
+            } else {
+                String key = abstractNode.getHookKey();
+                Object value = key == null ? null : abstractNode.getProperties().get(key);
+                stripes.set(this.hookLocks.stripeFor(label, key, value));
+            }
+        }
+        this.hookLocks.acquire(stripes, this.heldLocks);
+    }
+
+    /**
+     * @return true if any one of the keys of a hook is unique, in which case
+     *         the constraint alone prevents duplicates
+     */
+    private boolean isConstrained(String label, List<String> keys) {
+        for (String key : keys) {
+            String labelKey = label + ":" + key;
+            Boolean isConstrained = this.constrained.get(labelKey);
+            if (isConstrained == null) {
+                isConstrained = this.sink.isUnique(label, key);
+                this.constrained.put(labelKey, isConstrained);
+            }
+            if (isConstrained) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Look up all hooked and referenced nodes and update those found, in
+     * order of node ID. Of several nodes with the same hook that are not
+     * found, only the first is created; the others are gathered against it,
+     * to update it once created, as they would have found it unplanned.
+     *
+     * @param sameHooks filled with the nodes to update after each creation
+     * @return the remaining nodes to be created, grouped by label set
+     */
+    private List<AbstractNode> planNodes(Collection<AbstractNode> abstractNodes,
+                                         NameMap nodeIds, NameMap namedNodeIds,
+                                         Map<AbstractNode, List<AbstractNode>> sameHooks) {
+        final ArrayList<Long> matchIds = new ArrayList<>();
+        ArrayList<AbstractNode> matched = new ArrayList<>();
+        final HashMap<AbstractNode, String> creations = new HashMap<>();
+        HashMap<List<Object>, AbstractNode> firstMisses = new HashMap<>();
+        for (AbstractNode abstractNode : abstractNodes) {
+            long nodeId = this.findNodeId(abstractNode);
+            if (nodeId == NONE) {
+                List<Object> hook = hookOf(abstractNode);
+                if (hook != null) {
+                    AbstractNode first = firstMisses.get(hook);
+                    if (first != null) {
+                        List<AbstractNode> others = sameHooks.get(first);
+                        if (others == null) {
+                            others = new ArrayList<>();
+                            sameHooks.put(first, others);
+                        }
+                        others.add(abstractNode);
+                        continue;
+                    }
+                    firstMisses.put(hook, abstractNode);
+                }
+                Set<String> labels = abstractNode.getLabels();
+                creations.put(abstractNode, labels == null ? "" : new TreeSet<>(labels).toString());
+            } else {
+                matchIds.add(nodeId);
+                matched.add(abstractNode);
+            }
+        }
+        Integer[] updateOrder = new Integer[matchIds.size()];
+        for (int i = 0; i < updateOrder.length; i++) {
+            updateOrder[i] = i;
+        }
+        Arrays.sort(updateOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(matchIds.get(a), matchIds.get(b));
+            }
+        });
+        for (int i : updateOrder) {
+            AbstractNode abstractNode = matched.get(i);
+            long nodeId = matchIds.get(i);
+            this.updateNode(nodeId, abstractNode);
+            nodeIds.put(abstractNode.getName(), nodeId);
+            if (abstractNode.isNamed()) {
+                namedNodeIds.put(abstractNode.getName(), nodeId);
+            }
+        }
+        ArrayList<AbstractNode> creationOrder = new ArrayList<>(creations.keySet());
+        Collections.sort(creationOrder, new Comparator<AbstractNode>() {
+            @Override
+            public int compare(AbstractNode a, AbstractNode b) {
+                return creations.get(a).compareTo(creations.get(b));
+            }
+        });
+        return creationOrder;
+    }
+
+    /**
+     * @return the label, keys and values of the hook of a node, or null if
+     *         the node is not hooked
+     */
+    private static List<Object> hookOf(AbstractNode abstractNode) {
+        String label = abstractNode.getHookLabel();
+        if (label == null) {
+            return null;
+        }
+        ArrayList<Object> hook = new ArrayList<>();
+        hook.add(label);
+        for (String key : abstractNode.getHookKeys()) {
+            hook.add(key);
+            hook.add(abstractNode.getProperties().get(key));
+        }
+        return hook;
+    }
+
+    /**
+     * Order relationships by start node, type and end node.
+     */
+    private static List<AbstractRelationship> planRelationships(Collection<AbstractRelationship> abstractRelationships,
+                                                                final NameMap nodeIds) {
+        final IdentityHashMap<AbstractRelationship, long[]> endpoints = new IdentityHashMap<>();
+        for (AbstractRelationship rel : abstractRelationships) {
+            endpoints.put(rel, new long[] {nodeIds.get(rel.getStartNode().getName()),
+                    nodeIds.get(rel.getEndNode().getName())});
+        }
+        ArrayList<AbstractRelationship> writeOrder = new ArrayList<>(abstractRelationships);
+        Collections.sort(writeOrder, new Comparator<AbstractRelationship>() {
+            @Override
+            public int compare(AbstractRelationship a, AbstractRelationship b) {
+                long[] ae = endpoints.get(a);
+                long[] be = endpoints.get(b);
+                int c = Long.compare(ae[0], be[0]);
+                if (c == 0) {
+                    c = a.getType().compareTo(b.getType());
+                }
+                if (c == 0) {
+                    c = Long.compare(ae[1], be[1]);
+                }
+                return c;
+            }
+        });
+        return writeOrder;
+    }
+
+    /**
+     * Create a new node or update an existing one. An update will occur only
+     * if this is a reference by ID, or a hooked node specification for which
+     * a match can be found.
      *
-     * @param entity the destination Node or Relationship to which to add the properties
-     * @param properties a Map of key-value property pairs
+     * @param abstractNode an abstract node specification
+     * @return the ID of the node that is either found or created
      */
-    public void addProperties(PropertyContainer entity, Map<String, Object> properties) {
-        if (properties == null)
+    public long createOrUpdateNode(AbstractNode abstractNode) {
+        long nodeId = this.findNodeId(abstractNode);
+        // if not hooked or referenced, or cannot find, create anew
+        if (nodeId == NONE) {
+            return this.createNode(abstractNode);
+        }
+        this.updateNode(nodeId, abstractNode);
+        return nodeId;
+    }
+
+    private long createNode(AbstractNode abstractNode) {
+        long nodeId = this.sink.createNode(abstractNode.getLabels(), abstractNode.getProperties());
+        this.createdCount += 1;
+        String hookKey = abstractNode.getHookKey();
+        if (this.hookRegistry != null && abstractNode.getHookKeys().size() == 1) {
+            Object hookValue = abstractNode.getProperties().get(hookKey);
+            if (hookValue != null) {
+                this.hookRegistry.put(abstractNode.getHookLabel(), hookKey, hookValue, nodeId);
+            }
+        }
+        return nodeId;
+    }
+
+    private void updateNode(long nodeId, AbstractNode abstractNode) {
+        Set<String> labels = abstractNode.getLabels();
+        Map<String, Object> properties = abstractNode.getProperties();
+        if ((labels == null || labels.isEmpty()) && (properties == null || properties.isEmpty())) {
+            // a bare reference, with nothing to write
+            this.unchangedCount += 1;
             return;
-        for (Map.Entry<String, Object> entry : properties.entrySet()) {
-            if (entry.getValue() != null) {
-                entity.setProperty(entry.getKey(), entry.getValue());
+        }
+        if (!this.diff) {
+            if (labels != null) {
+                for (String label : labels) {
+                    this.sink.addLabel(nodeId, label);
+                }
+            }
+            if (properties != null) {
+                for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                    if (entry.getValue() != null) {
+                        this.sink.setProperty(nodeId, entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            this.updatedCount += 1;
+            return;
+        }
+        boolean changed = false;
+        if (labels != null) {
+            for (String label : labels) {
+                if (!this.sink.hasLabel(nodeId, label)) {
+                    this.sink.addLabel(nodeId, label);
+                    changed = true;
+                }
+            }
+        }
+        if (properties != null) {
+            for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                Object value = entry.getValue();
+                if (value != null && !valueEquals(this.sink.getProperty(nodeId, entry.getKey()), value)) {
+                    this.sink.setProperty(nodeId, entry.getKey(), value);
+                    changed = true;
+                }
             }
         }
+        if (changed) {
+            this.updatedCount += 1;
+        } else {
+            this.unchangedCount += 1;
+        }
+    }
+
+    /**
+     * Compare a stored property value with a new one. Arrays are compared
+     * item by item, since stored arrays are returned as primitive arrays.
+     * Otherwise, values of different types are never equal, as writing would
+     * change the stored type.
+     */
+    private static boolean valueEquals(Object stored, Object value) {
+        if (stored == null) {
+            return false;
+        }
+        if (!stored.getClass().isArray() || !value.getClass().isArray()) {
+            return stored.equals(value);
+        }
+        int length = Array.getLength(stored);
+        if (length != Array.getLength(value)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!Array.get(stored, i).equals(Array.get(value, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the existing node referred to by ID, loaded earlier in the
+     * session or matched by a hooked node specification.
+     *
+     * @param abstractNode an abstract node specification
+     * @return the ID of the referenced or "first" matching node, or NONE
+     *         if neither referenced nor hooked, or if not found
+     * @throws NotFoundException if a node referred to by ID does not exist
+     */
+    public long findNodeId(AbstractNode abstractNode) {
+        Long nodeId = abstractNode.getNodeId();
+        if (nodeId != null) {
+            if (!this.sink.nodeExists(nodeId)) {
+                throw new NotFoundException("Node " + nodeId + " not found");
+            }
+            return nodeId;
+        }
+        if (this.sessionNodeIds != null && abstractNode.isNamed()) {
+            long sessionNodeId = this.pendingNodeIds.get(abstractNode.getName());
+            if (sessionNodeId == NameMap.NONE) {
+                sessionNodeId = this.sessionNodeIds.get(abstractNode.getName());
+            }
+            if (sessionNodeId != NameMap.NONE) {
+                return sessionNodeId;
+            }
+        }
+        String label = abstractNode.getHookLabel();
+        // is this a hooked node?
+        if (label == null) {
+            return NONE;
+        }
+        // determine the key and value to look up
+        if (abstractNode.getHookKeys().size() > 1) {
+            return this.findCompositeHookedNodeId(label, abstractNode.getHookKeys(), abstractNode.getProperties());
+        }
+        String hookKey = abstractNode.getHookKey();
+        Object hookValue = null;
+        if (abstractNode.getProperties().containsKey(hookKey)) {
+            hookValue = abstractNode.getProperties().get(hookKey);
+        }
+        boolean registered = this.hookRegistry != null && hookKey != null && hookValue != null;
+        if (registered) {
+            long registeredNodeId = this.findRegisteredNodeId(label, hookKey, hookValue);
+            if (registeredNodeId != NONE) {
+                return registeredNodeId;
+            }
+        }
+        // find the "first" node with the given label, key and value
+        long t0 = System.nanoTime();
+        long foundNodeId = NONE;
+        for (long candidate : this.sink.findNodes(label, hookKey, hookValue)) {
+            foundNodeId = candidate;
+            break;
+        }
+        if (this.hookAdvisor != null && hookKey != null) {
+            this.hookAdvisor.record(label, hookKey, System.nanoTime() - t0);
+        }
+        if (registered && foundNodeId != NONE) {
+            this.hookRegistry.put(label, hookKey, hookValue, foundNodeId);
+        }
+        return foundNodeId;
+    }
+
+    /**
+     * Find the "first" node matching a hook on several keys. Only one key
+     * is looked up, and the candidates found are then checked against the
+     * others. Of those keys with an index, the one that has so far given
+     * the fewest candidates per lookup is used, each being tried at least
+     * once; if none is indexed, the first key is used.
+     */
+    private long findCompositeHookedNodeId(String label, List<String> keys, Map<String, Object> properties) {
+        String probeKey = null;
+        double fewestCandidates = Double.MAX_VALUE;
+        for (String key : keys) {
+            String labelKey = label + ":" + key;
+            long[] stats = this.probeStats.get(labelKey);
+            if (stats == null) {
+                stats = new long[] {this.sink.hasIndex(label, key) ? 0 : -1, 0};
+                this.probeStats.put(labelKey, stats);
+            }
+            if (stats[0] < 0) {
+                continue;
+            }
+            double candidates = stats[0] == 0 ? 0 : (double) stats[1] / stats[0];
+            if (candidates < fewestCandidates) {
+                probeKey = key;
+                fewestCandidates = candidates;
+            }
+        }
+        if (probeKey == null) {
+            probeKey = keys.get(0);
+        }
+        long t0 = System.nanoTime();
+        long foundNodeId = NONE;
+        long candidates = 0;
+        for (long candidate : this.sink.findNodes(label, probeKey, properties.get(probeKey))) {
+            candidates += 1;
+            boolean matched = true;
+            for (String key : keys) {
+                if (!key.equals(probeKey) && !valueEquals(this.sink.getProperty(candidate, key), properties.get(key))) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                foundNodeId = candidate;
+                break;
+            }
+        }
+        if (this.hookAdvisor != null) {
+            this.hookAdvisor.record(label, probeKey, System.nanoTime() - t0);
+        }
+        long[] stats = this.probeStats.get(label + ":" + probeKey);
+        if (stats[0] >= 0) {
+            stats[0] += 1;
+            stats[1] += candidates;
+        }
+        return foundNodeId;
+    }
+
+    /**
+     * Find the node registered for a hook, checking that it still exists
+     * and matches the hook.
+     *
+     * @return the ID of the registered node, or NONE if there is none or
+     *         it no longer matches
+     */
+    private long findRegisteredNodeId(String label, String key, Object value) {
+        long nodeId = this.hookRegistry.get(label, key, value);
+        if (nodeId == HookRegistry.NONE || !this.sink.nodeExists(nodeId)) {
+            return NONE;
+        }
+        if (this.sink.hasLabel(nodeId, label) && valueEquals(this.sink.getProperty(nodeId, key), value)) {
+            return nodeId;
+        }
+        return NONE;
     }
 
 }
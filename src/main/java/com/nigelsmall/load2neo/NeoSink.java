@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.ConstraintType;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes to a Neo4j database, within its own transactions.
+ *
+ * The last node used is kept, as is the start node of the last
+ * relationship created, so that runs of writes to the same node fetch it
+ * only once. These are forgotten at the start of each transaction, and
+ * never used to answer whether a node exists, as a transaction rolled back
+ * may have created them. A sink should be used by only one thread at a
+ * time.
+ */
+public class NeoSink implements GraphSink {
+
+    final private GraphDatabaseService database;
+
+    private Node node;
+    private Node startNode;
+
+    public NeoSink(GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    private Node node(long nodeId) {
+        if (this.node == null || this.node.getId() != nodeId) {
+            this.node = this.database.getNodeById(nodeId);
+        }
+        return this.node;
+    }
+
+    @Override
+    public Transaction beginTx() {
+        this.node = null;
+        this.startNode = null;
+        return this.database.beginTx();
+    }
+
+    @Override
+    public boolean nodeExists(long nodeId) {
+        try {
+            this.node = this.database.getNodeById(nodeId);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Iterable<Long> findNodes(String label, String key, Object value) {
+        final Iterable<Node> nodes = this.database.findNodesByLabelAndProperty(DynamicLabel.label(label), key, value);
+        return new Iterable<Long>() {
+
+            @Override
+            public Iterator<Long> iterator() {
+                final Iterator<Node> iterator = nodes.iterator();
+                return new Iterator<Long>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Long next() {
+                        return iterator.next().getId();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+
+                };
+            }
+
+        };
+    }
+
+    @Override
+    public boolean hasLabel(long nodeId, String label) {
+        return this.node(nodeId).hasLabel(DynamicLabel.label(label));
+    }
+
+    @Override
+    public Object getProperty(long nodeId, String key) {
+        return this.node(nodeId).getProperty(key, null);
+    }
+
+    @Override
+    public long createNode(Set<String> labels, Map<String, Object> properties) {
+        this.node = this.database.createNode();
+        if (labels != null) {
+            for (String label : labels) {
+                this.node.addLabel(DynamicLabel.label(label));
+            }
+        }
+        setProperties(this.node, properties);
+        return this.node.getId();
+    }
+
+    @Override
+    public void addLabel(long nodeId, String label) {
+        this.node(nodeId).addLabel(DynamicLabel.label(label));
+    }
+
+    @Override
+    public void setProperty(long nodeId, String key, Object value) {
+        this.node(nodeId).setProperty(key, value);
+    }
+
+    @Override
+    public void createRelationship(long startNodeId, String type, Map<String, Object> properties, long endNodeId) {
+        if (this.startNode == null || this.startNode.getId() != startNodeId) {
+            this.startNode = this.database.getNodeById(startNodeId);
+        }
+        Node endNode = this.database.getNodeById(endNodeId);
+        Relationship relationship = this.startNode.createRelationshipTo(endNode, DynamicRelationshipType.withName(type));
+        setProperties(relationship, properties);
+    }
+
+    @Override
+    public boolean hasIndex(String label, String key) {
+        Schema schema = this.database.schema();
+        for (IndexDefinition index : schema.getIndexes(DynamicLabel.label(label))) {
+            for (String propertyKey : index.getPropertyKeys()) {
+                // an index still being populated, or that failed, cannot be used
+                if (propertyKey.equals(key) && schema.getIndexState(index) == Schema.IndexState.ONLINE) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isUnique(String label, String key) {
+        for (ConstraintDefinition constraint : this.database.schema().getConstraints(DynamicLabel.label(label))) {
+            if (constraint.isConstraintType(ConstraintType.UNIQUENESS)) {
+                for (String propertyKey : constraint.asUniquenessConstraint().getPropertyKeys()) {
+                    if (propertyKey.equals(key)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a map of properties to a node or relationship, leaving out any
+     * with null values.
+     *
+     * @param entity the destination Node or Relationship to which to add the properties
+     * @param properties a Map of key-value property pairs, or null
+     */
+    static void setProperties(PropertyContainer entity, Map<String, Object> properties) {
+        if (properties == null)
+            return;
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            if (entry.getValue() != null) {
+                entity.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+}
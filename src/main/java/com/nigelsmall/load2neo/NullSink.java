@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.Lock;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes nothing, for measuring the cost of reading and planning a load
+ * apart from that of storage. The graph is taken to be empty, so no hook
+ * is ever found and every hooked node is created, although any node
+ * referred to by ID is taken to exist. Each node created is given a new ID.
+ *
+ * A null sink may be shared between threads.
+ */
+public class NullSink implements GraphSink {
+
+    final private static Transaction NULL_TRANSACTION = new Transaction() {
+
+        @Override
+        public void failure() { }
+
+        @Override
+        public void success() { }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void finish() { }
+
+        @Override
+        public void close() { }
+
+        @Override
+        public Lock acquireWriteLock(PropertyContainer entity) {
+            throw new UnsupportedOperationException("A null sink has nothing to lock");
+        }
+
+        @Override
+        public Lock acquireReadLock(PropertyContainer entity) {
+            throw new UnsupportedOperationException("A null sink has nothing to lock");
+        }
+
+    };
+
+    final private AtomicLong nextNodeId = new AtomicLong();
+
+    @Override
+    public Transaction beginTx() {
+        return NULL_TRANSACTION;
+    }
+
+    @Override
+    public boolean nodeExists(long nodeId) {
+        return true;
+    }
+
+    @Override
+    public Iterable<Long> findNodes(String label, String key, Object value) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean hasLabel(long nodeId, String label) {
+        return false;
+    }
+
+    @Override
+    public Object getProperty(long nodeId, String key) {
+        return null;
+    }
+
+    @Override
+    public long createNode(Set<String> labels, Map<String, Object> properties) {
+        return this.nextNodeId.getAndIncrement();
+    }
+
+    @Override
+    public void addLabel(long nodeId, String label) { }
+
+    @Override
+    public void setProperty(long nodeId, String key, Object value) { }
+
+    @Override
+    public void createRelationship(long startNodeId, String type, Map<String, Object> properties, long endNodeId) { }
+
+    @Override
+    public boolean hasIndex(String label, String key) {
+        return false;
+    }
+
+    @Override
+    public boolean isUnique(String label, String key) {
+        return false;
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.IndexDefinition;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The set of subgraphs already loaded, kept in the graph itself as one
+ * node per subgraph with a {@value #LABEL} label, holding the content hash
+ * of the subgraph and the response given when it was loaded. As each entry
+ * is written in the same transaction as the load it records, a subgraph is
+ * recorded if and only if it was committed.
+ */
+public class ReplayLog {
+
+    final public static String LABEL = "Load2neoSubgraph";
+    final public static String HASH_KEY = "hash";
+    final public static String RESULT_KEY = "result";
+
+    final private static Label label = DynamicLabel.label(LABEL);
+
+    // kept apart from the hook locks, which are always taken after these
+    final private static HookLocks locks = new HookLocks(256, 60, TimeUnit.SECONDS);
+
+    final private GraphDatabaseService database;
+
+    public ReplayLog(GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Create the index used to look up entries, if it does not already
+     * exist, and wait for it to come online. Only this index is waited
+     * for. This opens transactions of its own.
+     *
+     * @throws IllegalStateException if the index fails or does not come
+     *         online within a minute
+     */
+    public void ensureIndex() {
+        IndexDefinition index;
+        try (Transaction tx = database.beginTx()) {
+            index = this.findIndex();
+            if (index == null) {
+                index = database.schema().indexFor(label).on(HASH_KEY).create();
+            }
+            tx.success();
+        } catch (ConstraintViolationException e) {
+            // created at the same time by another load
+            try (Transaction tx = database.beginTx()) {
+                index = this.findIndex();
+                tx.success();
+            }
+            if (index == null) {
+                throw e;
+            }
+        }
+        try (Transaction tx = database.beginTx()) {
+            database.schema().awaitIndexOnline(index, 1, TimeUnit.MINUTES);
+            tx.success();
+        }
+    }
+
+    private IndexDefinition findIndex() {
+        for (IndexDefinition index : database.schema().getIndexes(label)) {
+            if (index.getPropertyKeys().iterator().next().equals(HASH_KEY)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look up a subgraph by content hash. This must be called within a
+     * transaction.
+     *
+     * @return the response recorded when the subgraph was loaded, or null
+     *         if it has not been loaded
+     */
+    public String find(String hash) {
+        for (Node node : database.findNodesByLabelAndProperty(label, HASH_KEY, hash)) {
+            return (String) node.getProperty(RESULT_KEY, "");
+        }
+        return null;
+    }
+
+    /**
+     * Lock content hashes against other loads of the same subgraphs within
+     * this process, until the locks held are released. All hashes to be
+     * loaded in one transaction must be locked together, and before any
+     * hook locks are taken.
+     *
+     * @param hashes the content hashes to lock
+     * @param held the list to which the locks taken are added
+     * @see HookLocks#release(List)
+     */
+    public void lock(Collection<String> hashes, List<ReentrantLock> held) {
+        BitSet stripes = new BitSet(locks.getStripeCount());
+        for (String hash : hashes) {
+            stripes.set(locks.stripeFor(LABEL, HASH_KEY, hash));
+        }
+        locks.acquire(stripes, held);
+    }
+
+    /**
+     * Record a subgraph as loaded. This must be called within the
+     * transaction that loads it.
+     *
+     * @param hash the content hash of the subgraph
+     * @param result the response given for the load
+     */
+    public void record(String hash, String result) {
+        Node node = database.createNode(label);
+        node.setProperty(HASH_KEY, hash);
+        node.setProperty(RESULT_KEY, result);
+    }
+
+    /**
+     * Get the content hash of a subgraph. This is the hash given by its
+     * reader, if any; otherwise a hash of its entities is computed that
+     * does not depend on the names generated for anonymous nodes, and as
+     * far as possible not on their order either.
+     */
+    public static String hash(Subgraph subgraph) {
+        String contentHash = subgraph.getContentHash();
+        if (contentHash != null) {
+            return contentHash;
+        }
+        Map<String, AbstractNode> nodes = subgraph.getNodes();
+        IdentityHashMap<AbstractNode, String> names = canonicalNames(subgraph);
+        long sum1 = 0;
+        long sum2 = 0;
+        for (AbstractNode node : nodes.values()) {
+            String description = describe(node, names);
+            sum1 += mix(hash(description, 0xcbf29ce484222325L));
+            sum2 += mix(hash(description, 0x84222325cbf29ce4L));
+        }
+        for (AbstractRelationship rel : subgraph.getRelationships()) {
+            String description = describe(nodes.get(rel.getStartNode().getName()), names) + describe(rel) +
+                    describe(nodes.get(rel.getEndNode().getName()), names);
+            sum1 += mix(hash(description, 0xcbf29ce484222325L));
+            sum2 += mix(hash(description, 0x84222325cbf29ce4L));
+        }
+        return String.format("entities:%016x%016x", sum1, sum2);
+    }
+
+    /**
+     * Name each anonymous node by its position in a canonical order, so
+     * that relationships between anonymous nodes are told apart. Nodes are
+     * ordered by their descriptions, refined by those of their neighbours
+     * until no more nodes can be told apart; nodes still alike are then
+     * ordered by where they first appear among the relationships.
+     */
+    private static IdentityHashMap<AbstractNode, String> canonicalNames(Subgraph subgraph) {
+        Map<String, AbstractNode> nodes = subgraph.getNodes();
+        final IdentityHashMap<AbstractNode, Long> colours = new IdentityHashMap<>();
+        for (AbstractNode node : nodes.values()) {
+            colours.put(node, hash(describe(node, null), 0xcbf29ce484222325L));
+        }
+        final IdentityHashMap<AbstractNode, Integer> positions = new IdentityHashMap<>();
+        ArrayList<AbstractNode[]> endpoints = new ArrayList<>();
+        ArrayList<Long> relHashes = new ArrayList<>();
+        for (AbstractRelationship rel : subgraph.getRelationships()) {
+            AbstractNode[] ends = {nodes.get(rel.getStartNode().getName()), nodes.get(rel.getEndNode().getName())};
+            for (AbstractNode end : ends) {
+                if (!positions.containsKey(end)) {
+                    positions.put(end, positions.size());
+                }
+            }
+            endpoints.add(ends);
+            relHashes.add(hash(describe(rel), 0xcbf29ce484222325L));
+        }
+        int distinct = new HashSet<>(colours.values()).size();
+        while (distinct < colours.size() && !endpoints.isEmpty()) {
+            IdentityHashMap<AbstractNode, Long> refined = new IdentityHashMap<>();
+            for (Map.Entry<AbstractNode, Long> entry : colours.entrySet()) {
+                refined.put(entry.getKey(), mix(entry.getValue()));
+            }
+            for (int i = 0; i < endpoints.size(); i++) {
+                AbstractNode start = endpoints.get(i)[0];
+                AbstractNode end = endpoints.get(i)[1];
+                long relHash = relHashes.get(i);
+                refined.put(start, refined.get(start) + mix(relHash + 2 * colours.get(end)));
+                refined.put(end, refined.get(end) + mix(relHash + 2 * colours.get(start) + 1));
+            }
+            int refinedDistinct = new HashSet<>(refined.values()).size();
+            if (refinedDistinct <= distinct) {
+                break;
+            }
+            colours.clear();
+            colours.putAll(refined);
+            distinct = refinedDistinct;
+        }
+        ArrayList<AbstractNode> anonymous = new ArrayList<>();
+        for (AbstractNode node : nodes.values()) {
+            if (node.getNodeId() == null && !node.isNamed()) {
+                anonymous.add(node);
+            }
+        }
+        Collections.sort(anonymous, new Comparator<AbstractNode>() {
+            @Override
+            public int compare(AbstractNode a, AbstractNode b) {
+                int c = Long.compare(colours.get(a), colours.get(b));
+                if (c == 0) {
+                    Integer aPosition = positions.get(a);
+                    Integer bPosition = positions.get(b);
+                    c = Integer.compare(aPosition == null ? Integer.MAX_VALUE : aPosition,
+                            bPosition == null ? Integer.MAX_VALUE : bPosition);
+                }
+                return c;
+            }
+        });
+        IdentityHashMap<AbstractNode, String> names = new IdentityHashMap<>();
+        for (int i = 0; i < anonymous.size(); i++) {
+            names.put(anonymous.get(i), "\u0000" + i);
+        }
+        return names;
+    }
+
+    /**
+     * @param names the canonical names of anonymous nodes, or null to
+     *              leave anonymous nodes unnamed
+     */
+    private static String describe(AbstractNode node, Map<AbstractNode, String> names) {
+        StringBuilder s = new StringBuilder();
+        if (node.getNodeId() != null) {
+            s.append('#').append(node.getNodeId());
+        } else if (node.isNamed()) {
+            s.append(node.getName());
+        } else if (names != null) {
+            s.append(names.get(node));
+        }
+        if (node.getLabels() != null) {
+            for (String label : new TreeSet<>(node.getLabels())) {
+                s.append(':').append(label);
+            }
+        }
+        s.append(describe(node.getProperties()));
+        if (node.getHookLabel() != null) {
+            s.append("=>").append(node.getHookLabel()).append(':').append(node.getHookKeys());
+        }
+        return s.toString();
+    }
+
+    private static String describe(AbstractRelationship rel) {
+        return "-[" + rel.getType() + describe(rel.getProperties()) + "]->";
+    }
+
+    private static String describe(Map<String, Object> properties) {
+        if (properties == null) {
+            return "{}";
+        }
+        StringBuilder s = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : new TreeMap<>(properties).entrySet()) {
+            Object value = entry.getValue();
+            s.append(entry.getKey()).append('=');
+            if (value instanceof Object[]) {
+                s.append(value.getClass().getSimpleName()).append(Arrays.toString((Object[]) value));
+            } else if (value != null) {
+                s.append(value.getClass().getSimpleName()).append(':').append(value);
+            }
+            s.append(',');
+        }
+        return s.append('}').toString();
+    }
+
+    private static long hash(String s, long h) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
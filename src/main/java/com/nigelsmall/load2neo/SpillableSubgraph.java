@@ -0,0 +1,686 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.load2neo.util.NameMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A subgraph that moves its entities out to temporary files once it holds
+ * more than a given number of them, so that subgraphs larger than the heap
+ * can be read and loaded. After spilling, nodes are appended to one file
+ * and relationships to another. Names are mapped to the latest record of
+ * each node by an off-heap {@link NameMap}; a node merged more than once
+ * is rewritten at the end of the file and its earlier records skipped.
+ *
+ * The nodes and relationships of a spilled subgraph are read back from
+ * disk, one at a time, whenever they are iterated. The node most recently
+ * merged is held back until the next change so that it may still be
+ * modified, such as by having a hook set on it, as in memory.
+ *
+ * Spill files are deleted when the subgraph is closed.
+ *
+ * Only the entities are moved out of memory. The name index grows with
+ * the number of nodes, off the heap, and a subgraph is still loaded in a
+ * single transaction, whose state Neo4j holds in memory until it commits.
+ */
+public class SpillableSubgraph extends Subgraph implements Closeable {
+
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+
+    final private int threshold;
+    final private File directory;
+
+    private boolean spilled;
+    private File nodeFile;
+    private File relationshipFile;
+    private Spill nodes;
+    private Spill relationships;
+    private NameMap index;
+    private int relationshipCount;
+    private AbstractNode pending;
+
+    /**
+     * @param threshold the number of nodes and relationships to hold in memory before spilling
+     * @param directory the directory for spill files, or null for the default temporary directory
+     */
+    public SpillableSubgraph(int threshold, File directory) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Spill threshold must be positive");
+        }
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    public boolean isSpilled() {
+        return this.spilled;
+    }
+
+    @Override
+    public int order() {
+        if (!this.spilled) {
+            return super.order();
+        }
+        this.flushPending();
+        return this.index.size();
+    }
+
+    @Override
+    public int size() {
+        if (!this.spilled) {
+            return super.size();
+        }
+        return this.relationshipCount;
+    }
+
+    @Override
+    public AbstractNode mergeNode(AbstractNode node) {
+        if (!this.spilled) {
+            AbstractNode merged = super.mergeNode(node);
+            if (this.isFull()) {
+                this.spill(merged);
+                this.pending = merged;
+            }
+            return merged;
+        }
+        if (this.pending != null && this.pending.getName().equals(node.getName())) {
+            if (this.pending != node) {
+                this.pending.mergeNode(node);
+            }
+            return this.pending;
+        }
+        this.flushPending();
+        long offset = this.index.get(node.getName());
+        if (offset == NameMap.NONE) {
+            this.pending = node;
+        } else {
+            this.pending = this.nodes.readNode(offset);
+            this.pending.mergeNode(node);
+        }
+        return this.pending;
+    }
+
+    @Override
+    public void addRelationship(AbstractRelationship rel) {
+        this.mergeEndpoint(rel.getStartNode());
+        this.mergeEndpoint(rel.getEndNode());
+        if (!this.spilled) {
+            super.getRelationships().add(rel);
+            if (this.isFull()) {
+                this.spill(null);
+            }
+            return;
+        }
+        try {
+            this.relationships.writeRelationship(rel);
+        } catch (IOException e) {
+            throw new SpillException(e);
+        }
+        this.relationshipCount += 1;
+    }
+
+    /**
+     * Merge a relationship endpoint. Once spilled, endpoints that add
+     * nothing to a node already on disk are not read back or rewritten.
+     */
+    private void mergeEndpoint(AbstractNode node) {
+        if (this.spilled && node.getHookLabel() == null &&
+                (node.getLabels() == null || node.getLabels().isEmpty()) &&
+                (node.getProperties() == null || node.getProperties().isEmpty()) &&
+                (this.pending == null || !this.pending.getName().equals(node.getName())) &&
+                this.index.containsKey(node.getName())) {
+            return;
+        }
+        this.mergeNode(node);
+    }
+
+    @Override
+    public Map<String, AbstractNode> getNodes() {
+        if (!this.spilled) {
+            return super.getNodes();
+        }
+        this.flushPending();
+        return new AbstractMap<String, AbstractNode>() {
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String && index.containsKey((String) key);
+            }
+
+            @Override
+            public AbstractNode get(Object key) {
+                if (!(key instanceof String)) {
+                    return null;
+                }
+                long offset = index.get((String) key);
+                return offset == NameMap.NONE ? null : nodes.readNode(offset);
+            }
+
+            @Override
+            public Set<Map.Entry<String, AbstractNode>> entrySet() {
+                return new AbstractSet<Map.Entry<String, AbstractNode>>() {
+
+                    @Override
+                    public int size() {
+                        return index.size();
+                    }
+
+                    @Override
+                    public Iterator<Map.Entry<String, AbstractNode>> iterator() {
+                        final Iterator<AbstractNode> records = nodes.readNodes(nodeFile, index);
+                        return new Iterator<Map.Entry<String, AbstractNode>>() {
+
+                            @Override
+                            public boolean hasNext() {
+                                return records.hasNext();
+                            }
+
+                            @Override
+                            public Map.Entry<String, AbstractNode> next() {
+                                AbstractNode node = records.next();
+                                return new AbstractMap.SimpleImmutableEntry<>(node.getName(), node);
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+
+                        };
+                    }
+
+                };
+            }
+
+        };
+    }
+
+    @Override
+    public Collection<AbstractRelationship> getRelationships() {
+        if (!this.spilled) {
+            return super.getRelationships();
+        }
+        return new AbstractCollection<AbstractRelationship>() {
+
+            @Override
+            public int size() {
+                return relationshipCount;
+            }
+
+            @Override
+            public Iterator<AbstractRelationship> iterator() {
+                return relationships.readRelationships(relationshipFile);
+            }
+
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.spilled) {
+            this.nodes.close();
+            this.relationships.close();
+            this.nodeFile.delete();
+            this.relationshipFile.delete();
+            this.index.clear();
+            this.pending = null;
+        }
+    }
+
+    private boolean isFull() {
+        return super.getNodes().size() + super.getRelationships().size() > this.threshold;
+    }
+
+    /**
+     * Move all entities out to spill files, except for one node that is
+     * left to be written later.
+     */
+    private void spill(AbstractNode except) {
+        Map<String, AbstractNode> heapNodes = super.getNodes();
+        Collection<AbstractRelationship> heapRelationships = super.getRelationships();
+        try {
+            this.nodeFile = File.createTempFile("load2neo-nodes-", ".spill", this.directory);
+            this.relationshipFile = File.createTempFile("load2neo-rels-", ".spill", this.directory);
+            this.nodeFile.deleteOnExit();
+            this.relationshipFile.deleteOnExit();
+            this.nodes = new Spill(this.nodeFile);
+            this.relationships = new Spill(this.relationshipFile);
+            this.index = new NameMap(heapNodes.size() * 4, true);
+            for (AbstractNode node : heapNodes.values()) {
+                if (node != except) {
+                    this.index.put(node.getName(), this.nodes.writeNode(node));
+                }
+            }
+            for (AbstractRelationship rel : heapRelationships) {
+                this.relationships.writeRelationship(rel);
+            }
+        } catch (IOException e) {
+            throw new SpillException(e);
+        }
+        this.relationshipCount = heapRelationships.size();
+        heapNodes.clear();
+        heapRelationships.clear();
+        this.spilled = true;
+    }
+
+    private void flushPending() {
+        if (this.pending != null) {
+            try {
+                this.index.put(this.pending.getName(), this.nodes.writeNode(this.pending));
+            } catch (IOException e) {
+                throw new SpillException(e);
+            }
+            this.pending = null;
+        }
+    }
+
+    /**
+     * Thrown when a spill file cannot be written or read.
+     */
+    public static class SpillException extends RuntimeException {
+
+        final private static long serialVersionUID = 1L;
+
+        public SpillException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+    }
+
+    /**
+     * An append-only file of length-prefixed records.
+     */
+    private static class Spill implements Closeable {
+
+        final private RandomAccessFile file;
+        final private DataOutputStream out;
+        final private ByteArrayOutputStream record;
+        final private DataOutputStream recordOut;
+        private long length;
+
+        Spill(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file.getFD()), 65536));
+            this.record = new ByteArrayOutputStream(256);
+            this.recordOut = new DataOutputStream(this.record);
+        }
+
+        long writeNode(AbstractNode node) throws IOException {
+            this.record.reset();
+            DataOutputStream out = this.recordOut;
+            writeString(out, node.isNamed() ? node.getName() : null);
+            if (!node.isNamed()) {
+                writeString(out, node.getName());
+            }
+            Set<String> labels = node.getLabels();
+            out.writeInt(labels == null ? -1 : labels.size());
+            if (labels != null) {
+                for (String label : labels) {
+                    writeString(out, label);
+                }
+            }
+            writeString(out, node.getHookLabel());
+            List<String> hookKeys = node.getHookKeys();
+            out.writeInt(hookKeys.size());
+            for (String hookKey : hookKeys) {
+                writeString(out, hookKey);
+            }
+            Long nodeId = node.getNodeId();
+            out.writeLong(nodeId == null ? -1 : nodeId);
+            writeProperties(out, node.getProperties());
+            return this.append();
+        }
+
+        void writeRelationship(AbstractRelationship rel) throws IOException {
+            this.record.reset();
+            DataOutputStream out = this.recordOut;
+            writeString(out, rel.getStartNode().getName());
+            writeString(out, rel.getType());
+            writeString(out, rel.getEndNode().getName());
+            writeProperties(out, rel.getProperties());
+            this.append();
+        }
+
+        private long append() throws IOException {
+            long offset = this.length;
+            this.out.writeInt(this.record.size());
+            this.record.writeTo(this.out);
+            this.length += 4 + this.record.size();
+            return offset;
+        }
+
+        AbstractNode readNode(long offset) {
+            try {
+                this.out.flush();
+                FileChannel channel = this.file.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(4);
+                readFully(channel, header, offset);
+                ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+                readFully(channel, body, offset + 4);
+                return decodeNode(new DataInputStream(new ByteArrayInputStream(body.array())));
+            } catch (IOException e) {
+                throw new SpillException(e);
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Spill file truncated");
+                }
+            }
+        }
+
+        /**
+         * Iterate through the current records of all nodes, in the order
+         * they were last written.
+         */
+        Iterator<AbstractNode> readNodes(File file, final NameMap index) {
+            final DataInputStream in = this.openForReading(file);
+            return new RecordIterator<AbstractNode>(in, this.length) {
+
+                @Override
+                AbstractNode readRecord(long offset) throws IOException {
+                    AbstractNode node = decodeNode(in);
+                    // skip records superseded by a later merge
+                    return index.get(node.getName()) == offset ? node : null;
+                }
+
+            };
+        }
+
+        Iterator<AbstractRelationship> readRelationships(File file) {
+            final DataInputStream in = this.openForReading(file);
+            return new RecordIterator<AbstractRelationship>(in, this.length) {
+
+                @Override
+                AbstractRelationship readRecord(long offset) throws IOException {
+                    AbstractNode startNode = new AbstractNode(readString(in), null, null);
+                    String type = readString(in);
+                    AbstractNode endNode = new AbstractNode(readString(in), null, null);
+                    return new AbstractRelationship(startNode, type, readProperties(in), endNode);
+                }
+
+            };
+        }
+
+        private DataInputStream openForReading(File file) {
+            try {
+                this.out.flush();
+                return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            } catch (IOException e) {
+                throw new SpillException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+            this.file.close();
+        }
+
+    }
+
+    /**
+     * Iterates through the records of a spill file up to a given length,
+     * skipping any for which {@link #readRecord} returns null.
+     */
+    private static abstract class RecordIterator<T> implements Iterator<T> {
+
+        final private DataInputStream in;
+        final private long length;
+        private long offset;
+        private T next;
+
+        RecordIterator(DataInputStream in, long length) {
+            this.in = in;
+            this.length = length;
+        }
+
+        abstract T readRecord(long offset) throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (this.next == null && this.offset < this.length) {
+                    long offset = this.offset;
+                    int recordLength = this.in.readInt();
+                    this.offset += 4 + recordLength;
+                    this.next = this.readRecord(offset);
+                }
+                if (this.next == null) {
+                    this.in.close();
+                }
+            } catch (IOException e) {
+                throw new SpillException(e);
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T next = this.next;
+            this.next = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private static AbstractNode decodeNode(DataInputStream in) throws IOException {
+        String name = readString(in);
+        AbstractNode node;
+        int labelCount;
+        if (name == null) {
+            // an anonymous node keeps the name it was given in memory
+            String anonymousName = readString(in);
+            labelCount = in.readInt();
+            node = new AbstractNode(null, null, null);
+            node.mergeNode(new AbstractNode(anonymousName, null, null));
+        } else {
+            labelCount = in.readInt();
+            node = new AbstractNode(name, null, null);
+        }
+        if (labelCount >= 0) {
+            HashSet<String> labels = new HashSet<>(labelCount * 2);
+            for (int i = 0; i < labelCount; i++) {
+                labels.add(readString(in));
+            }
+            node.mergeLabels(labels);
+        }
+        String hookLabel = readString(in);
+        int hookKeyCount = in.readInt();
+        ArrayList<String> hookKeys = new ArrayList<>(hookKeyCount);
+        for (int i = 0; i < hookKeyCount; i++) {
+            hookKeys.add(readString(in));
+        }
+        long nodeId = in.readLong();
+        if (nodeId >= 0) {
+            node.setNodeId(nodeId);
+        }
+        node.mergeProperties(readProperties(in));
+        if (hookLabel != null) {
+            node.setHook(hookLabel, hookKeys);
+        }
+        return node;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // value types
+    final private static int NULL = 0;
+    final private static int BOOLEAN = 1;
+    final private static int INTEGER = 2;
+    final private static int LONG = 3;
+    final private static int FLOAT = 4;
+    final private static int DOUBLE = 5;
+    final private static int STRING = 6;
+    final private static int ARRAY = 0x10;
+
+    private static void writeProperties(DataOutputStream out, Map<String, Object> properties) throws IOException {
+        if (properties == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(properties.size());
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Object[]) {
+                Object[] items = (Object[]) value;
+                out.writeByte(ARRAY | typeOf(value.getClass().getComponentType()));
+                out.writeInt(items.length);
+                for (Object item : items) {
+                    writeValue(out, item);
+                }
+            } else {
+                out.writeByte(value == null ? NULL : typeOf(value.getClass()));
+                if (value != null) {
+                    writeValue(out, value);
+                }
+            }
+        }
+    }
+
+    private static Map<String, Object> readProperties(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        HashMap<String, Object> properties = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            int type = in.readByte();
+            if ((type & ARRAY) != 0) {
+                type &= ~ARRAY;
+                Object[] items = newArray(type, in.readInt());
+                for (int j = 0; j < items.length; j++) {
+                    items[j] = readValue(in, type);
+                }
+                properties.put(key, items);
+            } else {
+                properties.put(key, type == NULL ? null : readValue(in, type));
+            }
+        }
+        return properties;
+    }
+
+    private static int typeOf(Class<?> type) {
+        if (type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == Integer.class) {
+            return INTEGER;
+        } else if (type == Long.class) {
+            return LONG;
+        } else if (type == Float.class) {
+            return FLOAT;
+        } else if (type == Double.class) {
+            return DOUBLE;
+        } else if (type == String.class || type == Object.class) {
+            // untyped arrays can only be empty, and are kept as empty string arrays
+            return STRING;
+        } else {
+            throw new IllegalArgumentException("Cannot spill value of type " + type.getName());
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Boolean) {
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeDouble((Double) value);
+        } else {
+            writeString(out, (String) value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in, int type) throws IOException {
+        switch (type) {
+            case BOOLEAN:
+                return in.readBoolean();
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            default:
+                return readString(in);
+        }
+    }
+
+    private static Object[] newArray(int type, int length) {
+        switch (type) {
+            case BOOLEAN:
+                return new Boolean[length];
+            case INTEGER:
+                return new Integer[length];
+            case LONG:
+                return new Long[length];
+            case FLOAT:
+                return new Float[length];
+            case DOUBLE:
+                return new Double[length];
+            default:
+                return new String[length];
+        }
+    }
+
+}
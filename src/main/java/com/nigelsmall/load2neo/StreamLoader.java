@@ -0,0 +1,862 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.binary.GeoffDecoder;
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.util.NameMap;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Loads a stream of subgraphs into an embedded database, taking care of
+ * transactions, locking and replay, and reporting each subgraph to a
+ * callback once it has been committed. This is the loader behind the REST
+ * extension, for use by code running in the same process as the database.
+ *
+ * By default, each subgraph is loaded in its own transaction on the calling
+ * thread. Small subgraphs can be grouped into fewer, larger transactions
+ * with {@link #setBatchSize(int)}, and transactions can be spread across
+ * several threads with {@link #setThreads(int)}; either way, results are
+ * reported in the order in which subgraphs were read, on the calling thread.
+ *
+ * A subgraph that cannot be read or loaded normally stops the whole load.
+ * With {@link #setContinueOnError(boolean)}, it is instead reported as
+ * failed, optionally written to a dead-letter stream, and loading carries
+ * on with the next.
+ */
+public class StreamLoader {
+
+    final private static ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    final private static ObjectMapper mapper = new ObjectMapper();
+    final private static Pattern BOUNDARY = Pattern.compile("\\s*(~{4,}\\s*)?$");
+
+    /**
+     * Receives the result of each subgraph loaded.
+     */
+    public interface Callback {
+
+        /**
+         * Called, in order, for each subgraph once the transaction that
+         * loaded it has been committed.
+         */
+        public void subgraphLoaded(Result result) throws IOException;
+
+    }
+
+    /**
+     * The outcome of loading one subgraph.
+     */
+    public static class Result {
+
+        final private int number;
+        private Subgraph subgraph;
+        private String hash;
+        private boolean replayed;
+        private NameMap nodeIds;
+        private String json;
+        private long createdCount;
+        private long updatedCount;
+        private long unchangedCount;
+        final private long parseNanos;
+        private long hookNanos;
+        private long nodeNanos;
+        private long relationshipNanos;
+        private long commitNanos;
+        private long allocatedBytes;
+        private String text;
+        private String error;
+
+        Result(int number, Subgraph subgraph, long parseNanos, long allocatedBytes) {
+            this.number = number;
+            this.subgraph = subgraph;
+            this.parseNanos = parseNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * @return the position of the subgraph within the stream, from zero
+         */
+        public int getNumber() {
+            return this.number;
+        }
+
+        /**
+         * @return true if the subgraph could not be read or loaded, in
+         *         which case nothing from it has been loaded
+         */
+        public boolean isFailed() {
+            return this.error != null;
+        }
+
+        /**
+         * @return the reason the subgraph failed, or null
+         */
+        public String getError() {
+            return this.error;
+        }
+
+        /**
+         * @return the text of the subgraph as read, if kept, or else as
+         *         Geoff rendered from what was read; this is only kept for
+         *         subgraphs that failed
+         */
+        public String getText() {
+            return this.text;
+        }
+
+        /**
+         * @return the failed subgraph as Geoff, preceded by a comment giving
+         *         the error and followed by a boundary, so that dead letters
+         *         can be fixed and loaded again as they are
+         */
+        public String toDeadLetter() {
+            StringBuilder s = new StringBuilder("/* subgraph ");
+            s.append(this.number);
+            s.append(": ");
+            // the comment must not be closed early
+            s.append(this.error.replace("*/", "* /"));
+            s.append(" */\n");
+            if (this.text != null) {
+                String text = BOUNDARY.matcher(this.text).replaceFirst("");
+                if (!text.isEmpty()) {
+                    s.append(text);
+                    s.append('\n');
+                }
+            }
+            return s.append("~~~~\n").toString();
+        }
+
+        void fail(Throwable e) {
+            String message = e.getMessage();
+            this.error = message == null ? e.getClass().getSimpleName() : message;
+            this.nodeIds = null;
+            this.json = null;
+            this.replayed = false;
+        }
+
+        /**
+         * Forget an attempt to load this subgraph that was rolled back.
+         */
+        void reset() {
+            this.nodeIds = null;
+            this.json = null;
+            this.replayed = false;
+            this.createdCount = 0;
+            this.updatedCount = 0;
+            this.unchangedCount = 0;
+        }
+
+        /**
+         * @return true if the subgraph had already been loaded and so was
+         *         not loaded again
+         */
+        public boolean isReplayed() {
+            return this.replayed;
+        }
+
+        /**
+         * @return a map of the names of named nodes to the IDs of the nodes
+         *         loaded, as first loaded if replayed, or null if failed
+         */
+        public NameMap getNodeIds() throws IOException {
+            if (this.nodeIds == null && this.json != null) {
+                Map<String, Long> map = mapper.readValue(this.json, new TypeReference<LinkedHashMap<String, Long>>() {});
+                this.nodeIds = new NameMap(map.size(), false);
+                for (Map.Entry<String, Long> entry : map.entrySet()) {
+                    this.nodeIds.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return this.nodeIds;
+        }
+
+        /**
+         * @return the node IDs as a JSON object, exactly as first given if
+         *         replayed, or null if failed
+         */
+        public String toJSON() {
+            if (this.json == null && this.nodeIds != null) {
+                StringBuilder s = new StringBuilder("{");
+                String separator = "";
+                for (Map.Entry<String, Long> entry : this.nodeIds.entries()) {
+                    s.append(separator);
+                    s.append('"');
+                    s.append(entry.getKey());
+                    s.append('"');
+                    s.append(':');
+                    s.append(entry.getValue());
+                    separator = ",";
+                }
+                this.json = s.append('}').toString();
+            }
+            return this.json;
+        }
+
+        public long getCreatedCount() {
+            return this.createdCount;
+        }
+
+        public long getUpdatedCount() {
+            return this.updatedCount;
+        }
+
+        public long getUnchangedCount() {
+            return this.unchangedCount;
+        }
+
+        public long getParseNanos() {
+            return this.parseNanos;
+        }
+
+        public long getHookNanos() {
+            return this.hookNanos;
+        }
+
+        public long getNodeNanos() {
+            return this.nodeNanos;
+        }
+
+        public long getRelationshipNanos() {
+            return this.relationshipNanos;
+        }
+
+        /**
+         * @return the time taken to commit the transaction, which is shared
+         *         by every subgraph in the same batch
+         */
+        public long getCommitNanos() {
+            return this.commitNanos;
+        }
+
+        /**
+         * @return the bytes allocated to parse and load the subgraph, if
+         *         profiling, including its share of any batch overhead
+         */
+        public long getAllocatedBytes() {
+            return this.allocatedBytes;
+        }
+
+    }
+
+    final private GraphDatabaseService database;
+
+    private int batchSize;
+    private int threads;
+    private int spillThreshold;
+    private boolean offHeap;
+    private boolean diff;
+    private boolean session;
+    private boolean registry;
+    private boolean createIndexes;
+    private long indexTimeoutNanos;
+    private boolean idempotent;
+    private boolean profile;
+    private boolean continueOnError;
+    private Writer deadLetters;
+    private GraphSink sink;
+
+    public StreamLoader(GraphDatabaseService database) {
+        this.database = database;
+        this.batchSize = 1;
+        this.threads = 1;
+        this.indexTimeoutNanos = TimeUnit.SECONDS.toNanos(HookAdvisor.DEFAULT_INDEX_TIMEOUT);
+    }
+
+    /**
+     * Set the number of subgraphs loaded within each transaction. This is
+     * one by default; larger batches commit less often, but hold more in
+     * memory and roll back together if any subgraph fails.
+     *
+     * @param batchSize the number of subgraphs per transaction
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the number of threads loading transactions at once. Subgraphs
+     * are still read by the calling thread. Concurrent transactions hooking
+     * the same nodes are kept apart by hook locks, but names cannot be
+     * shared between them, so this cannot be used with session mode.
+     *
+     * @param threads the number of loading threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set the number of nodes and relationships held in memory for each
+     * Geoff subgraph before the rest is spilled to disk, or zero never to
+     * spill. Name maps are then also kept off-heap.
+     *
+     * @see GeoffReader#setSpillThreshold(int, File)
+     */
+    public void setSpillThreshold(int spillThreshold) {
+        if (spillThreshold < 0) {
+            throw new IllegalArgumentException("Spill threshold must not be negative");
+        }
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * @see NeoLoader#setOffHeap(boolean)
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @see NeoLoader#setDiff(boolean)
+     */
+    public void setDiff(boolean diff) {
+        this.diff = diff;
+    }
+
+    /**
+     * @see NeoLoader#setSession(boolean)
+     */
+    public void setSession(boolean session) {
+        this.session = session;
+    }
+
+    /**
+     * Choose whether hooks are resolved through the hook registry of the
+     * database, which caches the node found for each hook.
+     *
+     * @see HookRegistry
+     */
+    public void setRegistry(boolean registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Choose whether missing indexes for hooks are created before each
+     * transaction.
+     *
+     * @see HookAdvisor#prepare(Subgraph, boolean)
+     */
+    public void setCreateIndexes(boolean createIndexes) {
+        this.createIndexes = createIndexes;
+    }
+
+    /**
+     * Set the longest time to wait for the indexes created before each
+     * transaction to come online. Should they not, the transaction fails.
+     *
+     * @see HookAdvisor#prepare(Subgraph, boolean, long, TimeUnit)
+     */
+    public void setIndexTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Index timeout must not be negative");
+        }
+        this.indexTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Choose whether subgraphs already loaded are skipped, reporting the
+     * result of the first load instead.
+     *
+     * @see ReplayLog
+     */
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * Choose whether the bytes allocated for each subgraph are measured.
+     * Timings are always recorded.
+     */
+    public void setProfile(boolean profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Choose whether a subgraph that cannot be read or loaded is reported
+     * as failed rather than stopping the load. A batch containing a
+     * subgraph that fails to load is loaded again one subgraph at a time,
+     * so that only that subgraph is left out. Reading can only carry on
+     * past a malformed Geoff subgraph, by skipping to the next boundary;
+     * for other formats, a read error still stops the load.
+     *
+     * The text of each Geoff subgraph is kept in memory until it has been
+     * loaded, so that any failure can be given in full.
+     *
+     * @see Result#isFailed()
+     */
+    public void setContinueOnError(boolean continueOnError) {
+        this.continueOnError = continueOnError;
+    }
+
+    /**
+     * Set a stream to which each failed subgraph is written, before it is
+     * reported, in the form given by {@link Result#toDeadLetter()}.
+     *
+     * @param deadLetters a writer for dead letters, or null for none
+     */
+    public void setDeadLetters(Writer deadLetters) {
+        this.deadLetters = deadLetters;
+    }
+
+    /**
+     * Load into a sink other than the database, such as to measure reading
+     * and planning apart from storage. The same sink is used by every
+     * loading thread, so must be safe to share if there is more than one.
+     * Replay, the hook registry and index creation all belong to the
+     * database, so cannot be used with another sink; nor are lookups
+     * reported to the hook advisor.
+     *
+     * @param sink the sink to load into, or null for the database
+     * @see NullSink
+     * @see CountingSink
+     */
+    public void setSink(GraphSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Load a Geoff document.
+     */
+    public void loadGeoff(Reader reader, Callback callback) throws IOException {
+        GeoffReader geoffReader = new GeoffReader(reader);
+        geoffReader.setSpillThreshold(this.spillThreshold, null);
+        this.load(geoffReader, callback);
+    }
+
+    /**
+     * Load a Geoff document from a UTF-8 encoded file.
+     */
+    public void loadGeoff(Path path, Callback callback) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            this.loadGeoff(reader, callback);
+        }
+    }
+
+    /**
+     * Load a binary Geoff document.
+     */
+    public void loadGeoffBinary(InputStream in, Callback callback) throws IOException {
+        this.load(new GeoffDecoder(in), callback);
+    }
+
+    /**
+     * Load a binary Geoff document from a file.
+     */
+    public void loadGeoffBinary(Path path, Callback callback) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            this.loadGeoffBinary(in, callback);
+        }
+    }
+
+    /**
+     * Load every subgraph from a reader. Should a transaction fail, no
+     * further subgraphs are loaded and the failure is thrown once every
+     * earlier subgraph has been reported.
+     *
+     * @param subgraphReader the source of subgraphs to load
+     * @param callback the receiver of each result
+     */
+    public void load(SubgraphReader subgraphReader, Callback callback) throws IOException {
+        if (this.session && this.threads > 1) {
+            throw new IllegalStateException("Session mode cannot be used with more than one thread");
+        }
+        if (this.sink != null && (this.idempotent || this.registry || this.createIndexes)) {
+            throw new IllegalStateException("Replay, registry and index options cannot be used with a sink");
+        }
+        if (this.idempotent && subgraphReader instanceof GeoffReader) {
+            ((GeoffReader) subgraphReader).setHashing(true);
+        }
+        if (this.continueOnError && subgraphReader instanceof GeoffReader) {
+            ((GeoffReader) subgraphReader).setCapturing(true);
+        }
+        HookRegistry hookRegistry = this.registry ? HookRegistry.forDatabase(database) : null;
+        ReplayLog replayLog = null;
+        if (this.idempotent) {
+            replayLog = new ReplayLog(database);
+            replayLog.ensureIndex();
+        }
+        // loads into another sink must not hold up those into the database
+        HookLocks hookLocks = this.sink == null ? HookLocks.getInstance() : new HookLocks(1024, 60, TimeUnit.SECONDS);
+        if (this.threads == 1) {
+            Worker worker = new Worker(hookRegistry, replayLog, hookLocks);
+            int number = 0;
+            while (subgraphReader.hasMore()) {
+                List<Result> batch = this.readBatch(subgraphReader, number);
+                number += batch.size();
+                worker.load(batch);
+                this.report(batch, callback);
+            }
+        } else {
+            this.loadInParallel(subgraphReader, callback, hookRegistry, replayLog, hookLocks);
+        }
+    }
+
+    private void loadInParallel(SubgraphReader subgraphReader, Callback callback,
+                                HookRegistry hookRegistry, ReplayLog replayLog,
+                                HookLocks hookLocks) throws IOException {
+        final LinkedBlockingQueue<Worker> workers = new LinkedBlockingQueue<>();
+        for (int i = 0; i < this.threads; i++) {
+            workers.add(new Worker(hookRegistry, replayLog, hookLocks));
+        }
+        final AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        ArrayDeque<Future<List<Result>>> pending = new ArrayDeque<>();
+        try {
+            int number = 0;
+            while (subgraphReader.hasMore()) {
+                final List<Result> batch = this.readBatch(subgraphReader, number);
+                number += batch.size();
+                pending.add(executor.submit(new Callable<List<Result>>() {
+
+                    @Override
+                    public List<Result> call() {
+                        if (failed.get()) {
+                            closeAll(batch);
+                            return batch;
+                        }
+                        Worker worker = workers.remove();
+                        try {
+                            worker.load(batch);
+                            return batch;
+                        } catch (RuntimeException | Error e) {
+                            failed.set(true);
+                            throw e;
+                        } finally {
+                            workers.add(worker);
+                        }
+                    }
+
+                }));
+                // bound the subgraphs held in memory, reporting as we go
+                if (pending.size() >= 2 * this.threads) {
+                    this.report(pending.remove(), callback);
+                }
+            }
+            while (!pending.isEmpty()) {
+                this.report(pending.remove(), callback);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            failed.set(true);
+            throw e;
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void report(Future<List<Result>> future, Callback callback) throws IOException {
+        List<Result> batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+        this.report(batch, callback);
+    }
+
+    private void report(List<Result> batch, Callback callback) throws IOException {
+        for (Result result : batch) {
+            if (result.isFailed() && this.deadLetters != null) {
+                this.deadLetters.write(result.toDeadLetter());
+                this.deadLetters.flush();
+            }
+            callback.subgraphLoaded(result);
+        }
+    }
+
+    private List<Result> readBatch(SubgraphReader subgraphReader, int number) throws IOException {
+        ArrayList<Result> batch = new ArrayList<>(this.batchSize);
+        try {
+            while (batch.size() < this.batchSize && subgraphReader.hasMore()) {
+                long allocated = this.profile ? allocatedBytes() : 0;
+                long t0 = System.nanoTime();
+                Subgraph subgraph;
+                try {
+                    subgraph = subgraphReader.readSubgraph();
+                } catch (IOException | RuntimeException e) {
+                    if (!this.continueOnError || !(subgraphReader instanceof GeoffReader)) {
+                        throw e;
+                    }
+                    // resynchronise at the next boundary and carry on
+                    GeoffReader geoffReader = (GeoffReader) subgraphReader;
+                    geoffReader.skipToBoundary();
+                    Result result = new Result(number + batch.size(), null, System.nanoTime() - t0, 0);
+                    result.text = geoffReader.getSubgraphText();
+                    result.fail(e);
+                    batch.add(result);
+                    continue;
+                }
+                long parseNanos = System.nanoTime() - t0;
+                long parseBytes = this.profile ? allocatedBytes() - allocated : 0;
+                Result result = new Result(number + batch.size(), subgraph, parseNanos, parseBytes);
+                if (this.continueOnError && subgraphReader instanceof GeoffReader) {
+                    result.text = ((GeoffReader) subgraphReader).getSubgraphText();
+                }
+                batch.add(result);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll(batch);
+            throw e;
+        }
+        return batch;
+    }
+
+    private static void closeAll(List<Result> batch) {
+        for (Result result : batch) {
+            // release any spill files
+            if (result.subgraph instanceof Closeable) {
+                try {
+                    ((Closeable) result.subgraph).close();
+                } catch (IOException e) {
+                    // nothing more can be done with the subgraph
+                }
+            }
+            result.subgraph = null;
+            if (!result.isFailed()) {
+                result.text = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread so far,
+     *         or zero if this is not supported
+     */
+    private static long allocatedBytes() {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Loads batches on one thread at a time, with a loader of its own.
+     */
+    private class Worker {
+
+        final private GraphSink sink;
+        final private NeoLoader neoLoader;
+        final private HookAdvisor hookAdvisor;
+        final private ReplayLog replayLog;
+        final private ArrayList<ReentrantLock> replayLocks = new ArrayList<>();
+
+        Worker(HookRegistry hookRegistry, ReplayLog replayLog, HookLocks hookLocks) {
+            // a database sink keeps nodes between calls, so is not shared
+            GraphSink shared = StreamLoader.this.sink;
+            this.sink = shared == null ? new NeoSink(database) : shared;
+            this.neoLoader = new NeoLoader(this.sink);
+            this.neoLoader.setOffHeap(offHeap || spillThreshold > 0);
+            this.neoLoader.setDiff(diff);
+            this.neoLoader.setSession(session);
+            this.hookAdvisor = HookAdvisor.forDatabase(database);
+            if (shared == null) {
+                this.neoLoader.setHookAdvisor(this.hookAdvisor);
+            }
+            this.neoLoader.setHookLocks(hookLocks);
+            this.neoLoader.setUseConstraints(true);
+            this.neoLoader.setHookRegistry(hookRegistry);
+            this.replayLog = replayLog;
+        }
+
+        void load(List<Result> batch) {
+            long allocated = profile ? allocatedBytes() : 0;
+            try {
+                List<Result> unloaded = unloaded(batch);
+                if (this.replayLog != null) {
+                    // replays are answered without a write transaction
+                    for (Result result : unloaded) {
+                        result.hash = ReplayLog.hash(result.subgraph);
+                    }
+                    this.findReplays(unloaded);
+                    unloaded = unloaded(unloaded);
+                }
+                if (!unloaded.isEmpty()) {
+                    this.loadTolerantly(unloaded);
+                }
+            } finally {
+                closeAll(batch);
+            }
+            if (profile) {
+                long share = (allocatedBytes() - allocated) / batch.size();
+                for (Result result : batch) {
+                    result.allocatedBytes += share;
+                }
+            }
+        }
+
+        private void loadTolerantly(List<Result> batch) {
+            try {
+                this.loadAll(batch);
+            } catch (RuntimeException e) {
+                if (!continueOnError) {
+                    throw e;
+                }
+                if (batch.size() == 1) {
+                    this.fail(batch.get(0), e);
+                    return;
+                }
+                // everything was rolled back, so find the subgraphs to blame
+                for (Result result : batch) {
+                    result.reset();
+                    try {
+                        this.loadAll(Collections.singletonList(result));
+                    } catch (RuntimeException e1) {
+                        this.fail(result, e1);
+                    }
+                }
+            }
+        }
+
+        private void fail(Result result, RuntimeException e) {
+            if (result.text == null) {
+                // render what was read, while the subgraph is still open
+                try {
+                    result.text = result.subgraph.toString();
+                } catch (RuntimeException e1) {
+                    // the error may lie in the subgraph itself
+                }
+            }
+            result.fail(e);
+        }
+
+        private void loadAll(List<Result> batch) {
+            if (createIndexes) {
+                // indexes cannot be created within the load transaction
+                for (Result result : batch) {
+                    this.hookAdvisor.prepare(result.subgraph, true, indexTimeoutNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            long t0;
+            try (Transaction tx = this.sink.beginTx()) {
+                if (this.replayLog != null) {
+                    // check again, now that no other load of these subgraphs can be under way
+                    HashSet<String> hashes = new HashSet<>();
+                    for (Result result : batch) {
+                        hashes.add(result.hash);
+                    }
+                    this.replayLog.lock(hashes, this.replayLocks);
+                    this.findReplays(batch);
+                    batch = unloaded(batch);
+                }
+                if (batch.size() > 1) {
+                    ArrayList<Subgraph> subgraphs = new ArrayList<>(batch.size());
+                    for (Result result : batch) {
+                        subgraphs.add(result.subgraph);
+                    }
+                    this.neoLoader.lockHooks(subgraphs);
+                }
+                HashMap<String, Result> recorded = new HashMap<>();
+                for (Result result : batch) {
+                    if (this.replayLog != null && recorded.containsKey(result.hash)) {
+                        // repeated within the batch
+                        result.replayed = true;
+                        result.json = recorded.get(result.hash).toJSON();
+                        continue;
+                    }
+                    // the loader reuses its map for the next subgraph
+                    result.nodeIds = this.neoLoader.load(result.subgraph).copy();
+                    result.createdCount = this.neoLoader.getCreatedCount();
+                    result.updatedCount = this.neoLoader.getUpdatedCount();
+                    result.unchangedCount = this.neoLoader.getUnchangedCount();
+                    result.hookNanos = this.neoLoader.getHookNanos();
+                    result.nodeNanos = this.neoLoader.getNodeNanos();
+                    result.relationshipNanos = this.neoLoader.getRelationshipNanos();
+                    if (this.replayLog != null) {
+                        this.replayLog.record(result.hash, result.toJSON());
+                        recorded.put(result.hash, result);
+                    }
+                }
+                t0 = System.nanoTime();
+                tx.success();
+            } catch (RuntimeException | Error e) {
+                // rolled back, so names bound in a session must be bound afresh
+                this.neoLoader.endTransaction(false);
+                throw e;
+            } finally {
+                // the transaction is now closed, so hooks may be resolved by others
+                this.neoLoader.releaseHookLocks();
+                HookLocks.release(this.replayLocks);
+            }
+            this.neoLoader.endTransaction(true);
+            long commitNanos = System.nanoTime() - t0;
+            for (Result result : batch) {
+                if (!result.replayed) {
+                    result.commitNanos = commitNanos;
+                }
+            }
+        }
+
+        private void findReplays(List<Result> batch) {
+            try (Transaction tx = database.beginTx()) {
+                for (Result result : batch) {
+                    if (!result.replayed) {
+                        result.json = this.replayLog.find(result.hash);
+                        result.replayed = result.json != null;
+                    }
+                }
+                tx.success();
+            }
+        }
+
+    }
+
+    private static List<Result> unloaded(List<Result> batch) {
+        ArrayList<Result> unloaded = new ArrayList<>(batch.size());
+        for (Result result : batch) {
+            if (!result.replayed && !result.isFailed()) {
+                unloaded.add(result);
+            }
+        }
+        return unloaded;
+    }
+
+}
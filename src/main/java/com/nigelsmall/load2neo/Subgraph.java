@@ -25,6 +25,7 @@ public class Subgraph {
     private ArrayList<String> comments;
     private HashMap<String, AbstractNode> nodes;
     private ArrayList<AbstractRelationship> relationships;
+    private String contentHash;
 
     public Subgraph() {
         super();
@@ -49,16 +50,28 @@ public class Subgraph {
         return this.nodes;
     }
 
-    public List<AbstractRelationship> getRelationships() {
+    public Collection<AbstractRelationship> getRelationships() {
         return this.relationships;
     }
 
+    /**
+     * @return the content hash given to this subgraph by its reader, or
+     *         null if it has none
+     */
+    public String getContentHash() {
+        return this.contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     public String toString() {
         ArrayList<String> s = new ArrayList<>();
-        for (AbstractNode node : this.nodes.values()) {
+        for (AbstractNode node : this.getNodes().values()) {
             s.add(node.toString());
         }
-        for (AbstractRelationship rel : this.relationships) {
+        for (AbstractRelationship rel : this.getRelationships()) {
             s.add(rel.toString());
         }
         return StringUtils.join(s, "\n");
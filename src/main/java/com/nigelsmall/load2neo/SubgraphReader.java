@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import java.io.IOException;
+
+/**
+ * A source of subgraphs, read one at a time from a stream of data in some
+ * format. Each subgraph is loaded in its own transaction.
+ */
+public interface SubgraphReader {
+
+    public boolean hasMore() throws IOException;
+
+    public Subgraph readSubgraph() throws IOException;
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A Geoff subgraph with parameters in place of some property values, parsed
+ * once and then filled in with any number of sets of values:
+ *
+ * <pre>
+ * :Person:email:=>(a {"email":$email,"name":$name})
+ * (a)-[:LIVES_IN]->(b:City {"name":$city})
+ * </pre>
+ *
+ * Parameters may stand for any property value, including that of a hook
+ * key, but not for names, labels or types. Each instance is a new subgraph
+ * of new nodes and relationships, with anonymous nodes given fresh names.
+ */
+public class Template {
+
+    /**
+     * A placeholder for a property value, to be filled in for each instance.
+     */
+    public static class Parameter {
+
+        final private String name;
+
+        public Parameter(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String toString() {
+            return "$" + this.name;
+        }
+
+    }
+
+    /**
+     * The properties of a node or relationship that are given by
+     * parameters, along with the position of each parameter.
+     */
+    private static class Bindings {
+
+        final private String[] keys;
+        final private int[] positions;
+
+        Bindings(Map<String, Object> properties, Map<String, Integer> positions) {
+            ArrayList<String> keys = new ArrayList<>();
+            if (properties != null) {
+                for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                    if (entry.getValue() instanceof Parameter) {
+                        keys.add(entry.getKey());
+                    }
+                }
+            }
+            this.keys = keys.toArray(new String[keys.size()]);
+            this.positions = new int[this.keys.length];
+            for (int i = 0; i < this.keys.length; i++) {
+                this.positions[i] = positions.get(((Parameter) properties.get(this.keys[i])).getName());
+            }
+        }
+
+        void bind(Map<String, Object> properties, Object[] values) {
+            for (int i = 0; i < this.keys.length; i++) {
+                properties.put(this.keys[i], values[this.positions[i]]);
+            }
+        }
+
+    }
+
+    final private String source;
+    final private List<String> parameters;
+    final private AbstractNode[] nodes;
+    final private Bindings[] nodeBindings;
+    final private AbstractRelationship[] relationships;
+    final private Bindings[] relationshipBindings;
+
+    private Template(String source, Subgraph skeleton, List<Parameter> parameters) {
+        this.source = source;
+        HashMap<String, Integer> positions = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>(parameters.size());
+        for (Parameter parameter : parameters) {
+            positions.put(parameter.getName(), names.size());
+            names.add(parameter.getName());
+        }
+        this.parameters = Collections.unmodifiableList(names);
+        Collection<AbstractNode> nodes = skeleton.getNodes().values();
+        this.nodes = nodes.toArray(new AbstractNode[nodes.size()]);
+        this.nodeBindings = new Bindings[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            this.nodeBindings[i] = new Bindings(this.nodes[i].getProperties(), positions);
+        }
+        Collection<AbstractRelationship> relationships = skeleton.getRelationships();
+        this.relationships = relationships.toArray(new AbstractRelationship[relationships.size()]);
+        this.relationshipBindings = new Bindings[this.relationships.length];
+        for (int i = 0; i < this.relationships.length; i++) {
+            this.relationshipBindings[i] = new Bindings(this.relationships[i].getProperties(), positions);
+        }
+    }
+
+    /**
+     * Parse a template from a single Geoff subgraph.
+     *
+     * @param source Geoff text with parameters such as <code>$name</code>
+     * @return the template
+     * @throws IOException if the text is not a single valid subgraph
+     */
+    public static Template parse(String source) throws IOException {
+        GeoffReader reader = new GeoffReader(source);
+        reader.setParameterised(true);
+        if (!reader.hasMore()) {
+            throw new IOException("A template must contain a subgraph");
+        }
+        Subgraph skeleton = reader.readSubgraph();
+        List<Parameter> parameters = reader.getParameters();
+        if (reader.hasMore()) {
+            throw new IOException("A template must contain only one subgraph");
+        }
+        return new Template(source, skeleton, parameters);
+    }
+
+    /**
+     * @return the Geoff text from which the template was parsed
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * @return the names of the parameters, in order of first use
+     */
+    public List<String> getParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * Fill in the template with one set of values.
+     *
+     * @param values a value for each parameter, in the order given by
+     *               {@link #getParameters()}
+     * @return a new subgraph
+     */
+    public Subgraph instantiate(Object[] values) {
+        if (values.length != this.parameters.size()) {
+            throw new IllegalArgumentException("Expected " + this.parameters.size() +
+                    " values, found " + values.length);
+        }
+        Subgraph subgraph = new Subgraph();
+        HashMap<String, AbstractNode> instances = new HashMap<>(this.nodes.length * 2);
+        for (int i = 0; i < this.nodes.length; i++) {
+            AbstractNode node = this.nodes[i];
+            // an anonymous node is given a fresh name in each instance
+            AbstractNode instance = new AbstractNode(node.isNamed() ? node.getName() : null,
+                    node.getLabels(), node.getProperties());
+            this.nodeBindings[i].bind(instance.getProperties(), values);
+            if (node.getHookLabel() != null) {
+                instance.setHook(node.getHookLabel(), node.getHookKeys());
+            }
+            if (node.getNodeId() != null) {
+                instance.setNodeId(node.getNodeId());
+            }
+            instances.put(node.getName(), instance);
+            subgraph.mergeNode(instance);
+        }
+        for (int i = 0; i < this.relationships.length; i++) {
+            AbstractRelationship relationship = this.relationships[i];
+            AbstractRelationship instance = new AbstractRelationship(
+                    instances.get(relationship.getStartNode().getName()), relationship.getType(),
+                    relationship.getProperties(), instances.get(relationship.getEndNode().getName()));
+            this.relationshipBindings[i].bind(instance.getProperties(), values);
+            subgraph.addRelationship(instance);
+        }
+        return subgraph;
+    }
+
+    /**
+     * Fill in the template with one set of named values.
+     *
+     * @param values a value for each parameter, by name
+     * @return a new subgraph
+     */
+    public Subgraph instantiate(Map<String, Object> values) {
+        Object[] array = new Object[this.parameters.size()];
+        for (int i = 0; i < array.length; i++) {
+            String name = this.parameters.get(i);
+            if (!values.containsKey(name)) {
+                throw new IllegalArgumentException("No value for parameter $" + name);
+            }
+            array[i] = values.get(name);
+        }
+        return this.instantiate(array);
+    }
+
+}
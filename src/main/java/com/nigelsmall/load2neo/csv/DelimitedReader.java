@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Splits delimited text into rows of fields. Fields are cut straight from
+ * a block buffer wherever possible, only being copied character by
+ * character when quoted or split across blocks. Quoted fields follow
+ * RFC 4180: a quote within a quoted field is written twice, and nothing
+ * but a delimiter or the end of the row may follow the closing quote.
+ * Rows end with CR LF, or with a lone LF or CR. Blank lines are skipped.
+ */
+public class DelimitedReader {
+
+    final public static char NO_QUOTE = '\0';
+
+    final private Reader reader;
+    final private char delimiter;
+    final private char quote;
+    final private char[] buffer;
+    final private StringBuilder field;
+    final private ArrayList<String> fields;
+
+    private int position;
+    private int limit;
+    private long lineNumber;
+
+    public DelimitedReader(Reader reader, char delimiter, char quote) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.buffer = new char[65536];
+        this.field = new StringBuilder(64);
+        this.fields = new ArrayList<>();
+        this.lineNumber = 0;
+    }
+
+    public static DelimitedReader csv(Reader reader) {
+        return new DelimitedReader(reader, ',', '"');
+    }
+
+    public static DelimitedReader tsv(Reader reader) {
+        return new DelimitedReader(reader, '\t', NO_QUOTE);
+    }
+
+    /**
+     * @return the line number on which the last row read ended
+     */
+    public long getLineNumber() {
+        return this.lineNumber;
+    }
+
+    private boolean fill() throws IOException {
+        this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+        this.position = 0;
+        return this.limit > 0;
+    }
+
+    /**
+     * @return true if the next character is the one given, which is left
+     *         unread
+     */
+    private boolean nextIs(char ch) throws IOException {
+        return (this.position < this.limit || this.fill()) && this.buffer[this.position] == ch;
+    }
+
+    /**
+     * Read the next row of fields.
+     *
+     * @return the fields of the next row, or null if there are no more rows
+     * @throws IOException if the data cannot be read, or a quoted field is
+     *                     not closed or is followed by anything other than
+     *                     a delimiter or the end of the row
+     */
+    public String[] readRow() throws IOException {
+        this.fields.clear();
+        boolean blank = true;
+        while (true) {
+            if (this.position >= this.limit && !this.fill()) {
+                if (blank) {
+                    return null;
+                }
+                return this.fields.toArray(new String[this.fields.size()]);
+            }
+            char ch = this.buffer[this.position];
+            if (ch == '\n' || ch == '\r') {
+                this.position += 1;
+                if (ch == '\r' && this.nextIs('\n')) {
+                    this.position += 1;
+                }
+                this.lineNumber += 1;
+                if (!blank) {
+                    return this.fields.toArray(new String[this.fields.size()]);
+                }
+                continue;
+            }
+            blank = false;
+            if (this.quote != NO_QUOTE && ch == this.quote) {
+                this.position += 1;
+                this.readQuotedField();
+                if (this.position < this.limit || this.fill()) {
+                    char next = this.buffer[this.position];
+                    if (next != this.delimiter && next != '\n' && next != '\r') {
+                        throw new IOException("Unexpected text after quoted field on line " + (this.lineNumber + 1));
+                    }
+                }
+            } else {
+                this.readPlainField();
+            }
+            // consume the delimiter, if any, after the field
+            if (this.position >= this.limit && !this.fill()) {
+                continue;
+            }
+            if (this.buffer[this.position] == this.delimiter) {
+                this.position += 1;
+                if ((this.position >= this.limit && !this.fill()) ||
+                        this.buffer[this.position] == '\n' || this.buffer[this.position] == '\r') {
+                    // a trailing delimiter ends the row with an empty field
+                    this.fields.add("");
+                }
+            }
+        }
+    }
+
+    private void readPlainField() throws IOException {
+        int start = this.position;
+        this.field.setLength(0);
+        while (true) {
+            if (this.position >= this.limit) {
+                this.field.append(this.buffer, start, this.position - start);
+                if (!this.fill()) {
+                    this.fields.add(this.field.toString());
+                    return;
+                }
+                start = 0;
+            }
+            char ch = this.buffer[this.position];
+            if (ch == this.delimiter || ch == '\n' || ch == '\r') {
+                if (this.field.length() == 0) {
+                    this.fields.add(new String(this.buffer, start, this.position - start));
+                } else {
+                    this.field.append(this.buffer, start, this.position - start);
+                    this.fields.add(this.field.toString());
+                }
+                return;
+            }
+            this.position += 1;
+        }
+    }
+
+    private void readQuotedField() throws IOException {
+        this.field.setLength(0);
+        while (true) {
+            if (this.position >= this.limit && !this.fill()) {
+                throw new IOException("Unclosed quoted field on line " + (this.lineNumber + 1));
+            }
+            char ch = this.buffer[this.position];
+            this.position += 1;
+            if (ch == this.quote) {
+                if (this.position >= this.limit && !this.fill()) {
+                    break;
+                }
+                if (this.buffer[this.position] == this.quote) {
+                    this.field.append(ch);
+                    this.position += 1;
+                } else {
+                    break;
+                }
+            } else {
+                this.field.append(ch);
+                if (ch == '\n' || (ch == '\r' && !this.nextIs('\n'))) {
+                    this.lineNumber += 1;
+                }
+            }
+        }
+        this.fields.add(this.field.toString());
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.csv;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.SubgraphReader;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reads rows of delimited text as nodes, batching a number of rows into
+ * each subgraph. Each row becomes a node with a given label, hooked on a
+ * given key if one is supplied. Columns are described by a header row or
+ * by an equivalent mapping given separately, one specification per column:
+ *
+ * <pre>
+ * name                    a string property
+ * age:int                 a typed property (string, boolean, int, long, float or double)
+ * tags:string[]           an array property, with items separated by semicolons
+ * employer:WORKS_FOR->Company.name       a relationship to the Company node hooked on name
+ * manager:MANAGES&lt;-Person.id:long        a relationship from the Person node hooked on id
+ * -                       a column to ignore
+ * </pre>
+ *
+ * Nodes referenced by relationship columns are hooked, and so are created
+ * if they cannot be found.
+ */
+public class DelimitedSubgraphReader implements SubgraphReader {
+
+    final private static String ARRAY_SEPARATOR = ";";
+
+    public static class Column {
+
+        final private String key;
+        final private String type;
+        final private boolean array;
+        final private String relationshipType;
+        final private boolean incoming;
+        final private String otherLabel;
+        final private String otherKey;
+
+        private Column(String key, String type, String relationshipType, boolean incoming,
+                       String otherLabel, String otherKey) {
+            this.key = key;
+            this.array = type.endsWith("[]");
+            this.type = this.array ? type.substring(0, type.length() - 2) : type;
+            this.relationshipType = relationshipType;
+            this.incoming = incoming;
+            this.otherLabel = otherLabel;
+            this.otherKey = otherKey;
+        }
+
+        /**
+         * Parse a column specification.
+         *
+         * @param spec the specification
+         * @return a column, or null if the column is to be ignored
+         * @throws IOException if the specification is malformed
+         */
+        public static Column parse(String spec) throws IOException {
+            spec = spec.trim();
+            if (spec.isEmpty() || "-".equals(spec)) {
+                return null;
+            }
+            int colon = spec.indexOf(':');
+            if (colon < 0) {
+                return new Column(spec, "string", null, false, null, null);
+            }
+            String key = spec.substring(0, colon);
+            String rest = spec.substring(colon + 1);
+            int arrow = rest.indexOf("->");
+            boolean incoming = false;
+            if (arrow < 0) {
+                arrow = rest.indexOf("<-");
+                incoming = true;
+            }
+            if (arrow < 0) {
+                checkType(rest, spec);
+                return new Column(key, rest, null, false, null, null);
+            }
+            String relationshipType = rest.substring(0, arrow);
+            String other = rest.substring(arrow + 2);
+            String type = "string";
+            int typeColon = other.indexOf(':');
+            if (typeColon >= 0) {
+                type = other.substring(typeColon + 1);
+                other = other.substring(0, typeColon);
+                checkType(type, spec);
+            }
+            int dot = other.indexOf('.');
+            if (relationshipType.isEmpty() || dot <= 0 || dot == other.length() - 1 || type.endsWith("[]")) {
+                throw new IOException("Malformed relationship column \"" + spec + "\"");
+            }
+            return new Column(key, type, relationshipType, incoming,
+                    other.substring(0, dot), other.substring(dot + 1));
+        }
+
+        private static void checkType(String type, String spec) throws IOException {
+            String baseType = type.endsWith("[]") ? type.substring(0, type.length() - 2) : type;
+            switch (baseType) {
+                case "string":
+                case "boolean":
+                case "int":
+                case "integer":
+                case "long":
+                case "float":
+                case "double":
+                    return;
+                default:
+                    throw new IOException("Unknown type in column \"" + spec + "\"");
+            }
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public boolean isArray() {
+            return this.array;
+        }
+
+        public boolean isRelationship() {
+            return this.relationshipType != null;
+        }
+
+        Object parseField(String text) {
+            if (!this.array) {
+                return parseValue(this.type, text);
+            }
+            String[] items = text.split(ARRAY_SEPARATOR, -1);
+            switch (this.type) {
+                case "string":
+                    return items;
+                case "boolean": {
+                    Boolean[] values = new Boolean[items.length];
+                    for (int i = 0; i < items.length; i++) {
+                        values[i] = (Boolean) parseValue(this.type, items[i]);
+                    }
+                    return values;
+                }
+                case "int":
+                case "integer": {
+                    Integer[] values = new Integer[items.length];
+                    for (int i = 0; i < items.length; i++) {
+                        values[i] = (Integer) parseValue(this.type, items[i]);
+                    }
+                    return values;
+                }
+                case "long": {
+                    Long[] values = new Long[items.length];
+                    for (int i = 0; i < items.length; i++) {
+                        values[i] = (Long) parseValue(this.type, items[i]);
+                    }
+                    return values;
+                }
+                case "float": {
+                    Float[] values = new Float[items.length];
+                    for (int i = 0; i < items.length; i++) {
+                        values[i] = (Float) parseValue(this.type, items[i]);
+                    }
+                    return values;
+                }
+                default: {
+                    Double[] values = new Double[items.length];
+                    for (int i = 0; i < items.length; i++) {
+                        values[i] = (Double) parseValue(this.type, items[i]);
+                    }
+                    return values;
+                }
+            }
+        }
+
+        private static Object parseValue(String type, String text) {
+            switch (type) {
+                case "boolean":
+                    return Boolean.parseBoolean(text.trim());
+                case "int":
+                case "integer":
+                    return Integer.parseInt(text.trim());
+                case "long":
+                    return Long.parseLong(text.trim());
+                case "float":
+                    return Float.parseFloat(text.trim());
+                case "double":
+                    return Double.parseDouble(text.trim());
+                default:
+                    return text;
+            }
+        }
+
+    }
+
+    final private DelimitedReader reader;
+    final private String label;
+    final private String key;
+    final private int batchSize;
+
+    final private Column[] columns;
+    private String[] row;
+
+    /**
+     * @param reader the source of rows
+     * @param label the label given to the node of each row
+     * @param key the property key on which row nodes are hooked, or null to create every node anew
+     * @param columns column specifications, or null to take these from the first row
+     * @param batchSize the number of rows to load in each subgraph
+     */
+    public DelimitedSubgraphReader(DelimitedReader reader, String label, String key,
+                                   List<String> columns, int batchSize) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.reader = reader;
+        this.label = label;
+        this.key = key;
+        this.batchSize = batchSize;
+        if (columns == null) {
+            String[] header = this.reader.readRow();
+            this.columns = parseColumns(header == null ? Collections.<String>emptyList() : Arrays.asList(header));
+        } else {
+            this.columns = parseColumns(columns);
+        }
+    }
+
+    private static Column[] parseColumns(List<String> specs) throws IOException {
+        Column[] columns = new Column[specs.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Column.parse(specs.get(i));
+        }
+        return columns;
+    }
+
+    @Override
+    public boolean hasMore() throws IOException {
+        if (this.row == null) {
+            this.row = this.reader.readRow();
+        }
+        return this.row != null;
+    }
+
+    @Override
+    public Subgraph readSubgraph() throws IOException {
+        Subgraph subgraph = new Subgraph();
+        // hooked nodes referred to more than once in a batch must be merged
+        HashMap<List<Object>, AbstractNode> hooks = new HashMap<>();
+        Set<String> labels = Collections.singleton(this.label);
+        int count = 0;
+        while (count < this.batchSize && this.hasMore()) {
+            String[] fields = this.row;
+            this.row = null;
+            HashMap<String, Object> properties = new HashMap<>();
+            ArrayList<Column> relationships = new ArrayList<>();
+            ArrayList<Object> others = new ArrayList<>();
+            for (int i = 0; i < fields.length && i < this.columns.length; i++) {
+                Column column = this.columns[i];
+                if (column == null || fields[i].isEmpty()) {
+                    continue;
+                }
+                Object value;
+                try {
+                    value = column.parseField(fields[i]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Unable to parse " + column.type + " \"" + fields[i] +
+                            "\" on line " + this.reader.getLineNumber());
+                }
+                if (column.isRelationship()) {
+                    relationships.add(column);
+                    others.add(value);
+                } else {
+                    properties.put(column.key, value);
+                }
+            }
+            AbstractNode node;
+            if (this.key == null) {
+                node = new AbstractNode(null, labels, properties);
+            } else {
+                Object hookValue = properties.get(this.key);
+                if (hookValue == null) {
+                    throw new IOException("No value for hook key \"" + this.key + "\" on line " +
+                            this.reader.getLineNumber());
+                }
+                node = this.hook(hooks, this.label, this.key, hookValue);
+                node.mergeLabels(labels);
+                node.mergeProperties(properties);
+            }
+            subgraph.mergeNode(node);
+            for (int i = 0; i < relationships.size(); i++) {
+                Column column = relationships.get(i);
+                AbstractNode other = this.hook(hooks, column.otherLabel, column.otherKey, others.get(i));
+                if (column.incoming) {
+                    subgraph.addRelationship(new AbstractRelationship(other, column.relationshipType, null, node));
+                } else {
+                    subgraph.addRelationship(new AbstractRelationship(node, column.relationshipType, null, other));
+                }
+            }
+            count += 1;
+        }
+        return subgraph;
+    }
+
+    private AbstractNode hook(Map<List<Object>, AbstractNode> hooks, String label, String key, Object value) {
+        List<Object> hookKey = Arrays.asList(label, key, value);
+        AbstractNode node = hooks.get(hookKey);
+        if (node == null) {
+            node = new AbstractNode(null, null, Collections.singletonMap(key, value));
+            node.setHook(label, key);
+            hooks.put(hookKey, node);
+        }
+        return node;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.csv;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reads rows of delimited text as relationships between existing nodes.
+ * The first seven columns of each row are fixed:
+ *
+ * <pre>
+ * start label, start key, start value, type, end label, end key, end value
+ * </pre>
+ *
+ * Columns are described by a header row or by an equivalent mapping given
+ * separately, in the same form as for {@link DelimitedSubgraphReader}. The
+ * specifications of the two value columns give only their types, such as
+ * <code>start:long</code>, and any further columns are relationship
+ * properties.
+ */
+public class EdgeListReader {
+
+    final private static int FIXED_COLUMNS = 7;
+
+    /**
+     * A relationship read from one row.
+     */
+    public static class Edge {
+
+        final private long lineNumber;
+        final private AbstractRelationship relationship;
+
+        Edge(long lineNumber, AbstractRelationship relationship) {
+            this.lineNumber = lineNumber;
+            this.relationship = relationship;
+        }
+
+        public long getLineNumber() {
+            return this.lineNumber;
+        }
+
+        /**
+         * @return the relationship, between nodes hooked on the label, key
+         *         and value given for each end
+         */
+        public AbstractRelationship getRelationship() {
+            return this.relationship;
+        }
+
+    }
+
+    final private DelimitedReader reader;
+    final private DelimitedSubgraphReader.Column startValue;
+    final private DelimitedSubgraphReader.Column endValue;
+    final private DelimitedSubgraphReader.Column[] properties;
+
+    /**
+     * @param reader the source of rows
+     * @param columns column specifications, or null to take these from the first row
+     */
+    public EdgeListReader(DelimitedReader reader, List<String> columns) throws IOException {
+        this.reader = reader;
+        if (columns == null) {
+            String[] header = this.reader.readRow();
+            columns = header == null ? Collections.<String>emptyList() : Arrays.asList(header);
+        }
+        if (columns.size() < FIXED_COLUMNS) {
+            throw new IOException("An edge list must have at least " + FIXED_COLUMNS + " columns");
+        }
+        this.startValue = parseValueColumn(columns.get(2));
+        this.endValue = parseValueColumn(columns.get(6));
+        this.properties = new DelimitedSubgraphReader.Column[columns.size() - FIXED_COLUMNS];
+        for (int i = 0; i < this.properties.length; i++) {
+            DelimitedSubgraphReader.Column column = DelimitedSubgraphReader.Column.parse(columns.get(FIXED_COLUMNS + i));
+            if (column != null && column.isRelationship()) {
+                throw new IOException("Relationship columns cannot be used in an edge list");
+            }
+            this.properties[i] = column;
+        }
+    }
+
+    private static DelimitedSubgraphReader.Column parseValueColumn(String spec) throws IOException {
+        DelimitedSubgraphReader.Column column = DelimitedSubgraphReader.Column.parse(spec);
+        if (column == null) {
+            // an unnamed column holds strings
+            column = DelimitedSubgraphReader.Column.parse("value");
+        }
+        if (column.isRelationship() || column.isArray()) {
+            throw new IOException("Malformed value column \"" + spec + "\"");
+        }
+        return column;
+    }
+
+    /**
+     * Read up to a given number of edges.
+     *
+     * @param max the maximum number of edges to read
+     * @return the edges read, which are none only once there are no more rows
+     * @throws IOException if the data cannot be read or a row is malformed
+     */
+    public List<Edge> readEdges(int max) throws IOException {
+        ArrayList<Edge> edges = new ArrayList<>(max);
+        String[] fields;
+        while (edges.size() < max && (fields = this.reader.readRow()) != null) {
+            long lineNumber = this.reader.getLineNumber();
+            if (fields.length < FIXED_COLUMNS) {
+                throw new IOException("Too few fields on line " + lineNumber);
+            }
+            for (int i = 0; i < FIXED_COLUMNS; i++) {
+                if (fields[i].isEmpty()) {
+                    throw new IOException("Empty field " + (i + 1) + " on line " + lineNumber);
+                }
+            }
+            HashMap<String, Object> properties = null;
+            for (int i = 0; i < this.properties.length && FIXED_COLUMNS + i < fields.length; i++) {
+                DelimitedSubgraphReader.Column column = this.properties[i];
+                String field = fields[FIXED_COLUMNS + i];
+                if (column == null || field.isEmpty()) {
+                    continue;
+                }
+                if (properties == null) {
+                    properties = new HashMap<>();
+                }
+                properties.put(column.getKey(), this.parse(column, field, lineNumber));
+            }
+            AbstractNode start = hook(fields[0], fields[1], this.parse(this.startValue, fields[2], lineNumber));
+            AbstractNode end = hook(fields[4], fields[5], this.parse(this.endValue, fields[6], lineNumber));
+            edges.add(new Edge(lineNumber, new AbstractRelationship(start, fields[3], properties, end)));
+        }
+        return edges;
+    }
+
+    private Object parse(DelimitedSubgraphReader.Column column, String field, long lineNumber) throws IOException {
+        try {
+            return column.parseField(field);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unable to parse " + column.getType() + " \"" + field + "\" on line " + lineNumber);
+        }
+    }
+
+    private static AbstractNode hook(String label, String key, Object value) {
+        AbstractNode node = new AbstractNode(null, null, Collections.singletonMap(key, value));
+        node.setHook(label, key);
+        return node;
+    }
+
+}
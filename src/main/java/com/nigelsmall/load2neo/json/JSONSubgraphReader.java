@@ -0,0 +1,325 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.json;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.SubgraphReader;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Reads a stream of JSON records, conventionally one per line, each of
+ * which describes a single entity:
+ *
+ * <pre>
+ * {"node":"alice","labels":["Person"],"properties":{"name":"Alice"}}
+ * {"hook":"bob","label":"Person","key":"name","properties":{"name":"Bob"}}
+ * {"start":"alice","type":"KNOWS","end":"bob","properties":{"since":1999}}
+ * {"boundary":true}
+ * </pre>
+ *
+ * A hook on several keys, all of which must match, gives them as an array
+ * of "keys" instead. The node or hook name may be null for an anonymous
+ * node. A subgraph ends at a boundary record or after a given number of
+ * records, whichever comes first; as in Geoff, node names only apply
+ * within a single subgraph.
+ * Records are parsed token by token and never built as a JSON tree.
+ */
+public class JSONSubgraphReader implements SubgraphReader {
+
+    final private static JsonFactory factory = new JsonFactory();
+
+    final private JsonParser parser;
+    final private int batchSize;
+
+    private JsonToken next;
+
+    /**
+     * @param reader the source of records
+     * @param batchSize the maximum number of records in each subgraph, or 0 for no limit
+     */
+    public JSONSubgraphReader(Reader reader, int batchSize) throws IOException {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("Batch size must not be negative");
+        }
+        this.parser = factory.createJsonParser(reader);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean hasMore() throws IOException {
+        if (this.next == null) {
+            this.next = this.parser.nextToken();
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public Subgraph readSubgraph() throws IOException {
+        Subgraph subgraph = new Subgraph();
+        int count = 0;
+        while ((this.batchSize == 0 || count < this.batchSize) && this.hasMore()) {
+            if (this.next != JsonToken.START_OBJECT) {
+                throw this.error("Expected a record");
+            }
+            this.next = null;
+            if (!this.readRecordInto(subgraph)) {
+                break;
+            }
+            count += 1;
+        }
+        return subgraph;
+    }
+
+    /**
+     * Read a single record.
+     *
+     * @return false if the record was a boundary, true otherwise
+     */
+    private boolean readRecordInto(Subgraph subgraph) throws IOException {
+        String name = null;
+        boolean isNode = false;
+        boolean isHook = false;
+        boolean isBoundary = false;
+        String label = null;
+        List<String> keys = null;
+        String start = null;
+        String type = null;
+        String end = null;
+        Set<String> labels = null;
+        Map<String, Object> properties = null;
+        while (this.parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = this.parser.getCurrentName();
+            JsonToken token = this.parser.nextToken();
+            switch (field) {
+                case "node":
+                    isNode = true;
+                    name = this.readText(token);
+                    break;
+                case "hook":
+                    isHook = true;
+                    name = this.readText(token);
+                    break;
+                case "label":
+                    label = this.readText(token);
+                    break;
+                case "key":
+                    String key = this.readText(token);
+                    keys = key == null ? null : Collections.singletonList(key);
+                    break;
+                case "keys":
+                    keys = this.readKeys(token);
+                    break;
+                case "start":
+                    start = this.readText(token);
+                    break;
+                case "type":
+                    type = this.readText(token);
+                    break;
+                case "end":
+                    end = this.readText(token);
+                    break;
+                case "labels":
+                    labels = this.readLabels(token);
+                    break;
+                case "properties":
+                    properties = this.readProperties(token);
+                    break;
+                case "boundary":
+                    isBoundary = token == JsonToken.VALUE_TRUE;
+                    break;
+                default:
+                    throw this.error("Unexpected field \"" + field + "\"");
+            }
+        }
+        if (this.parser.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw this.error("Malformed record");
+        }
+        if (isBoundary) {
+            return false;
+        } else if (isHook) {
+            if (label == null) {
+                throw this.error("Hook record without label");
+            }
+            AbstractNode node = new AbstractNode(name, labels, properties);
+            subgraph.mergeNode(node).setHook(label, keys);
+        } else if (isNode) {
+            subgraph.mergeNode(new AbstractNode(name, labels, properties));
+        } else if (start != null && type != null && end != null) {
+            subgraph.addRelationship(new AbstractRelationship(new AbstractNode(start, null, null), type,
+                    properties, new AbstractNode(end, null, null)));
+        } else {
+            throw this.error("Record is not a node, hook, relationship or boundary");
+        }
+        return true;
+    }
+
+    private String readText(JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_STRING) {
+            return this.parser.getText();
+        } else {
+            throw this.error("Expected a string");
+        }
+    }
+
+    private Set<String> readLabels(JsonToken token) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            throw this.error("Expected an array of labels");
+        }
+        HashSet<String> labels = new HashSet<>();
+        while ((token = this.parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_STRING) {
+                throw this.error("Expected a label");
+            }
+            labels.add(this.parser.getText());
+        }
+        return labels;
+    }
+
+    private List<String> readKeys(JsonToken token) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            throw this.error("Expected an array of keys");
+        }
+        ArrayList<String> keys = new ArrayList<>();
+        while ((token = this.parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_STRING) {
+                throw this.error("Expected a key");
+            }
+            keys.add(this.parser.getText());
+        }
+        return keys;
+    }
+
+    private Map<String, Object> readProperties(JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token != JsonToken.START_OBJECT) {
+            throw this.error("Expected an object of properties");
+        }
+        HashMap<String, Object> properties = new HashMap<>();
+        while (this.parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = this.parser.getCurrentName();
+            token = this.parser.nextToken();
+            properties.put(key, readValue(this.parser, token));
+        }
+        return properties;
+    }
+
+    /**
+     * Read a property value, which may be an array, starting with the
+     * current token.
+     */
+    static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.START_ARRAY) {
+            return readArray(parser);
+        } else {
+            return readScalar(parser, token);
+        }
+    }
+
+    private static Object readScalar(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return parser.getIntValue();
+                    case LONG:
+                        return parser.getLongValue();
+                    default:
+                        throw error(parser, "Integer out of range");
+                }
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw error(parser, "Unexpected property value");
+        }
+    }
+
+    /**
+     * Read an array of property values, all of which must be of the same
+     * type. As in Geoff, integers are widened to longs or to doubles to
+     * match other items in the array.
+     */
+    private static Object readArray(JsonParser parser) throws IOException {
+        ArrayList<Object> items = new ArrayList<>();
+        boolean hasLong = false;
+        boolean hasDouble = false;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            Object item = readScalar(parser, token);
+            if (item == null) {
+                throw error(parser, "Null array item");
+            }
+            if (!items.isEmpty() && !(item instanceof Number && items.get(0) instanceof Number) &&
+                    item.getClass() != items.get(0).getClass()) {
+                throw error(parser, "Mixed array");
+            }
+            hasLong = hasLong || item instanceof Long;
+            hasDouble = hasDouble || item instanceof Double;
+            items.add(item);
+        }
+        int size = items.size();
+        if (size == 0) {
+            return new Object[0];
+        } else if (items.get(0) instanceof String) {
+            return items.toArray(new String[size]);
+        } else if (items.get(0) instanceof Boolean) {
+            return items.toArray(new Boolean[size]);
+        } else if (hasDouble) {
+            Double[] values = new Double[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = ((Number) items.get(i)).doubleValue();
+            }
+            return values;
+        } else if (hasLong) {
+            Long[] values = new Long[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = ((Number) items.get(i)).longValue();
+            }
+            return values;
+        } else {
+            return items.toArray(new Integer[size]);
+        }
+    }
+
+    private JsonParseException error(String message) {
+        return error(this.parser, message);
+    }
+
+    static JsonParseException error(JsonParser parser, String message) {
+        return new JsonParseException(message, parser.getCurrentLocation());
+    }
+
+}
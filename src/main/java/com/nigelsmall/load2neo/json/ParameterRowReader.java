@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.json;
+
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.SubgraphReader;
+import com.nigelsmall.load2neo.Template;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads a stream of JSON parameter rows, conventionally one per line, each
+ * of which fills in a template to give one subgraph. A row is either an
+ * array of values, in the order of the template's parameters, or an object
+ * of values by parameter name:
+ *
+ * <pre>
+ * ["alice@example.com","Alice","London"]
+ * {"email":"bob@example.com","name":"Bob","city":"Paris"}
+ * </pre>
+ *
+ * Values are read as for properties in {@link JSONSubgraphReader}.
+ */
+public class ParameterRowReader implements SubgraphReader {
+
+    final private static JsonFactory factory = new JsonFactory();
+
+    final private Template template;
+    final private JsonParser parser;
+    final private Object[] values;
+    final private HashMap<String, Integer> positions;
+
+    private JsonToken next;
+
+    public ParameterRowReader(Template template, Reader reader) throws IOException {
+        this.template = template;
+        this.parser = factory.createJsonParser(reader);
+        List<String> parameters = template.getParameters();
+        this.values = new Object[parameters.size()];
+        this.positions = new HashMap<>();
+        for (int i = 0; i < this.values.length; i++) {
+            this.positions.put(parameters.get(i), i);
+        }
+    }
+
+    @Override
+    public boolean hasMore() throws IOException {
+        if (this.next == null) {
+            this.next = this.parser.nextToken();
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public Subgraph readSubgraph() throws IOException {
+        if (!this.hasMore()) {
+            throw JSONSubgraphReader.error(this.parser, "No more rows");
+        }
+        JsonToken token = this.next;
+        this.next = null;
+        if (token == JsonToken.START_ARRAY) {
+            int count = 0;
+            while ((token = this.parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (count == this.values.length) {
+                    throw JSONSubgraphReader.error(this.parser, "Too many values");
+                }
+                this.values[count] = JSONSubgraphReader.readValue(this.parser, token);
+                count += 1;
+            }
+            if (count < this.values.length) {
+                throw JSONSubgraphReader.error(this.parser, "Expected " + this.values.length + " values, found " + count);
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            BitSet given = new BitSet(this.values.length);
+            while (this.parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = this.parser.getCurrentName();
+                Integer position = this.positions.get(name);
+                if (position == null) {
+                    throw JSONSubgraphReader.error(this.parser, "Unknown parameter \"" + name + "\"");
+                }
+                this.values[position] = JSONSubgraphReader.readValue(this.parser, this.parser.nextToken());
+                given.set(position);
+            }
+            if (given.cardinality() != this.values.length) {
+                throw JSONSubgraphReader.error(this.parser, "Expected a value for each of " + this.positions.keySet());
+            }
+        } else {
+            throw JSONSubgraphReader.error(this.parser, "Expected a row");
+        }
+        return this.template.instantiate(this.values);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo.rest;
+
+import com.nigelsmall.load2neo.HookAdvisor;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+@Path("/advisor")
+public class AdvisorResource {
+
+    final private static ObjectMapper mapper = new ObjectMapper();
+
+    private final GraphDatabaseService database;
+
+    public AdvisorResource(@Context GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Report the hook lookups made by every load since the database was
+     * started, by label and key, flagging those not backed by an index.
+     */
+    @GET
+    @Produces("application/json")
+    public Response getAdvice() throws IOException {
+        ArrayList<LinkedHashMap<String, Object>> hooks = new ArrayList<>();
+        for (HookAdvisor.HookStats hookStats : HookAdvisor.forDatabase(database).getStats()) {
+            LinkedHashMap<String, Object> hook = new LinkedHashMap<>();
+            hook.put("label", hookStats.getLabel());
+            hook.put("key", hookStats.getKey());
+            hook.put("indexed", hookStats.isIndexed());
+            hook.put("lookups", hookStats.getLookups());
+            hook.put("lookup_ms", hookStats.getLookupNanos() / 1000000);
+            hook.put("scans", hookStats.getScans());
+            hook.put("scan_ms", hookStats.getScanNanos() / 1000000);
+            hooks.add(hook);
+        }
+        return Response.status(Response.Status.OK).entity(mapper.writeValueAsString(hooks) + "\n").build();
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo.rest;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.NeoDeleter;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+
+@Path("/delete")
+public class DeleterResource {
+
+    private final GraphDatabaseService database;
+
+    public DeleterResource(@Context GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Delete the nodes matched by the hooks and ID references of a Geoff
+     * document, together with their relationships. Each subgraph is
+     * resolved in turn and its nodes deleted in batches, with a line of
+     * running totals streamed back as each batch is committed.
+     */
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/geoff")
+    public Response deleteGeoff(final Reader reader,
+                                @QueryParam("batch") @DefaultValue("1000") int batchSize) {
+        if (batchSize < 1) {
+            return badRequest("Batch size must be positive");
+        }
+        final NeoDeleter deleter = new NeoDeleter(database);
+        deleter.setBatchSize(batchSize);
+
+        StreamingOutput stream = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                GeoffReader geoffReader = new GeoffReader(reader);
+                NeoDeleter.Progress progress = progress(os);
+                while (geoffReader.hasMore()) {
+                    deleter.addSubgraph(geoffReader.readSubgraph());
+                    deleter.flush(progress);
+                }
+            }
+
+        };
+
+        return Response.status(Response.Status.OK).entity(stream).build();
+    }
+
+    /**
+     * Delete all nodes with a label, or only those whose value for a key
+     * falls within an inclusive range, together with their relationships.
+     */
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/label")
+    public Response deleteLabel(@QueryParam("label") final String label,
+                                @QueryParam("key") final String key,
+                                @QueryParam("from") String from,
+                                @QueryParam("to") String to,
+                                @QueryParam("batch") @DefaultValue("1000") int batchSize) {
+        if (label == null) {
+            return badRequest("A label must be given");
+        }
+        if (key == null && (from != null || to != null)) {
+            return badRequest("A key must be given with a range");
+        }
+        if (batchSize < 1) {
+            return badRequest("Batch size must be positive");
+        }
+        final Object fromValue = ExporterResource.parseValue(from);
+        final Object toValue = ExporterResource.parseValue(to);
+        final NeoDeleter deleter = new NeoDeleter(database);
+        deleter.setBatchSize(batchSize);
+
+        StreamingOutput stream = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                deleter.addLabel(label, key, fromValue, toValue);
+                deleter.flush(progress(os));
+            }
+
+        };
+
+        return Response.status(Response.Status.OK).entity(stream).build();
+    }
+
+    private static NeoDeleter.Progress progress(OutputStream os) {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(os));
+        return new NeoDeleter.Progress() {
+
+            @Override
+            public void batchDeleted(long nodes, long relationships) throws IOException {
+                writer.write("{\"nodes\":" + nodes + ",\"relationships\":" + relationships + "}\n");
+                writer.flush();
+            }
+
+        };
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message + "\n").build();
+    }
+
+}
@@ -32,7 +32,24 @@ public class DiscoveryResource {
     @Produces("application/json")
     public Response getServiceIndex(@Context UriInfo info) {
         String absolutePath = info.getAbsolutePath().toString();
-        String index = "{\n    \"geoff_loader\": \"" + absolutePath + "load/geoff\",\n    \"load2neo_version\": \"0.2.0\"\n}\n";
+        String index = "{\n" +
+                "    \"geoff_loader\": \"" + absolutePath + "load/geoff\",\n" +
+                "    \"geoff_binary_loader\": \"" + absolutePath + "load/geoff-binary\",\n" +
+                "    \"xml_loader\": \"" + absolutePath + "load/xml\",\n" +
+                "    \"csv_loader\": \"" + absolutePath + "load/csv\",\n" +
+                "    \"tsv_loader\": \"" + absolutePath + "load/tsv\",\n" +
+                "    \"csv_edge_loader\": \"" + absolutePath + "load/edges/csv\",\n" +
+                "    \"tsv_edge_loader\": \"" + absolutePath + "load/edges/tsv\",\n" +
+                "    \"ndjson_loader\": \"" + absolutePath + "load/ndjson\",\n" +
+                "    \"template_loader\": \"" + absolutePath + "load/template\",\n" +
+                "    \"templates\": \"" + absolutePath + "template\",\n" +
+                "    \"geoff_exporter\": \"" + absolutePath + "export/geoff\",\n" +
+                "    \"geoff_deleter\": \"" + absolutePath + "delete/geoff\",\n" +
+                "    \"label_deleter\": \"" + absolutePath + "delete/label\",\n" +
+                "    \"hook_registry\": \"" + absolutePath + "registry/rebuild\",\n" +
+                "    \"hook_advisor\": \"" + absolutePath + "advisor\",\n" +
+                "    \"load2neo_version\": \"0.2.0\"\n" +
+                "}\n";
         return Response.status(Response.Status.OK).entity(index).build();
     }
 
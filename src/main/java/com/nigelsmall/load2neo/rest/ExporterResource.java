@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.rest;
+
+import com.nigelsmall.geoff.writer.GeoffWriter;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+@Path("/export")
+public class ExporterResource {
+
+    final private static ObjectMapper mapper = new ObjectMapper();
+
+    private final GraphDatabaseService database;
+
+    public ExporterResource(@Context GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    @GET
+    @Produces("text/x-geoff")
+    @Path("/geoff")
+    public Response exportGeoff(@QueryParam("label") final String label,
+                                @QueryParam("key") final String key,
+                                @QueryParam("value") String value,
+                                @QueryParam("depth") @DefaultValue("0") final int depth,
+                                @QueryParam("batch") @DefaultValue("1000") final int batchSize) {
+
+        if (label == null) {
+            return badRequest("A label must be given");
+        }
+        if (key == null && (value != null || depth > 0)) {
+            return badRequest("A key must be given with a value or depth");
+        }
+        if (batchSize < 1) {
+            return badRequest("Batch size must be positive");
+        }
+        final Object hookValue = parseValue(value);
+
+        StreamingOutput stream = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                GeoffWriter geoffWriter = new GeoffWriter(database, os);
+                geoffWriter.setBatchSize(batchSize);
+                try (Transaction tx = database.beginTx()) {
+                    if (hookValue == null && depth <= 0) {
+                        geoffWriter.writeLabel(label, key);
+                    } else {
+                        geoffWriter.writeHook(label, key, hookValue, depth);
+                    }
+                    tx.success();
+                }
+            }
+
+        };
+
+        return Response.status(Response.Status.OK).entity(stream).build();
+
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message + "\n").build();
+    }
+
+    /**
+     * Interpret a hook value given as a query parameter. JSON numbers and
+     * booleans are used as such; anything else is treated as a string.
+     */
+    static Object parseValue(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            Object parsed = mapper.readValue(value, Object.class);
+            if (parsed instanceof Number || parsed instanceof Boolean || parsed instanceof String) {
+                return parsed;
+            }
+        } catch (IOException e) {
+            // not JSON, so use the raw string
+        }
+        return value;
+    }
+
+}
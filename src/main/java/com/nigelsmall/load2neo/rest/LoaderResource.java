@@ -16,28 +16,124 @@
 
 package com.nigelsmall.load2neo.rest;
 
+import com.nigelsmall.geoff.binary.GeoffDecoder;
 import com.nigelsmall.geoff.reader.GeoffReader;
-import com.nigelsmall.load2neo.NeoLoader;
-import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.CountingSink;
+import com.nigelsmall.load2neo.HookAdvisor;
+import com.nigelsmall.load2neo.HookRegistry;
+import com.nigelsmall.load2neo.NeoEdgeLoader;
+import com.nigelsmall.load2neo.NullSink;
+import com.nigelsmall.load2neo.StreamLoader;
+import com.nigelsmall.load2neo.SubgraphReader;
+import com.nigelsmall.load2neo.Template;
+import com.nigelsmall.load2neo.csv.DelimitedReader;
+import com.nigelsmall.load2neo.csv.DelimitedSubgraphReader;
+import com.nigelsmall.load2neo.csv.EdgeListReader;
+import com.nigelsmall.load2neo.json.JSONSubgraphReader;
+import com.nigelsmall.load2neo.json.ParameterRowReader;
+import com.nigelsmall.load2neo.xml.XMLSubgraphReader;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
 
-import javax.ws.rs.POST;
-import javax.ws.rs.Path;
-import javax.ws.rs.Produces;
+import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.*;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Path("/load")
 public class LoaderResource {
 
+    final private static ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The database setting giving the directory for dead-letter files, by
+     * default the dead-letters directory of the store.
+     */
+    final public static String DEAD_LETTERS_SETTING = "load2neo.dead_letters";
+
+    /**
+     * A file of dead letters for one request, created within the dead-letter
+     * directory only once there is something to write.
+     */
+    private static class DeadLetterFile implements Closeable {
+
+        final private File directory;
+        private File file;
+        private Writer writer;
+
+        DeadLetterFile(GraphDatabaseService database) {
+            Config config = ((GraphDatabaseAPI) database).getDependencyResolver().resolveDependency(Config.class);
+            String directory = config.getParams().get(DEAD_LETTERS_SETTING);
+            if (directory == null) {
+                this.directory = new File(config.get(GraphDatabaseSettings.store_dir), "dead-letters");
+            } else {
+                this.directory = new File(directory);
+            }
+        }
+
+        void write(String deadLetter) throws IOException {
+            if (this.writer == null) {
+                if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+                    throw new IOException("Unable to create directory " + this.directory);
+                }
+                this.file = File.createTempFile("load-", ".geoff", this.directory);
+                this.writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(this.file), StandardCharsets.UTF_8));
+            }
+            this.writer.write(deadLetter);
+            this.writer.flush();
+        }
+
+        String getPath() {
+            return this.file == null ? null : this.file.getPath();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.writer != null) {
+                this.writer.close();
+            }
+        }
+
+    }
+
     private final GraphDatabaseService database;
 
+    // options common to every loader
+    @QueryParam("diff")
+    private boolean diff;
+    @QueryParam("session")
+    private boolean session;
+    @QueryParam("registry")
+    private boolean registry;
+    @QueryParam("index")
+    private boolean index;
+    @QueryParam("index_timeout")
+    @DefaultValue("60")
+    private long indexTimeout;
+    @QueryParam("profile")
+    private boolean profile;
+    @QueryParam("idempotent")
+    private boolean idempotent;
+    @QueryParam("tolerant")
+    private boolean tolerant;
+    @QueryParam("sink")
+    private String sink;
+
     public LoaderResource(@Context GraphDatabaseService database) {
         this.database = database;
     }
@@ -45,38 +141,169 @@ public class LoaderResource {
     @POST
     @Produces("text/x-tab-separated-json")
     @Path("/geoff")
-    public Response loadGeoff(Reader reader) {
+    public Response loadGeoff(Reader reader,
+                              @QueryParam("spill") @DefaultValue("0") int spillThreshold) {
+        if (spillThreshold < 0) {
+            return badRequest("Spill threshold must not be negative");
+        }
+        GeoffReader geoffReader = new GeoffReader(reader);
+        geoffReader.setSpillThreshold(spillThreshold, null);
+        // subgraphs large enough to spill also keep their name maps off-heap
+        return this.load(geoffReader, spillThreshold > 0);
+    }
 
-        final GeoffReader geoffReader = new GeoffReader(reader);
-        final NeoLoader neoLoader = new NeoLoader(database);
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/geoff-binary")
+    public Response loadGeoffBinary(InputStream in) {
+        return this.load(new GeoffDecoder(in));
+    }
+
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/xml")
+    public Response loadXML(Reader reader) throws IOException {
+        return this.load(new XMLSubgraphReader(reader));
+    }
+
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/csv")
+    public Response loadCSV(Reader reader,
+                            @QueryParam("label") String label,
+                            @QueryParam("key") String key,
+                            @QueryParam("columns") String columns,
+                            @QueryParam("batch") @DefaultValue("1000") int batchSize) throws IOException {
+        return this.loadDelimited(DelimitedReader.csv(reader), label, key, columns, batchSize);
+    }
+
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/tsv")
+    public Response loadTSV(Reader reader,
+                            @QueryParam("label") String label,
+                            @QueryParam("key") String key,
+                            @QueryParam("columns") String columns,
+                            @QueryParam("batch") @DefaultValue("1000") int batchSize) throws IOException {
+        return this.loadDelimited(DelimitedReader.tsv(reader), label, key, columns, batchSize);
+    }
+
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/ndjson")
+    public Response loadNDJSON(Reader reader,
+                               @QueryParam("batch") @DefaultValue("1000") int batchSize) throws IOException {
+        if (batchSize < 0) {
+            return badRequest("Batch size must not be negative");
+        }
+        return this.load(new JSONSubgraphReader(reader, batchSize));
+    }
+
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/edges/csv")
+    public Response loadEdgesCSV(Reader reader,
+                                 @QueryParam("columns") String columns,
+                                 @QueryParam("batch") @DefaultValue("10000") int batchSize) throws IOException {
+        return this.loadEdges(DelimitedReader.csv(reader), columns, batchSize);
+    }
+
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/edges/tsv")
+    public Response loadEdgesTSV(Reader reader,
+                                 @QueryParam("columns") String columns,
+                                 @QueryParam("batch") @DefaultValue("10000") int batchSize) throws IOException {
+        return this.loadEdges(DelimitedReader.tsv(reader), columns, batchSize);
+    }
+
+    /**
+     * Load a parameter row for each subgraph, filling in a template
+     * registered beforehand.
+     *
+     * @see TemplateResource
+     * @see ParameterRowReader
+     */
+    @POST
+    @Produces("text/x-tab-separated-json")
+    @Path("/template/{name}")
+    public Response loadTemplate(Reader reader,
+                                 @PathParam("name") String name,
+                                 @QueryParam("batch") @DefaultValue("1") int batchSize) throws IOException {
+        Template template = TemplateResource.lookup(name);
+        if (template == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("No template named \"" + name + "\"\n").build();
+        }
+        if (batchSize < 1) {
+            return badRequest("Batch size must be positive");
+        }
+        return this.load(new ParameterRowReader(template, reader), false, batchSize);
+    }
+
+    private Response loadDelimited(DelimitedReader reader, String label, String key, String columns,
+                                   int batchSize) throws IOException {
+        if (label == null) {
+            return badRequest("A label must be given");
+        }
+        if (batchSize < 1) {
+            return badRequest("Batch size must be positive");
+        }
+        List<String> columnList = columns == null ? null : Arrays.asList(columns.split(","));
+        try {
+            return this.load(new DelimitedSubgraphReader(reader, label, key, columnList, batchSize));
+        } catch (IOException e) {
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Load relationships between existing nodes in transactions of up to
+     * a given number of rows, streaming back a line for each, once
+     * committed, that counts the relationships created and lists the line
+     * numbers of rows skipped because an end could not be found.
+     */
+    private Response loadEdges(DelimitedReader reader, String columns, final int batchSize) throws IOException {
+        if (batchSize < 1) {
+            return badRequest("Batch size must be positive");
+        }
+        List<String> columnList = columns == null ? null : Arrays.asList(columns.split(","));
+        final EdgeListReader edgeListReader;
+        try {
+            edgeListReader = new EdgeListReader(reader, columnList);
+        } catch (IOException e) {
+            return badRequest(e.getMessage());
+        }
+        final NeoEdgeLoader edgeLoader = new NeoEdgeLoader(database);
+        edgeLoader.setHookAdvisor(HookAdvisor.forDatabase(database));
+        final boolean registry = this.registry;
 
         StreamingOutput stream = new StreamingOutput() {
 
             @Override
             public void write(OutputStream os) throws IOException {
                 Writer writer = new BufferedWriter(new OutputStreamWriter(os));
-                int subgraphNumber = 0;
-                while (geoffReader.hasMore()) {
-                    Subgraph subgraph = geoffReader.readSubgraph();
+                if (registry) {
+                    edgeLoader.setHookRegistry(HookRegistry.forDatabase(database));
+                }
+                List<EdgeListReader.Edge> edges;
+                while (!(edges = edgeListReader.readEdges(batchSize)).isEmpty()) {
+                    ArrayList<AbstractRelationship> relationships = new ArrayList<>(edges.size());
+                    for (EdgeListReader.Edge edge : edges) {
+                        relationships.add(edge.getRelationship());
+                    }
+                    BitSet missing;
                     try (Transaction tx = database.beginTx()) {
-                        Map<String, Node> nodes = neoLoader.load(subgraph);
-                        writer.write("{");
-                        String separator = "";
-                        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
-                            Node node = entry.getValue();
-                            writer.write(separator);
-                            writer.write('"');
-                            writer.write(entry.getKey());
-                            writer.write('"');
-                            writer.write(':');
-                            writer.write(Long.toString(node.getId()));
-                            separator = ",";
-                        }
-                        writer.write("}\n");
-                        writer.flush();
+                        missing = edgeLoader.load(relationships);
                         tx.success();
                     }
-                    subgraphNumber += 1;
+                    writer.write("{\"created\":" + edgeLoader.getCreatedCount() + ",\"missing\":[");
+                    String separator = "";
+                    for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1)) {
+                        writer.write(separator + edges.get(i).getLineNumber());
+                        separator = ",";
+                    }
+                    writer.write("]}\n");
+                    writer.flush();
                 }
             }
 
@@ -86,11 +313,141 @@ public class LoaderResource {
 
     }
 
-    @POST
-    @Produces("text/x-tab-separated-json")
-    @Path("/xml")
-    public Response loadXML(Reader reader) {
-        return null;
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message + "\n").build();
+    }
+
+    private Response load(SubgraphReader subgraphReader) {
+        return this.load(subgraphReader, false);
+    }
+
+    /**
+     * Load each subgraph from a reader in its own transaction, streaming
+     * back a line for each, once committed, that maps the names of its
+     * named nodes to the IDs of the nodes loaded. In diff mode, each line
+     * has a further column counting the entities created, updated and left
+     * unchanged; in profile mode, a final column breaks down the time spent
+     * on each phase of the load and the bytes allocated. In idempotent mode,
+     * a subgraph that has already been loaded is not loaded again and the
+     * line given when it was loaded is repeated. In tolerant mode, a
+     * subgraph that cannot be read or loaded is written to a dead-letter
+     * file, in the directory given by {@link #DEAD_LETTERS_SETTING}, and its
+     * line gives the error and the path of that file instead; loading then
+     * carries on.
+     *
+     * The sink option loads into something other than the database: the
+     * null sink writes nothing, and the counting sink writes nothing but
+     * adds a final line counting what would have been written.
+     *
+     * @param subgraphReader the source of subgraphs to load
+     * @param offHeap whether to track loaded nodes off-heap
+     * @return a streaming response
+     */
+    private Response load(SubgraphReader subgraphReader, boolean offHeap) {
+        return this.load(subgraphReader, offHeap, 1);
+    }
+
+    /**
+     * Load subgraphs as above, but group them into transactions of a
+     * given number of subgraphs, each line still being written only once
+     * its transaction has been committed.
+     */
+    private Response load(final SubgraphReader subgraphReader, boolean offHeap, int batchSize) {
+
+        final StreamLoader streamLoader = new StreamLoader(database);
+        streamLoader.setBatchSize(batchSize);
+        streamLoader.setOffHeap(offHeap);
+        streamLoader.setDiff(this.diff);
+        streamLoader.setSession(this.session);
+        streamLoader.setRegistry(this.registry);
+        streamLoader.setCreateIndexes(this.index);
+        if (this.indexTimeout < 0) {
+            return badRequest("Index timeout must not be negative");
+        }
+        streamLoader.setIndexTimeout(this.indexTimeout, TimeUnit.SECONDS);
+        streamLoader.setIdempotent(this.idempotent);
+        streamLoader.setProfile(this.profile);
+        streamLoader.setContinueOnError(this.tolerant);
+        final CountingSink countingSink;
+        if (this.sink == null || this.sink.equals("database")) {
+            countingSink = null;
+        } else {
+            if (this.idempotent || this.registry || this.index) {
+                return badRequest("Replay, registry and index options cannot be used with a sink");
+            }
+            if (this.sink.equals("null")) {
+                countingSink = null;
+                streamLoader.setSink(new NullSink());
+            } else if (this.sink.equals("counting")) {
+                countingSink = new CountingSink();
+                streamLoader.setSink(countingSink);
+            } else {
+                return badRequest("Unknown sink \"" + this.sink + "\"");
+            }
+        }
+        final boolean diff = this.diff;
+        final boolean profile = this.profile;
+
+        StreamingOutput stream = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream os) throws IOException {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(os));
+                final DeadLetterFile deadLetters = new DeadLetterFile(database);
+                try {
+                    streamLoader.load(subgraphReader, new StreamLoader.Callback() {
+
+                        @Override
+                        public void subgraphLoaded(StreamLoader.Result result) throws IOException {
+                            if (result.isFailed()) {
+                                deadLetters.write(result.toDeadLetter());
+                                LinkedHashMap<String, String> line = new LinkedHashMap<>();
+                                line.put("error", result.getError());
+                                line.put("dead_letter", deadLetters.getPath());
+                                writer.write(mapper.writeValueAsString(line));
+                                writer.write("\n");
+                                writer.flush();
+                                return;
+                            }
+                            writer.write(result.toJSON());
+                            if (diff) {
+                                writer.write("\t{\"created\":" + result.getCreatedCount() +
+                                        ",\"updated\":" + result.getUpdatedCount() +
+                                        ",\"unchanged\":" + result.getUnchangedCount() + "}");
+                            }
+                            if (profile) {
+                                writer.write("\t{\"parse_us\":" + result.getParseNanos() / 1000 +
+                                        ",\"hooks_us\":" + result.getHookNanos() / 1000 +
+                                        ",\"nodes_us\":" + result.getNodeNanos() / 1000 +
+                                        ",\"relationships_us\":" + result.getRelationshipNanos() / 1000 +
+                                        ",\"commit_us\":" + result.getCommitNanos() / 1000 +
+                                        ",\"allocated_bytes\":" + result.getAllocatedBytes() + "}");
+                            }
+                            writer.write("\n");
+                            writer.flush();
+                        }
+
+                    });
+                    if (countingSink != null) {
+                        LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+                        counts.put("transactions", countingSink.getTransactionCount());
+                        counts.put("lookups", countingSink.getLookupCount());
+                        counts.put("nodes", countingSink.getNodeCount());
+                        counts.put("relationships", countingSink.getRelationshipCount());
+                        counts.put("labels", countingSink.getLabelCount());
+                        counts.put("properties", countingSink.getPropertyCount());
+                        writer.write("{\"sink\":" + mapper.writeValueAsString(counts) + "}\n");
+                        writer.flush();
+                    }
+                } finally {
+                    deadLetters.close();
+                }
+            }
+
+        };
+
+        return Response.status(Response.Status.OK).entity(stream).build();
+
     }
 
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nigelsmall.load2neo.rest;
+
+import com.nigelsmall.load2neo.HookRegistry;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+
+@Path("/registry")
+public class RegistryResource {
+
+    private final GraphDatabaseService database;
+
+    public RegistryResource(@Context GraphDatabaseService database) {
+        this.database = database;
+    }
+
+    /**
+     * Register every node with a given label and key in the hook registry,
+     * such as after restoring a backup or before first using the registry
+     * with existing data.
+     */
+    @POST
+    @Produces("application/json")
+    @Path("/rebuild")
+    public Response rebuild(@QueryParam("label") String label,
+                            @QueryParam("key") String key) throws IOException {
+        if (label == null || key == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("A label and key must be given\n").build();
+        }
+        HookRegistry registry = HookRegistry.forDatabase(database);
+        long count;
+        try (Transaction tx = database.beginTx()) {
+            count = registry.rebuild(database, label, key);
+            tx.success();
+        }
+        registry.force();
+        return Response.status(Response.Status.OK).entity("{\"registered\":" + count + "}\n").build();
+    }
+
+}
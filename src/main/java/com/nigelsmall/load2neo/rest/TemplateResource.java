@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.rest;
+
+import com.nigelsmall.load2neo.Template;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Templates registered by name for loading with parameter rows. Templates
+ * are held in memory only, so must be registered again after a restart.
+ *
+ * @see LoaderResource#loadTemplate
+ */
+@Path("/template")
+public class TemplateResource {
+
+    final private static ObjectMapper mapper = new ObjectMapper();
+
+    final private static ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<>();
+
+    public TemplateResource() { }
+
+    /**
+     * @return the template registered under a name, or null if none
+     */
+    static Template lookup(String name) {
+        return templates.get(name);
+    }
+
+    /**
+     * List every template registered, with its parameters.
+     */
+    @GET
+    @Produces("application/json")
+    public Response getTemplates() throws IOException {
+        ArrayList<Map<String, Object>> list = new ArrayList<>();
+        for (Map.Entry<String, Template> entry : new TreeMap<>(templates).entrySet()) {
+            list.add(describe(entry.getKey(), entry.getValue()));
+        }
+        return Response.status(Response.Status.OK).entity(mapper.writeValueAsString(list) + "\n").build();
+    }
+
+    @GET
+    @Produces("application/json")
+    @Path("/{name}")
+    public Response getTemplate(@PathParam("name") String name) throws IOException {
+        Template template = templates.get(name);
+        if (template == null) {
+            return notFound(name);
+        }
+        Map<String, Object> description = describe(name, template);
+        description.put("geoff", template.getSource());
+        return Response.status(Response.Status.OK).entity(mapper.writeValueAsString(description) + "\n").build();
+    }
+
+    /**
+     * Register a template, given as a single Geoff subgraph with
+     * parameters, replacing any of the same name. The template is parsed
+     * once here rather than for each row loaded.
+     */
+    @PUT
+    @Produces("application/json")
+    @Path("/{name}")
+    public Response putTemplate(@PathParam("name") String name, String geoff) throws IOException {
+        Template template;
+        try {
+            template = Template.parse(geoff);
+        } catch (IOException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage() + "\n").build();
+        }
+        templates.put(name, template);
+        return Response.status(Response.Status.OK).entity(mapper.writeValueAsString(describe(name, template)) + "\n").build();
+    }
+
+    @DELETE
+    @Path("/{name}")
+    public Response deleteTemplate(@PathParam("name") String name) {
+        if (templates.remove(name) == null) {
+            return notFound(name);
+        }
+        return Response.status(Response.Status.NO_CONTENT).build();
+    }
+
+    private static Map<String, Object> describe(String name, Template template) {
+        LinkedHashMap<String, Object> description = new LinkedHashMap<>();
+        description.put("name", name);
+        description.put("parameters", template.getParameters());
+        return description;
+    }
+
+    private static Response notFound(String name) {
+        return Response.status(Response.Status.NOT_FOUND).entity("No template named \"" + name + "\"\n").build();
+    }
+
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash map from names to non-negative long values. Both
+ * the table and the names themselves are held in byte buffers rather than
+ * as objects, so a map of millions of entries adds nothing for the garbage
+ * collector to trace; with the off-heap option the buffers are allocated
+ * outside the Java heap altogether. Each is split into pages of at most
+ * 1GB, so a map is limited only by memory and by its size being an int,
+ * not by what a single buffer can address. Names are encoded into a
+ * buffer kept by the map, so a map must not be used by more than one
+ * thread at once.
+ */
+public class NameMap {
+
+    final public static long NONE = -1;
+
+    final public static int MAX_PAGE_SIZE = 1 << 30;
+
+    final private static Charset UTF_8 = Charset.forName("UTF-8");
+
+    // each slot holds a reference to its key (plus one, so that zero
+    // marks an empty slot) followed by its value
+    final private static int SLOT_SIZE = 16;
+
+    final private boolean offHeap;
+    final private int pageShift;
+    final private int pageMask;
+
+    private ByteBuffer[] slots;
+    // only the last page of keys is written to; every other page is full
+    private ByteBuffer[] keys;
+    private long mask;
+    private int size;
+    // the UTF-8 encoding of the name last looked up or stored
+    private byte[] key = new byte[64];
+    private int keyLength;
+
+    public NameMap(int expectedSize, boolean offHeap) {
+        this(expectedSize, offHeap, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize the most bytes to allocate in any one buffer, which
+     *                 must be a power of two, from 1KB to 1GB
+     */
+    public NameMap(int expectedSize, boolean offHeap, int pageSize) {
+        if (pageSize < 1024 || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two from 1KB to 1GB");
+        }
+        this.offHeap = offHeap;
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.pageMask = pageSize - 1;
+        long capacity = capacityFor(expectedSize);
+        this.slots = this.allocatePages(capacity * SLOT_SIZE);
+        this.keys = new ByteBuffer[] {this.allocate((int) Math.min(pageSize, keysCapacityFor(expectedSize)))};
+        this.mask = capacity - 1;
+    }
+
+    private NameMap(NameMap map) {
+        this.offHeap = false;
+        this.pageShift = map.pageShift;
+        this.pageMask = map.pageMask;
+        this.slots = new ByteBuffer[map.slots.length];
+        for (int i = 0; i < this.slots.length; i++) {
+            // duplicates, so that the positions of the map copied are kept
+            ByteBuffer slots = map.slots[i].duplicate();
+            slots.clear();
+            this.slots[i] = ByteBuffer.allocate(slots.capacity());
+            this.slots[i].put(slots);
+        }
+        this.keys = new ByteBuffer[map.keys.length];
+        for (int i = 0; i < this.keys.length; i++) {
+            ByteBuffer keys = map.keys[i].duplicate();
+            keys.flip();
+            this.keys[i] = ByteBuffer.allocate(Math.max(256, keys.limit()));
+            this.keys[i].put(keys);
+        }
+        this.mask = map.mask;
+        this.size = map.size;
+    }
+
+    private static long capacityFor(int expectedSize) {
+        long capacity = 16;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long keysCapacityFor(int expectedSize) {
+        return Math.max(256, expectedSize * 24L);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isOffHeap() {
+        return this.offHeap;
+    }
+
+    /**
+     * @return the value mapped to a name, or {@link #NONE} if there is none
+     */
+    public long get(String name) {
+        this.encode(name);
+        long slot = this.find(this.hash());
+        if (this.getSlot(slot, 0) == 0) {
+            return NONE;
+        }
+        return this.getSlot(slot, 8);
+    }
+
+    public boolean containsKey(String name) {
+        return this.get(name) != NONE;
+    }
+
+    /**
+     * Map a name to a value.
+     *
+     * @return the value previously mapped to the name, or {@link #NONE} if there was none
+     * @throws IllegalStateException if the map already holds as many
+     *         entries as an int can count
+     */
+    public long put(String name, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative");
+        }
+        this.encode(name);
+        int hash = this.hash();
+        long slot = this.find(hash);
+        if (this.getSlot(slot, 0) != 0) {
+            long previous = this.getSlot(slot, 8);
+            this.putSlot(slot, 8, value);
+            return previous;
+        }
+        if (this.size == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Name map is full");
+        }
+        this.putSlot(slot, 0, this.storeKey(hash) + 1);
+        this.putSlot(slot, 8, value);
+        this.size += 1;
+        if (this.size * 2L > this.mask + 1) {
+            this.grow();
+        }
+        return NONE;
+    }
+
+    public void clear() {
+        if (this.keys.length == 1 && this.keys[0].position() == 0) {
+            return;
+        }
+        for (ByteBuffer page : this.slots) {
+            for (int i = 0; i < page.capacity(); i += 8) {
+                page.putLong(i, 0);
+            }
+        }
+        this.keys = new ByteBuffer[] {this.keys[0]};
+        this.keys[0].clear();
+        this.size = 0;
+    }
+
+    /**
+     * Remove every entry, so that the buffers can be used again. They are
+     * only replaced if much larger than needed for the number of entries
+     * expected next, so that one very large map does not make every later
+     * clear slow.
+     *
+     * @param expectedSize the number of entries expected next
+     */
+    public void clear(int expectedSize) {
+        long capacity = capacityFor(expectedSize);
+        if (this.mask + 1 > capacity * 8) {
+            this.slots = this.allocatePages(capacity * SLOT_SIZE);
+            this.keys = new ByteBuffer[] {this.allocate((int) Math.min(this.pageMask + 1L,
+                    keysCapacityFor(expectedSize)))};
+            this.mask = capacity - 1;
+            this.size = 0;
+        } else {
+            this.clear();
+        }
+    }
+
+    /**
+     * @return a copy of this map held on the Java heap
+     */
+    public NameMap copy() {
+        return new NameMap(this);
+    }
+
+    /**
+     * Iterate through the entries of the map in no particular order. Each
+     * name is decoded as it is reached.
+     */
+    public Iterable<Map.Entry<String, Long>> entries() {
+        return new Iterable<Map.Entry<String, Long>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, Long>> iterator() {
+                return new Iterator<Map.Entry<String, Long>>() {
+
+                    private long slot = -1;
+
+                    {
+                        this.advance();
+                    }
+
+                    private void advance() {
+                        do {
+                            this.slot += 1;
+                        } while (this.slot <= mask && getSlot(this.slot, 0) == 0);
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.slot <= mask;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Long> next() {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        long ref = getSlot(this.slot, 0) - 1;
+                        ByteBuffer page = keyPage(ref);
+                        int offset = (int) (ref & pageMask);
+                        byte[] key = new byte[page.getInt(offset + 4)];
+                        for (int i = 0; i < key.length; i++) {
+                            key[i] = page.get(offset + 8 + i);
+                        }
+                        long value = getSlot(this.slot, 8);
+                        this.advance();
+                        return new AbstractMap.SimpleImmutableEntry<>(new String(key, UTF_8), value);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+
+                };
+            }
+
+        };
+    }
+
+    /**
+     * Encode a name as UTF-8 into the key buffer, as String.getBytes would
+     * but without allocating.
+     */
+    private void encode(String name) {
+        int length = name.length();
+        if (this.key.length < length * 3) {
+            this.key = new byte[length * 3];
+        }
+        byte[] key = this.key;
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = name.charAt(i);
+            if (ch < 0x80) {
+                key[n++] = (byte) ch;
+            } else if (ch < 0x800) {
+                key[n++] = (byte) (0xc0 | (ch >> 6));
+                key[n++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(name.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, name.charAt(++i));
+                key[n++] = (byte) (0xf0 | (codePoint >> 18));
+                key[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                key[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                key[n++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(ch)) {
+                // unpaired, so replaced as by String.getBytes
+                key[n++] = '?';
+            } else {
+                key[n++] = (byte) (0xe0 | (ch >> 12));
+                key[n++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                key[n++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+        this.keyLength = n;
+    }
+
+    /**
+     * Find the slot holding the key last encoded, or the empty slot where
+     * it belongs.
+     */
+    private long find(int hash) {
+        long slot = hash & this.mask;
+        while (true) {
+            long ref = this.getSlot(slot, 0);
+            if (ref == 0 || this.keyEquals(ref - 1, hash)) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    private boolean keyEquals(long ref, int hash) {
+        ByteBuffer page = this.keyPage(ref);
+        int offset = (int) (ref & this.pageMask);
+        if (page.getInt(offset) != hash || page.getInt(offset + 4) != this.keyLength) {
+            return false;
+        }
+        for (int i = 0; i < this.keyLength; i++) {
+            if (page.get(offset + 8 + i) != this.key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long storeKey(int hash) {
+        int required = 8 + this.keyLength;
+        int last = this.keys.length - 1;
+        ByteBuffer page = this.keys[last];
+        if (page.remaining() < required) {
+            if (required > this.pageMask + 1) {
+                throw new IllegalArgumentException("Name is longer than a page");
+            }
+            if (page.capacity() <= this.pageMask) {
+                // the last page grows until full size
+                ByteBuffer grown = this.allocate((int) Math.min(this.pageMask + 1L,
+                        Math.max(page.capacity() * 2L, (long) page.position() + required)));
+                page.flip();
+                grown.put(page);
+                page = grown;
+                this.keys[last] = page;
+            }
+            if (page.remaining() < required) {
+                page = this.allocate(this.pageMask + 1);
+                this.keys = Arrays.copyOf(this.keys, last + 2);
+                this.keys[last + 1] = page;
+            }
+        }
+        long ref = ((long) (this.keys.length - 1) << this.pageShift) | page.position();
+        page.putInt(hash);
+        page.putInt(this.keyLength);
+        page.put(this.key, 0, this.keyLength);
+        return ref;
+    }
+
+    private void grow() {
+        ByteBuffer[] old = this.slots;
+        long oldCapacity = this.mask + 1;
+        long capacity = oldCapacity * 2;
+        this.slots = this.allocatePages(capacity * SLOT_SIZE);
+        this.mask = capacity - 1;
+        for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            long position = oldSlot * SLOT_SIZE;
+            ByteBuffer oldPage = old[(int) (position >>> this.pageShift)];
+            int offset = (int) (position & this.pageMask);
+            long ref = oldPage.getLong(offset);
+            if (ref != 0) {
+                long slot = this.keyPage(ref - 1).getInt((int) ((ref - 1) & this.pageMask)) & this.mask;
+                while (this.getSlot(slot, 0) != 0) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.putSlot(slot, 0, ref);
+                this.putSlot(slot, 8, oldPage.getLong(offset + 8));
+            }
+        }
+    }
+
+    private long getSlot(long slot, int field) {
+        long position = slot * SLOT_SIZE + field;
+        ByteBuffer[] slots = this.slots;
+        if (slots.length == 1) {
+            return slots[0].getLong((int) position);
+        }
+        return slots[(int) (position >>> this.pageShift)].getLong((int) (position & this.pageMask));
+    }
+
+    private void putSlot(long slot, int field, long value) {
+        long position = slot * SLOT_SIZE + field;
+        ByteBuffer[] slots = this.slots;
+        if (slots.length == 1) {
+            slots[0].putLong((int) position, value);
+        } else {
+            slots[(int) (position >>> this.pageShift)].putLong((int) (position & this.pageMask), value);
+        }
+    }
+
+    private ByteBuffer keyPage(long ref) {
+        ByteBuffer[] keys = this.keys;
+        return keys.length == 1 ? keys[0] : keys[(int) (ref >>> this.pageShift)];
+    }
+
+    /**
+     * Allocate buffers holding a number of bytes between them, each a full
+     * page but for a single buffer smaller than a page.
+     */
+    private ByteBuffer[] allocatePages(long capacity) {
+        long pageSize = this.pageMask + 1L;
+        if (capacity <= pageSize) {
+            return new ByteBuffer[] {this.allocate((int) capacity)};
+        }
+        ByteBuffer[] pages = new ByteBuffer[(int) (capacity / pageSize)];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = this.allocate((int) pageSize);
+        }
+        return pages;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return this.offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private int hash() {
+        int h = 0x9747b28c;
+        for (int i = 0; i < this.keyLength; i++) {
+            h = (h ^ this.key[i]) * 0x01000193;
+        }
+        // spread the bits so that the low bits used for the slot are well mixed
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013, Nigel Small
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nigelsmall.load2neo.xml;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.SubgraphReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Streaming reader for XML documents of the form below. Only one subgraph
+ * is held in memory at a time; entities placed directly within the root
+ * element form an implicit subgraph that ends at the next subgraph element.
+ *
+ * <pre>
+ * &lt;graph&gt;
+ *   &lt;subgraph&gt;
+ *     &lt;node name="alice" labels="Person Employee"&gt;
+ *       &lt;property key="name"&gt;Alice&lt;/property&gt;
+ *       &lt;property key="age" type="integer"&gt;33&lt;/property&gt;
+ *       &lt;property key="tags" type="string[]"&gt;&lt;value&gt;a&lt;/value&gt;&lt;value&gt;b&lt;/value&gt;&lt;/property&gt;
+ *     &lt;/node&gt;
+ *     &lt;hook name="bob" label="Person" key="email"&gt;
+ *       &lt;property key="email"&gt;bob@example.com&lt;/property&gt;
+ *     &lt;/hook&gt;
+ *     &lt;relationship start="alice" type="KNOWS" end="bob"&gt;
+ *       &lt;property key="since" type="integer"&gt;1999&lt;/property&gt;
+ *     &lt;/relationship&gt;
+ *   &lt;/subgraph&gt;
+ * &lt;/graph&gt;
+ * </pre>
+ *
+ * Property types are string (the default), boolean, integer, long, float and
+ * double, each of which may be suffixed with [] to denote an array.
+ */
+public class XMLSubgraphReader implements SubgraphReader {
+
+    final private static XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    static {
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    final private XMLStreamReader reader;
+    private boolean started;
+    private boolean finished;
+
+    public XMLSubgraphReader(Reader reader) throws IOException {
+        try {
+            this.reader = factory.createXMLStreamReader(reader);
+        } catch (XMLStreamException e) {
+            throw this.error(e);
+        }
+    }
+
+    /**
+     * Move to the next element within the root element, if any.
+     */
+    @Override
+    public boolean hasMore() throws IOException {
+        if (this.finished) {
+            return false;
+        }
+        try {
+            if (!this.started) {
+                this.nextTag();
+                this.started = true;
+                this.nextTag();
+            } else if (!this.reader.isStartElement() && !this.reader.isEndElement()) {
+                this.nextTag();
+            }
+            if (this.reader.isEndElement()) {
+                // end of the root element
+                this.finished = true;
+            }
+        } catch (XMLStreamException e) {
+            throw this.error(e);
+        }
+        return !this.finished;
+    }
+
+    @Override
+    public Subgraph readSubgraph() throws IOException {
+        Subgraph subgraph = new Subgraph();
+        if (!this.hasMore()) {
+            return subgraph;
+        }
+        try {
+            if ("subgraph".equals(this.reader.getLocalName())) {
+                this.nextTag();
+                while (this.reader.isStartElement()) {
+                    this.readEntityInto(subgraph);
+                }
+                // step past the end of the subgraph element
+                this.nextTag();
+            } else {
+                while (this.reader.isStartElement() && !"subgraph".equals(this.reader.getLocalName())) {
+                    this.readEntityInto(subgraph);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw this.error(e);
+        }
+        return subgraph;
+    }
+
+    private int nextTag() throws XMLStreamException {
+        int event = this.reader.next();
+        while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.END_DOCUMENT) {
+                throw new XMLStreamException("Unexpected end of document", this.reader.getLocation());
+            }
+            if (event == XMLStreamConstants.CHARACTERS && !this.reader.isWhiteSpace()) {
+                throw new XMLStreamException("Unexpected text", this.reader.getLocation());
+            }
+            event = this.reader.next();
+        }
+        return event;
+    }
+
+    /**
+     * Read the entity element at which the reader is positioned and leave
+     * the reader at the tag that follows.
+     */
+    private void readEntityInto(Subgraph subgraph) throws IOException, XMLStreamException {
+        String element = this.reader.getLocalName();
+        switch (element) {
+            case "node": {
+                AbstractNode node = new AbstractNode(this.attribute("name", false),
+                        this.labels(), null);
+                node.mergeProperties(this.readProperties());
+                subgraph.mergeNode(node);
+                break;
+            }
+            case "hook": {
+                String label = this.attribute("label", true);
+                String key = this.attribute("key", false);
+                AbstractNode node = new AbstractNode(this.attribute("name", false),
+                        this.labels(), null);
+                node.mergeProperties(this.readProperties());
+                subgraph.mergeNode(node).setHook(label, key);
+                break;
+            }
+            case "relationship": {
+                AbstractNode startNode = new AbstractNode(this.attribute("start", true), null, null);
+                String type = this.attribute("type", true);
+                AbstractNode endNode = new AbstractNode(this.attribute("end", true), null, null);
+                Map<String, Object> properties = this.readProperties();
+                subgraph.addRelationship(new AbstractRelationship(startNode, type, properties, endNode));
+                break;
+            }
+            default:
+                throw new XMLStreamException("Unexpected element " + element, this.reader.getLocation());
+        }
+        this.nextTag();
+    }
+
+    private String attribute(String name, boolean required) throws XMLStreamException {
+        String value = this.reader.getAttributeValue(null, name);
+        if (value == null && required) {
+            throw new XMLStreamException("Missing attribute " + name, this.reader.getLocation());
+        }
+        return value;
+    }
+
+    private Set<String> labels() {
+        String labels = this.reader.getAttributeValue(null, "labels");
+        if (labels == null || labels.trim().isEmpty()) {
+            return null;
+        }
+        return new HashSet<>(Arrays.asList(labels.trim().split("\\s+")));
+    }
+
+    /**
+     * Read the property elements within the current entity element, leaving
+     * the reader at the end of the entity element.
+     */
+    private Map<String, Object> readProperties() throws XMLStreamException {
+        HashMap<String, Object> properties = null;
+        while (this.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!"property".equals(this.reader.getLocalName())) {
+                throw new XMLStreamException("Unexpected element " + this.reader.getLocalName(),
+                        this.reader.getLocation());
+            }
+            String key = this.attribute("key", true);
+            String type = this.reader.getAttributeValue(null, "type");
+            if (type == null) {
+                type = "string";
+            }
+            Object value;
+            if (type.endsWith("[]")) {
+                value = this.readArray(type.substring(0, type.length() - 2));
+            } else {
+                value = this.parse(type, this.reader.getElementText());
+            }
+            if (properties == null) {
+                properties = new HashMap<>();
+            }
+            properties.put(key, value);
+        }
+        return properties;
+    }
+
+    private Object readArray(String type) throws XMLStreamException {
+        ArrayList<Object> items = new ArrayList<>();
+        while (this.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!"value".equals(this.reader.getLocalName())) {
+                throw new XMLStreamException("Unexpected element " + this.reader.getLocalName(),
+                        this.reader.getLocation());
+            }
+            items.add(this.parse(type, this.reader.getElementText()));
+        }
+        switch (type) {
+            case "string":
+                return items.toArray(new String[items.size()]);
+            case "boolean":
+                return items.toArray(new Boolean[items.size()]);
+            case "integer":
+                return items.toArray(new Integer[items.size()]);
+            case "long":
+                return items.toArray(new Long[items.size()]);
+            case "float":
+                return items.toArray(new Float[items.size()]);
+            case "double":
+                return items.toArray(new Double[items.size()]);
+            default:
+                // an empty array would otherwise be given a type of its own
+                throw new XMLStreamException("Unknown property type " + type + "[]", this.reader.getLocation());
+        }
+    }
+
+    private Object parse(String type, String text) throws XMLStreamException {
+        try {
+            switch (type) {
+                case "string":
+                    return text;
+                case "boolean":
+                    return Boolean.parseBoolean(text.trim());
+                case "integer":
+                    return Integer.parseInt(text.trim());
+                case "long":
+                    return Long.parseLong(text.trim());
+                case "float":
+                    return Float.parseFloat(text.trim());
+                case "double":
+                    return Double.parseDouble(text.trim());
+                default:
+                    throw new XMLStreamException("Unknown property type " + type, this.reader.getLocation());
+            }
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Unable to parse " + type + " \"" + text + "\"", this.reader.getLocation());
+        }
+    }
+
+    private IOException error(XMLStreamException e) {
+        // the message from the parser includes the location of the error
+        return new IOException(e.getMessage(), e);
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.binary.GeoffDecoder;
+import com.nigelsmall.geoff.binary.GeoffEncoder;
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+public class BinaryTest {
+
+    private Reader open(String name) throws IOException {
+        URL url = Thread.currentThread().getContextClassLoader().getResource(name);
+        return new InputStreamReader(new FileInputStream(url.getPath()), "UTF-8");
+    }
+
+    private String describe(AbstractNode node) {
+        Map<String, Object> properties = node.getProperties();
+        TreeMap<String, String> values = new TreeMap<>();
+        if (properties != null) {
+            for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                Object value = entry.getValue();
+                values.put(entry.getKey(), value instanceof Object[] ?
+                        value.getClass().getSimpleName() + Arrays.toString((Object[]) value) :
+                        value == null ? "null" : value.getClass().getSimpleName() + ":" + value);
+            }
+        }
+        return (node.isNamed() ? node.getName() : "") + new TreeSet<>(node.getLabels() == null ?
+                Collections.<String>emptySet() : node.getLabels()) + values +
+                node.getHookLabel() + ":" + node.getHookKeys();
+    }
+
+    private List<String> describe(Subgraph subgraph) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (AbstractNode node : subgraph.getNodes().values()) {
+            lines.add(describe(node));
+        }
+        Collections.sort(lines);
+        for (AbstractRelationship rel : subgraph.getRelationships()) {
+            AbstractNode startNode = subgraph.getNodes().get(rel.getStartNode().getName());
+            AbstractNode endNode = subgraph.getNodes().get(rel.getEndNode().getName());
+            lines.add(describe(startNode) + "-[" + rel.getType() + " " + rel.getProperties() + "]->" + describe(endNode));
+        }
+        return lines;
+    }
+
+    @Test
+    public void subgraphsSurviveRoundTrip() throws IOException {
+        for (String name : new String[] {"test.geoff", "abba.geoff", "planets.geoff", "10000.geoff"}) {
+            ArrayList<Subgraph> subgraphs = new ArrayList<>();
+            GeoffReader reader = new GeoffReader(open(name));
+            while (reader.hasMore()) {
+                subgraphs.add(reader.readSubgraph());
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GeoffEncoder encoder = new GeoffEncoder(bytes);
+            for (Subgraph subgraph : subgraphs) {
+                encoder.writeSubgraph(subgraph);
+            }
+            encoder.finish();
+            GeoffDecoder decoder = new GeoffDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+            for (Subgraph subgraph : subgraphs) {
+                if (!decoder.hasMore()) {
+                    throw new AssertionError("Decoding of " + name + " ended early");
+                }
+                List<String> expected = describe(subgraph);
+                List<String> actual = describe(decoder.readSubgraph());
+                if (!expected.equals(actual)) {
+                    throw new AssertionError("Decoding of " + name + " gave " + actual + ", expected " + expected);
+                }
+            }
+            if (decoder.hasMore()) {
+                throw new AssertionError("Decoding of " + name + " did not reach the end");
+            }
+        }
+    }
+
+    @Test
+    public void truncatedStreamsAreRejected() throws IOException {
+        Subgraph subgraph = new GeoffReader(new StringReader("(a:Person {\"name\":\"Alice\"})-[:KNOWS]->(b)")).readSubgraph();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GeoffEncoder encoder = new GeoffEncoder(bytes);
+        encoder.writeSubgraph(subgraph);
+        encoder.finish();
+        byte[] data = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+        GeoffDecoder decoder = new GeoffDecoder(new ByteArrayInputStream(data));
+        try {
+            decoder.readSubgraph();
+        } catch (EOFException e) {
+            return;
+        }
+        throw new AssertionError("Truncated stream was decoded");
+    }
+
+}
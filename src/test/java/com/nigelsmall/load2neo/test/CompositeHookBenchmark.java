@@ -0,0 +1,122 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.NeoLoader;
+import com.nigelsmall.load2neo.Subgraph;
+import org.apache.commons.io.FileUtils;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of resolving hooks on a single unique key with that of
+ * resolving composite hooks. Run from the command line against an embedded
+ * database in a temporary directory:
+ *
+ * <pre>
+ * java com.nigelsmall.load2neo.test.CompositeHookBenchmark [TENANTS] [ACCOUNTS]
+ * </pre>
+ *
+ * Each tenant has the same account IDs, so the tenant key is far less
+ * selective than the account ID. Composite hooks are given with the tenant
+ * first, so the loader has to find the more selective key for itself.
+ * Every hook matches an existing node, and any node created is a miss.
+ */
+public class CompositeHookBenchmark {
+
+    final private static Label ACCOUNT = DynamicLabel.label("Account");
+    final private static int HOOKS_PER_LOAD = 100;
+    final private static int LOADS = 200;
+
+    private static Subgraph hookSubgraph(Random random, int tenants, int accounts, boolean composite) {
+        Subgraph subgraph = new Subgraph();
+        for (int i = 0; i < HOOKS_PER_LOAD; i++) {
+            String tenant = "t" + random.nextInt(tenants);
+            int id = random.nextInt(accounts);
+            HashMap<String, Object> properties = new HashMap<>();
+            if (composite) {
+                properties.put("tenant", tenant);
+                properties.put("id", id);
+                subgraph.mergeNode(new AbstractNode("a" + i, null, properties))
+                        .setHook("Account", Arrays.asList("tenant", "id"));
+            } else {
+                properties.put("uid", tenant + "/" + id);
+                subgraph.mergeNode(new AbstractNode("a" + i, null, properties)).setHook("Account", "uid");
+            }
+        }
+        return subgraph;
+    }
+
+    private static void resolve(GraphDatabaseService database, int tenants, int accounts, boolean composite) {
+        Random random = new Random(42);
+        NeoLoader loader = new NeoLoader(database);
+        long created = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < LOADS; i++) {
+            Subgraph subgraph = hookSubgraph(random, tenants, accounts, composite);
+            try (Transaction tx = database.beginTx()) {
+                loader.load(subgraph);
+                created += loader.getCreatedCount();
+                // leave the data as it was
+                tx.failure();
+            }
+        }
+        long t1 = System.nanoTime() - t0;
+        System.out.println(String.format("%s: %d hooks in %dms, %.1fus per hook, %d missed",
+                composite ? "composite (tenant, id)" : "single (uid)", LOADS * HOOKS_PER_LOAD,
+                t1 / 1000000, t1 / 1000.0 / (LOADS * HOOKS_PER_LOAD), created));
+    }
+
+    public static void main(String... args) throws Exception {
+        int tenants = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        File directory = File.createTempFile("load2neo-benchmark-", "");
+        directory.delete();
+        GraphDatabaseService database = new GraphDatabaseFactory().newEmbeddedDatabase(directory.getPath());
+        try {
+            try (Transaction tx = database.beginTx()) {
+                for (String key : new String[] {"uid", "tenant", "id"}) {
+                    database.schema().indexFor(ACCOUNT).on(key).create();
+                }
+                tx.success();
+            }
+            try (Transaction tx = database.beginTx()) {
+                database.schema().awaitIndexesOnline(1, TimeUnit.MINUTES);
+                tx.success();
+            }
+            for (int t = 0; t < tenants; t++) {
+                try (Transaction tx = database.beginTx()) {
+                    for (int i = 0; i < accounts; i++) {
+                        Node node = database.createNode(ACCOUNT);
+                        node.setProperty("uid", "t" + t + "/" + i);
+                        node.setProperty("tenant", "t" + t);
+                        node.setProperty("id", i);
+                    }
+                    tx.success();
+                }
+            }
+            // warm up, then alternate so that neither has an advantage
+            resolve(database, tenants, accounts, false);
+            for (int round = 0; round < 2; round++) {
+                resolve(database, tenants, accounts, false);
+                resolve(database, tenants, accounts, true);
+            }
+        } finally {
+            database.shutdown();
+            try {
+                FileUtils.deleteDirectory(directory);
+            } catch (IOException e) {
+                // leave it for the operating system to tidy up
+            }
+        }
+    }
+
+}
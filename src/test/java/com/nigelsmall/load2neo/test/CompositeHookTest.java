@@ -0,0 +1,68 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.binary.GeoffDecoder;
+import com.nigelsmall.geoff.binary.GeoffEncoder;
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.json.JSONSubgraphReader;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class CompositeHookTest {
+
+    final private static String GEOFF = ":Account:tenant:id:=>(a {\"tenant\":\"acme\",\"id\":42}) " +
+            ":Account:id:=>(b {\"id\":7}) (a)-[:OWNS]->(b)";
+
+    private void assertHook(AbstractNode node, String label, String... keys) {
+        if (!label.equals(node.getHookLabel()) || !Arrays.asList(keys).equals(node.getHookKeys())) {
+            throw new AssertionError("Expected hook on :" + label + Arrays.toString(keys) + ", found " + node);
+        }
+    }
+
+    @Test
+    public void testCompositeHooksAreParsed() throws IOException {
+        Subgraph subgraph = new GeoffReader(new StringReader(GEOFF)).readSubgraph();
+        assertHook(subgraph.getNodes().get("a"), "Account", "tenant", "id");
+        assertHook(subgraph.getNodes().get("b"), "Account", "id");
+        if (!subgraph.getNodes().get("a").getHookKey().equals("tenant")) {
+            throw new AssertionError("First hook key should be tenant");
+        }
+        String text = subgraph.getNodes().get("a").toString();
+        if (!text.startsWith(":Account:tenant:id:=>(")) {
+            throw new AssertionError("Unexpected text " + text);
+        }
+        AbstractNode reparsed = new GeoffReader(new StringReader(text)).readSubgraph().getNodes().get("a");
+        assertHook(reparsed, "Account", "tenant", "id");
+    }
+
+    @Test
+    public void testCompositeHooksSurviveBinaryRoundTrip() throws IOException {
+        Subgraph subgraph = new GeoffReader(new StringReader(GEOFF)).readSubgraph();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GeoffEncoder encoder = new GeoffEncoder(bytes);
+        encoder.writeSubgraph(subgraph);
+        encoder.finish();
+        Subgraph decoded = new GeoffDecoder(new ByteArrayInputStream(bytes.toByteArray())).readSubgraph();
+        assertHook(decoded.getNodes().get("a"), "Account", "tenant", "id");
+        assertHook(decoded.getNodes().get("b"), "Account", "id");
+    }
+
+    @Test
+    public void testCompositeHooksAreReadFromJSON() throws IOException {
+        Subgraph subgraph = new JSONSubgraphReader(new StringReader(
+                "{\"hook\":\"a\",\"label\":\"Account\",\"keys\":[\"tenant\",\"id\"]," +
+                        "\"properties\":{\"tenant\":\"acme\",\"id\":42}}\n"), 0).readSubgraph();
+        assertHook(subgraph.getNodes().get("a"), "Account", "tenant", "id");
+        if (!Collections.<String>emptyList().equals(new AbstractNode(null, null, null).getHookKeys())) {
+            throw new AssertionError("An unhooked node should have no hook keys");
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.NeoDeleter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeleterTest {
+
+    final private static Label PERSON = DynamicLabel.label("Person");
+    final private static RelationshipType KNOWS = DynamicRelationshipType.withName("KNOWS");
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    /**
+     * Create people with IDs from zero, each knowing a friend who has no
+     * label, and return the node IDs of the people.
+     */
+    private long[] createPeople(int count, int friendsEach) {
+        long[] nodeIds = new long[count];
+        try (Transaction tx = this.database.beginTx()) {
+            for (int i = 0; i < count; i++) {
+                Node person = this.database.createNode(PERSON);
+                person.setProperty("id", i);
+                for (int j = 0; j < friendsEach; j++) {
+                    person.createRelationshipTo(this.database.createNode(), KNOWS);
+                }
+                nodeIds[i] = person.getId();
+            }
+            tx.success();
+        }
+        return nodeIds;
+    }
+
+    private long[] countGraph() {
+        try (Transaction tx = this.database.beginTx()) {
+            GlobalGraphOperations operations = GlobalGraphOperations.at(this.database);
+            long[] counts = new long[3];
+            for (Node node : operations.getAllNodes()) {
+                counts[0] += 1;
+            }
+            for (Relationship relationship : operations.getAllRelationships()) {
+                counts[1] += 1;
+            }
+            for (Node node : operations.getAllNodesWithLabel(PERSON)) {
+                counts[2] += 1;
+            }
+            tx.success();
+            return counts;
+        }
+    }
+
+    private static class Totals implements NeoDeleter.Progress {
+
+        final List<long[]> batches = new ArrayList<>();
+
+        @Override
+        public void batchDeleted(long nodes, long relationships) {
+            this.batches.add(new long[] {nodes, relationships});
+        }
+
+    }
+
+    @Test
+    public void testDeletionIsBatchedWithRunningTotals() throws IOException {
+        this.createPeople(10, 1);
+        long[] before = countGraph();
+        NeoDeleter deleter = new NeoDeleter(this.database);
+        deleter.setBatchSize(3);
+        if (deleter.addLabel("Person", null, null, null) != 10) {
+            throw new AssertionError("Not every person was matched");
+        }
+        Totals totals = new Totals();
+        deleter.flush(totals);
+        long[] previous = {0, 0};
+        for (long[] batch : totals.batches) {
+            long deleted = batch[0] + batch[1] - previous[0] - previous[1];
+            if (deleted < 1 || deleted > 3) {
+                throw new AssertionError("Batch deleted " + deleted + " entities");
+            }
+            previous = batch;
+        }
+        if (previous[0] != 10 || previous[1] != 10 || totals.batches.size() != 7) {
+            throw new AssertionError("Expected 7 batches deleting 10 nodes and 10 relationships, reported " +
+                    totals.batches.size() + " ending " + previous[0] + " and " + previous[1]);
+        }
+        long[] after = countGraph();
+        if (after[0] != before[0] - 10 || after[1] != 0 || after[2] != 0) {
+            throw new AssertionError("Only the people and their relationships should be deleted");
+        }
+    }
+
+    @Test
+    public void testRelationshipsAreDetachedAcrossBatches() throws IOException {
+        long[] nodeIds = this.createPeople(1, 5);
+        NeoDeleter deleter = new NeoDeleter(this.database);
+        deleter.setBatchSize(2);
+        deleter.addSubgraph(new GeoffReader("(#" + nodeIds[0] + ")").readSubgraph());
+        Totals totals = new Totals();
+        deleter.flush(totals);
+        // the node is left for the batch after its last relationships
+        if (totals.batches.size() != 3 || deleter.getDeletedNodes() != 1 ||
+                deleter.getDeletedRelationships() != 5) {
+            throw new AssertionError("Expected 3 batches deleting 1 node and 5 relationships");
+        }
+        long[] counts = countGraph();
+        if (counts[1] != 0 || counts[2] != 0) {
+            throw new AssertionError("Node or relationships left behind");
+        }
+    }
+
+    @Test
+    public void testHooksMatchingNothingAreIgnored() throws IOException {
+        long[] nodeIds = this.createPeople(3, 0);
+        NeoDeleter deleter = new NeoDeleter(this.database);
+        int matched = deleter.addSubgraph(new GeoffReader(":Person:id:=>(a {\"id\":1})\n" +
+                ":Person:id:=>(b {\"id\":99})\n:Robot:id:=>(c {\"id\":1})\n(#" + nodeIds[1] + ")").readSubgraph());
+        // the person hooked is also referenced, so is matched twice
+        if (matched != 2) {
+            throw new AssertionError("Expected 2 matches, counted " + matched);
+        }
+        deleter.flush(null);
+        if (deleter.getDeletedNodes() != 1 || countGraph()[2] != 2) {
+            throw new AssertionError("Expected only the person hooked to be deleted");
+        }
+    }
+
+    @Test
+    public void testMissingReferencesAreReported() throws IOException {
+        long[] nodeIds = this.createPeople(1, 0);
+        NeoDeleter deleter = new NeoDeleter(this.database);
+        try {
+            deleter.addSubgraph(new GeoffReader("(#" + nodeIds[0] + ")\n(#9998)\n(#9999)").readSubgraph());
+            throw new AssertionError("Missing references were ignored");
+        } catch (NotFoundException e) {
+            if (!e.getMessage().contains("9998") || !e.getMessage().contains("9999")) {
+                throw new AssertionError("Not every missing reference was named: " + e.getMessage());
+            }
+        }
+        deleter.flush(null);
+        if (deleter.getDeletedNodes() != 0 || countGraph()[2] != 1) {
+            throw new AssertionError("Nodes were deleted from a subgraph with missing references");
+        }
+    }
+
+    @Test
+    public void testLabelRangeIsInclusive() throws IOException {
+        this.createPeople(10, 0);
+        NeoDeleter deleter = new NeoDeleter(this.database);
+        if (deleter.addLabel("Person", "id", 3, 5) != 3) {
+            throw new AssertionError("Expected ids 3 to 5 to be matched");
+        }
+        // strings cannot be compared with numbers, so match nothing
+        if (deleter.addLabel("Person", "id", "3", null) != 0) {
+            throw new AssertionError("String bound matched numbers");
+        }
+        deleter.flush(null);
+        if (countGraph()[2] != 7) {
+            throw new AssertionError("Expected 7 people left");
+        }
+    }
+
+    @Test
+    public void testLargeIntegerBoundsAreExact() throws IOException {
+        // doubles cannot tell apart integers this large
+        long bound = (1L << 54) + 8;
+        try (Transaction tx = this.database.beginTx()) {
+            for (long id = bound - 1; id <= bound + 1; id++) {
+                this.database.createNode(PERSON).setProperty("id", id);
+            }
+            tx.success();
+        }
+        NeoDeleter deleter = new NeoDeleter(this.database);
+        if (deleter.addLabel("Person", "id", bound, bound) != 1) {
+            throw new AssertionError("Values just outside the bounds were matched");
+        }
+        if (deleter.addLabel("Person", "id", (double) bound - 100, null) != 3) {
+            throw new AssertionError("Floating point bound was not compared as a double");
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.csv.DelimitedReader;
+import com.nigelsmall.load2neo.csv.DelimitedSubgraphReader;
+import com.nigelsmall.load2neo.csv.EdgeListReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DelimitedTest {
+
+    @Test
+    public void quotedFieldsAreUnescaped() throws IOException {
+        DelimitedReader reader = DelimitedReader.csv(new StringReader(
+                "a,\"b,c\",\"say \"\"hi\"\"\"\r\n\n\"multi\nline\",,x,\n"));
+        String[] row = reader.readRow();
+        if (!Arrays.equals(row, new String[] {"a", "b,c", "say \"hi\""})) {
+            throw new AssertionError("Unexpected row " + Arrays.toString(row));
+        }
+        row = reader.readRow();
+        if (!Arrays.equals(row, new String[] {"multi\nline", "", "x", ""})) {
+            throw new AssertionError("Unexpected row " + Arrays.toString(row));
+        }
+        if (reader.readRow() != null) {
+            throw new AssertionError("Expected end of data");
+        }
+    }
+
+    @Test
+    public void loneCarriageReturnsEndRows() throws IOException {
+        DelimitedReader reader = DelimitedReader.csv(new StringReader("a,b\rc,\"d\re\"\r\nf\r"));
+        String[] row = reader.readRow();
+        if (!Arrays.equals(row, new String[] {"a", "b"}) || reader.getLineNumber() != 1) {
+            throw new AssertionError("Unexpected row " + Arrays.toString(row));
+        }
+        row = reader.readRow();
+        if (!Arrays.equals(row, new String[] {"c", "d\re"}) || reader.getLineNumber() != 3) {
+            throw new AssertionError("Unexpected row " + Arrays.toString(row));
+        }
+        row = reader.readRow();
+        if (!Arrays.equals(row, new String[] {"f"}) || reader.readRow() != null) {
+            throw new AssertionError("Unexpected row " + Arrays.toString(row));
+        }
+    }
+
+    @Test
+    public void textAfterClosingQuoteIsRejected() throws IOException {
+        DelimitedReader reader = DelimitedReader.csv(new StringReader("a,b\n\"c\"d,e\n"));
+        reader.readRow();
+        try {
+            reader.readRow();
+            throw new AssertionError("Text after closing quote was accepted");
+        } catch (IOException e) {
+            if (!e.getMessage().endsWith("line 2")) {
+                throw new AssertionError("Unexpected message: " + e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void rowsAreBatchedIntoSubgraphs() throws IOException {
+        String data = "email\tname\tage:int\temployer:WORKS_FOR->Company.name\tboss:MANAGES<-Person.email\n" +
+                "alice@example.com\tAlice\t33\tAcme\t\n" +
+                "bob@example.com\tBob\t44\tAcme\talice@example.com\n" +
+                "carol@example.com\tCarol\t\tInitech\tbob@example.com\n";
+        DelimitedSubgraphReader reader = new DelimitedSubgraphReader(DelimitedReader.tsv(new StringReader(data)),
+                "Person", "email", null, 2);
+        ArrayList<Subgraph> subgraphs = new ArrayList<>();
+        while (reader.hasMore()) {
+            subgraphs.add(reader.readSubgraph());
+        }
+        if (subgraphs.size() != 2) {
+            throw new AssertionError("Expected 2 subgraphs, read " + subgraphs.size());
+        }
+        // alice, bob and Acme, with alice merged despite being named twice
+        new SubgraphTest(subgraphs.get(0)).assertOrder(3);
+        new SubgraphTest(subgraphs.get(0)).assertSize(3);
+        new SubgraphTest(subgraphs.get(1)).assertOrder(3);
+        new SubgraphTest(subgraphs.get(1)).assertSize(2);
+    }
+
+    @Test
+    public void edgesAreReadWithTypedValues() throws IOException {
+        String data = "-,-,start:long,-,-,-,end,since:int\n" +
+                "Person,id,1,KNOWS,Person,email,bob@example.com,1999\n" +
+                "\n" +
+                "Person,id,2,KNOWS,Company,name,Acme,\n";
+        EdgeListReader reader = new EdgeListReader(DelimitedReader.csv(new StringReader(data)), null);
+        List<EdgeListReader.Edge> edges = reader.readEdges(10);
+        if (edges.size() != 2) {
+            throw new AssertionError("Expected 2 edges, read " + edges.size());
+        }
+        AbstractRelationship first = edges.get(0).getRelationship();
+        if (!first.getStartNode().getProperties().get("id").equals(1L) ||
+                !"Person".equals(first.getStartNode().getHookLabel()) ||
+                !"KNOWS".equals(first.getType()) ||
+                !"bob@example.com".equals(first.getEndNode().getProperties().get("email")) ||
+                !first.getProperties().get("since").equals(1999)) {
+            throw new AssertionError("Unexpected edge " + first);
+        }
+        if (edges.get(1).getRelationship().getProperties() != null) {
+            throw new AssertionError("Empty property fields should be skipped");
+        }
+        if (edges.get(1).getLineNumber() != 4) {
+            throw new AssertionError("Expected line 4, found " + edges.get(1).getLineNumber());
+        }
+        if (!reader.readEdges(10).isEmpty()) {
+            throw new AssertionError("Expected end of data");
+        }
+    }
+
+}
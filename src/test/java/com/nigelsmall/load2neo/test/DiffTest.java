@@ -0,0 +1,109 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.CountingSink;
+import com.nigelsmall.load2neo.NeoSink;
+import com.nigelsmall.load2neo.StreamLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DiffTest {
+
+    final private static String FIRST = ":Person:name:=>(a {\"name\":\"Alice\",\"age\":33,\"tags\":[\"admin\",\"dev\"]})\n" +
+            ":Person:name:=>(b {\"name\":\"Bob\",\"age\":44})\n";
+    final private static String SECOND = ":Person:name:=>(a {\"name\":\"Alice\",\"age\":33,\"tags\":[\"admin\",\"dev\"]})\n" +
+            ":Person:name:=>(b:Manager {\"name\":\"Bob\",\"age\":45})\n" +
+            "(c:Person {\"name\":\"Carol\"})\n";
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private StreamLoader.Result load(String geoff, boolean diff, CountingSink sink) throws IOException {
+        StreamLoader loader = new StreamLoader(this.database);
+        loader.setDiff(diff);
+        loader.setSink(sink);
+        final List<StreamLoader.Result> results = new ArrayList<>();
+        loader.loadGeoff(new StringReader(geoff), new StreamLoader.Callback() {
+
+            @Override
+            public void subgraphLoaded(StreamLoader.Result result) {
+                results.add(result);
+            }
+
+        });
+        if (results.size() != 1) {
+            throw new AssertionError("Expected 1 result, received " + results.size());
+        }
+        return results.get(0);
+    }
+
+    private static void assertCounts(StreamLoader.Result result, long created, long updated, long unchanged) {
+        if (result.getCreatedCount() != created || result.getUpdatedCount() != updated ||
+                result.getUnchangedCount() != unchanged) {
+            throw new AssertionError("Expected " + created + " created, " + updated + " updated and " +
+                    unchanged + " unchanged, counted " + result.getCreatedCount() + ", " +
+                    result.getUpdatedCount() + " and " + result.getUnchangedCount());
+        }
+    }
+
+    @Test
+    public void testOnlyChangesAreWritten() throws IOException {
+        assertCounts(this.load(FIRST, true, null), 2, 0, 0);
+        CountingSink sink = new CountingSink(new NeoSink(this.database));
+        StreamLoader.Result result = this.load(SECOND, true, sink);
+        // Bob gains a label and an age; Carol is created; Alice is left alone
+        assertCounts(result, 1, 1, 1);
+        if (sink.getNodeCount() != 1 || sink.getLabelCount() != 2 || sink.getPropertyCount() != 2) {
+            throw new AssertionError("Expected 1 node, 2 labels and 2 properties written, counted " +
+                    sink.getNodeCount() + ", " + sink.getLabelCount() + " and " + sink.getPropertyCount());
+        }
+        try (Transaction tx = this.database.beginTx()) {
+            Node bob = this.database.findNodesByLabelAndProperty(DynamicLabel.label("Person"), "name", "Bob").iterator().next();
+            if (!bob.hasLabel(DynamicLabel.label("Manager")) || !bob.getProperty("age").equals(45)) {
+                throw new AssertionError("Changes to Bob were not written");
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testUnchangedDocumentTakesNoWrites() throws IOException {
+        this.load(FIRST, true, null);
+        CountingSink sink = new CountingSink(new NeoSink(this.database));
+        assertCounts(this.load(FIRST, true, sink), 0, 0, 2);
+        if (sink.getNodeCount() != 0 || sink.getLabelCount() != 0 || sink.getPropertyCount() != 0) {
+            throw new AssertionError("Unchanged nodes were written to");
+        }
+    }
+
+    @Test
+    public void testEveryHookedNodeIsWrittenOutsideDiffMode() throws IOException {
+        this.load(FIRST, false, null);
+        CountingSink sink = new CountingSink(new NeoSink(this.database));
+        assertCounts(this.load(FIRST, false, sink), 0, 2, 0);
+        if (sink.getLabelCount() != 2 || sink.getPropertyCount() != 5) {
+            throw new AssertionError("Expected 2 labels and 5 properties written, counted " +
+                    sink.getLabelCount() + " and " + sink.getPropertyCount());
+        }
+    }
+
+}
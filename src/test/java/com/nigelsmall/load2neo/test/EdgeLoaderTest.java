@@ -0,0 +1,120 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.HookAdvisor;
+import com.nigelsmall.load2neo.NeoEdgeLoader;
+import com.nigelsmall.load2neo.csv.DelimitedReader;
+import com.nigelsmall.load2neo.csv.EdgeListReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class EdgeLoaderTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try (Transaction tx = this.database.beginTx()) {
+            for (String name : new String[] {"Alice", "Bob", "Carol"}) {
+                this.database.createNode(DynamicLabel.label("Person")).setProperty("name", name);
+            }
+            tx.success();
+        }
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private List<AbstractRelationship> readEdges(String data) throws IOException {
+        EdgeListReader reader = new EdgeListReader(DelimitedReader.csv(new StringReader(data)), null);
+        ArrayList<AbstractRelationship> relationships = new ArrayList<>();
+        for (EdgeListReader.Edge edge : reader.readEdges(100)) {
+            relationships.add(edge.getRelationship());
+        }
+        return relationships;
+    }
+
+    @Test
+    public void testMissingEndsAreReported() throws IOException {
+        List<AbstractRelationship> relationships = readEdges("-,-,-,-,-,-,-,since:int\n" +
+                "Person,name,Alice,KNOWS,Person,name,Bob,1999\n" +
+                "Person,name,Alice,KNOWS,Person,name,Dave,2000\n" +
+                "Person,name,Eve,KNOWS,Person,name,Carol,2001\n" +
+                "Person,name,Bob,KNOWS,Person,name,Carol,2002\n");
+        NeoEdgeLoader loader = new NeoEdgeLoader(this.database);
+        BitSet missing;
+        try (Transaction tx = this.database.beginTx()) {
+            missing = loader.load(relationships);
+            tx.success();
+        }
+        BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(2);
+        if (!missing.equals(expected) || loader.getCreatedCount() != 2) {
+            throw new AssertionError("Expected relationships 1 and 2 missing and 2 created, found " +
+                    missing + " and " + loader.getCreatedCount());
+        }
+        try (Transaction tx = this.database.beginTx()) {
+            int count = 0;
+            for (Relationship relationship : GlobalGraphOperations.at(this.database).getAllRelationships()) {
+                if (relationship.getStartNode().getProperty("name").equals("Alice") &&
+                        !relationship.getEndNode().getProperty("name").equals("Bob")) {
+                    throw new AssertionError("Relationship created to a missing node");
+                }
+                if (!(relationship.getProperty("since") instanceof Integer)) {
+                    throw new AssertionError("Relationship property was not typed");
+                }
+                count += 1;
+            }
+            if (count != 2) {
+                throw new AssertionError("Expected 2 relationships, found " + count);
+            }
+            // missing nodes are never created
+            int people = 0;
+            for (Node node : GlobalGraphOperations.at(this.database).getAllNodesWithLabel(DynamicLabel.label("Person"))) {
+                people += 1;
+            }
+            if (people != 3) {
+                throw new AssertionError("Expected 3 people, found " + people);
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testDuplicateHooksAreResolvedOnce() throws IOException {
+        List<AbstractRelationship> relationships = readEdges("-,-,-,-,-,-,-\n" +
+                "Person,name,Alice,KNOWS,Person,name,Bob\n" +
+                "Person,name,Alice,LIKES,Person,name,Bob\n" +
+                "Person,name,Bob,KNOWS,Person,name,Alice\n" +
+                "Person,name,Alice,KNOWS,Person,name,Dave\n" +
+                "Person,name,Dave,KNOWS,Person,name,Carol\n");
+        HookAdvisor advisor = new HookAdvisor(this.database);
+        NeoEdgeLoader loader = new NeoEdgeLoader(this.database);
+        loader.setHookAdvisor(advisor);
+        try (Transaction tx = this.database.beginTx()) {
+            loader.load(relationships);
+            tx.success();
+        }
+        // Alice, Bob, Dave and Carol, each looked up once
+        long lookups = advisor.getStats().get(0).getLookups();
+        if (lookups != 4 || loader.getCreatedCount() != 3) {
+            throw new AssertionError("Expected 4 lookups and 3 relationships, counted " + lookups +
+                    " and " + loader.getCreatedCount());
+        }
+    }
+
+}
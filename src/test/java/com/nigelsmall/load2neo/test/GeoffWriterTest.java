@@ -0,0 +1,173 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.geoff.writer.GeoffWriter;
+import com.nigelsmall.load2neo.NeoLoader;
+import com.nigelsmall.load2neo.Subgraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+public class GeoffWriterTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private Node createNode(String label, Object... keyValues) {
+        Node node = this.database.createNode(DynamicLabel.label(label));
+        for (int i = 0; i < keyValues.length; i += 2) {
+            node.setProperty((String) keyValues[i], keyValues[i + 1]);
+        }
+        return node;
+    }
+
+    private String export(String label, String key, GeoffWriter[] writerOut) throws IOException {
+        StringBuilder out = new StringBuilder();
+        GeoffWriter writer = new GeoffWriter(this.database, out);
+        try (Transaction tx = this.database.beginTx()) {
+            writer.writeLabel(label, key);
+            tx.success();
+        }
+        if (writerOut != null) {
+            writerOut[0] = writer;
+        }
+        return out.toString();
+    }
+
+    private Map<String, Object> readOnlyNode(String geoff) throws IOException {
+        Subgraph subgraph = new GeoffReader(geoff).readSubgraph();
+        if (subgraph.order() != 1) {
+            throw new AssertionError("Expected one node, read " + subgraph.order() + " from " + geoff);
+        }
+        return subgraph.getNodes().values().iterator().next().getProperties();
+    }
+
+    private void assertValue(Map<String, Object> properties, String key, Object expected) {
+        Object actual = properties.get(key);
+        if (!Arrays.deepEquals(new Object[] {expected}, new Object[] {actual})) {
+            throw new AssertionError("Property " + key + " is " + Arrays.deepToString(new Object[] {actual}) +
+                    ", expected " + Arrays.deepToString(new Object[] {expected}));
+        }
+    }
+
+    @Test
+    public void testValuesRoundTrip() throws IOException {
+        try (Transaction tx = this.database.beginTx()) {
+            this.createNode("Thing",
+                    "int", 42,
+                    "long", Long.MAX_VALUE,
+                    "negative", Long.MIN_VALUE,
+                    "double", 3.5,
+                    "quote", "say \"hello\"",
+                    "backslash", "C:\\temp\\",
+                    "control", "a\tb\nc\r\u0001",
+                    "unicode", "caf\u00e9",
+                    "longs", new long[] {1, 1L << 40},
+                    "strings", new String[] {"a", "b\\"},
+                    "booleans", new boolean[] {true, false});
+            tx.success();
+        }
+        Map<String, Object> properties = this.readOnlyNode(this.export("Thing", null, null));
+        assertValue(properties, "int", 42);
+        assertValue(properties, "long", Long.MAX_VALUE);
+        assertValue(properties, "negative", Long.MIN_VALUE);
+        assertValue(properties, "double", 3.5);
+        assertValue(properties, "quote", "say \"hello\"");
+        assertValue(properties, "backslash", "C:\\temp\\");
+        assertValue(properties, "control", "a\tb\nc\r\u0001");
+        assertValue(properties, "unicode", "caf\u00e9");
+        assertValue(properties, "longs", new Long[] {1L, 1L << 40});
+        assertValue(properties, "strings", new String[] {"a", "b\\"});
+        assertValue(properties, "booleans", new Boolean[] {true, false});
+    }
+
+    @Test
+    public void testNonFiniteNumbersAreOmittedAndCounted() throws IOException {
+        try (Transaction tx = this.database.beginTx()) {
+            this.createNode("Thing",
+                    "name", "Alice",
+                    "nan", Double.NaN,
+                    "infinity", Float.POSITIVE_INFINITY,
+                    "doubles", new double[] {1.0, Double.NEGATIVE_INFINITY});
+            tx.success();
+        }
+        GeoffWriter[] writer = new GeoffWriter[1];
+        Map<String, Object> properties = this.readOnlyNode(this.export("Thing", null, writer));
+        if (writer[0].getOmittedCount() != 3) {
+            throw new AssertionError("Expected 3 omitted properties, counted " + writer[0].getOmittedCount());
+        }
+        if (properties.size() != 1) {
+            throw new AssertionError("Non-finite values were written: " + properties);
+        }
+        assertValue(properties, "name", "Alice");
+    }
+
+    @Test
+    public void testExportLoadsIntoAnotherDatabase() throws IOException {
+        try (Transaction tx = this.database.beginTx()) {
+            Node alice = this.createNode("Person", "email", "alice@example.com");
+            Node bob = this.createNode("Person", "email", "bob@example.com");
+            alice.createRelationshipTo(bob, DynamicRelationshipType.withName("KNOWS")).setProperty("since", 1999);
+            tx.success();
+        }
+        String geoff = this.export("Person", "email", null);
+        GraphDatabaseService copy = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            NeoLoader loader = new NeoLoader(copy);
+            GeoffReader reader = new GeoffReader(geoff);
+            while (reader.hasMore()) {
+                try (Transaction tx = copy.beginTx()) {
+                    loader.load(reader.readSubgraph());
+                    tx.success();
+                }
+            }
+            try (Transaction tx = copy.beginTx()) {
+                int nodes = 0;
+                for (Node node : GlobalGraphOperations.at(copy).getAllNodesWithLabel(DynamicLabel.label("Person"))) {
+                    nodes += 1;
+                }
+                int relationships = 0;
+                for (Relationship rel : GlobalGraphOperations.at(copy).getAllRelationships()) {
+                    if (!rel.getStartNode().getProperty("email").equals("alice@example.com") ||
+                            !rel.getEndNode().getProperty("email").equals("bob@example.com") ||
+                            !rel.getProperty("since").equals(1999)) {
+                        throw new AssertionError("Unexpected relationship " + rel);
+                    }
+                    relationships += 1;
+                }
+                if (nodes != 2 || relationships != 1) {
+                    throw new AssertionError("Expected 2 nodes and 1 relationship, loaded " +
+                            nodes + " and " + relationships);
+                }
+                tx.success();
+            }
+        } finally {
+            copy.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHookExportNeedsKey() throws IOException {
+        try (Transaction tx = this.database.beginTx()) {
+            new GeoffWriter(this.database, new StringBuilder()).writeHook("Person", null, null, 0);
+            tx.success();
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.HookAdvisor;
+import com.nigelsmall.load2neo.Subgraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class HookAdvisorTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private HookAdvisor.HookStats stats(HookAdvisor advisor, String label, String key) {
+        for (HookAdvisor.HookStats hookStats : advisor.getStats()) {
+            if (hookStats.getLabel().equals(label) && hookStats.getKey().equals(key)) {
+                return hookStats;
+            }
+        }
+        throw new AssertionError("No statistics for :" + label + "(" + key + ")");
+    }
+
+    private int countOnlineIndexes(String label) {
+        int count = 0;
+        try (Transaction tx = this.database.beginTx()) {
+            for (IndexDefinition index : this.database.schema().getIndexes(DynamicLabel.label(label))) {
+                if (this.database.schema().getIndexState(index) == Schema.IndexState.ONLINE) {
+                    count += 1;
+                }
+            }
+            tx.success();
+        }
+        return count;
+    }
+
+    @Test
+    public void testUnindexedLookupsAreCountedAsScans() {
+        HookAdvisor advisor = new HookAdvisor(this.database);
+        try (Transaction tx = this.database.beginTx()) {
+            advisor.record("Person", "name", 1000);
+            advisor.record("Person", "name", 2000);
+            tx.success();
+        }
+        HookAdvisor.HookStats hookStats = stats(advisor, "Person", "name");
+        if (hookStats.isIndexed() || hookStats.getLookups() != 2 || hookStats.getScans() != 2 ||
+                hookStats.getScanNanos() != 3000) {
+            throw new AssertionError("Unindexed lookups were not counted as scans");
+        }
+    }
+
+    @Test
+    public void testPrepareCreatesMissingIndexes() throws IOException {
+        HookAdvisor advisor = new HookAdvisor(this.database);
+        Subgraph subgraph = new GeoffReader(":Person:name:=>(a {\"name\":\"Alice\"})\n" +
+                ":Account:tenant:id:=>(b {\"tenant\":\"acme\",\"id\":42})").readSubgraph();
+        advisor.prepare(subgraph, false);
+        if (stats(advisor, "Person", "name").isIndexed() || countOnlineIndexes("Person") != 0) {
+            throw new AssertionError("Index was created without being asked for");
+        }
+        advisor.prepare(subgraph, true);
+        // no key of the composite hook was indexed, so each one is
+        if (countOnlineIndexes("Person") != 1 || countOnlineIndexes("Account") != 2) {
+            throw new AssertionError("Missing indexes were not created and brought online");
+        }
+        try (Transaction tx = this.database.beginTx()) {
+            advisor.record("Person", "name", 1000);
+            tx.success();
+        }
+        HookAdvisor.HookStats hookStats = stats(advisor, "Person", "name");
+        if (!hookStats.isIndexed() || !stats(advisor, "Account", "id").isIndexed() || hookStats.getScans() != 0) {
+            throw new AssertionError("Created indexes are not counted as backing lookups");
+        }
+    }
+
+    @Test
+    public void testIndexNotOnlineInTimeFails() throws IOException {
+        try (Transaction tx = this.database.beginTx()) {
+            for (int i = 0; i < 50000; i++) {
+                this.database.createNode(DynamicLabel.label("Person")).setProperty("name", "person" + i);
+            }
+            tx.success();
+        }
+        HookAdvisor advisor = new HookAdvisor(this.database);
+        Subgraph subgraph = new GeoffReader(":Person:name:=>(a {\"name\":\"Alice\"})").readSubgraph();
+        try {
+            // far too short for the index to be populated
+            advisor.prepare(subgraph, true, 0, TimeUnit.SECONDS);
+            throw new AssertionError("Index was not waited for");
+        } catch (IllegalStateException e) {
+            if (!e.getMessage().startsWith("Index on :Person(name) is not online")) {
+                throw new AssertionError("Unexpected message: " + e.getMessage());
+            }
+        }
+        if (stats(advisor, "Person", "name").isIndexed()) {
+            throw new AssertionError("Index still being populated is counted as backing lookups");
+        }
+        // the index being populated is waited for, not created again
+        advisor.prepare(subgraph, true);
+        if (!stats(advisor, "Person", "name").isIndexed() || countOnlineIndexes("Person") != 1) {
+            throw new AssertionError("Index being populated was not waited for");
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.HookLocks;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class HookLocksTest {
+
+    @Test
+    public void testSameHookHasSameStripe() {
+        HookLocks locks = new HookLocks(64, 1, TimeUnit.SECONDS);
+        if (locks.stripeFor("Person", "name", "Alice") != locks.stripeFor("Person", "name", "Alice")) {
+            throw new AssertionError("Equal hooks have different stripes");
+        }
+        if (locks.stripeFor("Person", "ids", new Long[] {1L, 2L}) !=
+                locks.stripeFor("Person", "ids", new Long[] {1L, 2L})) {
+            throw new AssertionError("Equal array hooks have different stripes");
+        }
+        int stripe = locks.stripeFor("Person", null, null);
+        if (stripe < 0 || stripe >= locks.getStripeCount()) {
+            throw new AssertionError("Stripe " + stripe + " out of range");
+        }
+    }
+
+    @Test
+    public void testHeldStripeBlocksOtherThreads() throws Exception {
+        final HookLocks locks = new HookLocks(64, 100, TimeUnit.MILLISECONDS);
+        final BitSet stripes = new BitSet();
+        stripes.set(locks.stripeFor("Person", "name", "Alice"));
+        stripes.set(locks.stripeFor("Person", "name", "Bob"));
+        ArrayList<ReentrantLock> held = new ArrayList<>();
+        locks.acquire(stripes, held);
+        if (held.size() != stripes.cardinality()) {
+            throw new AssertionError("Held " + held.size() + " locks, expected " + stripes.cardinality());
+        }
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    locks.acquire(stripes, new ArrayList<ReentrantLock>());
+                } catch (IllegalStateException e) {
+                    timedOut.set(true);
+                }
+            }
+        };
+        other.start();
+        other.join();
+        if (!timedOut.get()) {
+            throw new AssertionError("Held stripes were acquired by another thread");
+        }
+        HookLocks.release(held);
+        if (!held.isEmpty()) {
+            throw new AssertionError("Released locks were not forgotten");
+        }
+        locks.acquire(stripes, held);
+        HookLocks.release(held);
+    }
+
+}
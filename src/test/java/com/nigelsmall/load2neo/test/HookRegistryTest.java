@@ -0,0 +1,195 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.HookRegistry;
+import com.nigelsmall.load2neo.NeoLoader;
+import com.nigelsmall.load2neo.util.NameMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+public class HookRegistryTest {
+
+    private File temporaryFile() throws IOException {
+        File file = File.createTempFile("load2neo-registry-", ".reg");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void entriesSurviveGrowthAndReopening() throws IOException {
+        File file = temporaryFile();
+        HookRegistry registry = new HookRegistry(file);
+        for (int i = 0; i < 5000; i++) {
+            registry.put("Person", "id", i, i * 2L);
+        }
+        registry.put("Person", "name", new String[] {"Alice", "Smith"}, 1L);
+        registry.close();
+        registry = new HookRegistry(file);
+        if (registry.size() != 5001) {
+            throw new AssertionError("Registry holds " + registry.size() + " entries, expected 5001");
+        }
+        for (int i = 0; i < 5000; i++) {
+            if (registry.get("Person", "id", i) != i * 2L) {
+                throw new AssertionError("Hook " + i + " is not registered");
+            }
+        }
+        if (registry.get("Person", "name", new String[] {"Alice", "Smith"}) != 1L) {
+            throw new AssertionError("Array hook is not registered");
+        }
+        if (registry.get("Person", "id", "1") != HookRegistry.NONE) {
+            throw new AssertionError("String hook matches number hook");
+        }
+        registry.close();
+    }
+
+    @Test
+    public void unreadableFilesAreReplaced() throws IOException {
+        File file = temporaryFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[100]);
+        }
+        HookRegistry registry = new HookRegistry(file);
+        if (registry.size() != 0) {
+            throw new AssertionError("Unreadable registry was not replaced");
+        }
+        registry.put("Person", "id", 1, 1L);
+        if (registry.get("Person", "id", 1) != 1L) {
+            throw new AssertionError("Hook is not registered");
+        }
+        registry.close();
+    }
+
+    @Test
+    public void growthReplacesFileDespiteLeftoverTemporary() throws IOException {
+        File file = temporaryFile();
+        // as if a crash had interrupted an earlier growth
+        File temporary = new File(file.getPath() + ".tmp");
+        temporary.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(new byte[100]);
+        }
+        HookRegistry registry = new HookRegistry(file);
+        long length = file.length();
+        for (int i = 0; i < 2000; i++) {
+            registry.put("Person", "id", i, i);
+        }
+        registry.close();
+        if (temporary.exists() || file.length() <= length) {
+            throw new AssertionError("Registry file was not replaced on growth");
+        }
+        registry = new HookRegistry(file);
+        if (registry.size() != 2000 || registry.get("Person", "id", 1999) != 1999) {
+            throw new AssertionError("Entries were lost on growth");
+        }
+        registry.close();
+    }
+
+    @Test
+    public void truncatedFilesAreReplaced() throws IOException {
+        File file = temporaryFile();
+        HookRegistry registry = new HookRegistry(file);
+        registry.put("Person", "id", 1, 1L);
+        registry.close();
+        // as if a crash had cut short a write of the file
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        registry = new HookRegistry(file);
+        if (registry.size() != 0 || registry.get("Person", "id", 1) != HookRegistry.NONE) {
+            throw new AssertionError("Truncated registry was not replaced");
+        }
+        registry.close();
+    }
+
+    private static long createPerson(GraphDatabaseService database, String name) {
+        Node node = database.createNode(DynamicLabel.label("Person"));
+        if (name != null) {
+            node.setProperty("name", name);
+        }
+        return node.getId();
+    }
+
+    @Test
+    public void staleEntriesFallBackToTheIndex() throws IOException {
+        File directory = Files.createTempDirectory("load2neo-registry-").toFile();
+        GraphDatabaseService database = new GraphDatabaseFactory().newEmbeddedDatabase(directory.getPath());
+        try {
+            long alice;
+            long bob;
+            try (Transaction tx = database.beginTx()) {
+                alice = createPerson(database, "Alice");
+                bob = createPerson(database, "Bob");
+                tx.success();
+            }
+            HookRegistry registry = HookRegistry.forDatabase(database);
+            // entries such as a rolled back transaction or a crash could leave
+            registry.put("Person", "name", "Alice", bob);
+            registry.put("Person", "name", "Carol", 9999);
+            NeoLoader loader = new NeoLoader(database);
+            loader.setHookRegistry(registry);
+            NameMap nodeIds;
+            try (Transaction tx = database.beginTx()) {
+                nodeIds = loader.load(new GeoffReader(":Person:name:=>(a {\"name\":\"Alice\"})\n" +
+                        ":Person:name:=>(c {\"name\":\"Carol\"})").readSubgraph()).copy();
+                tx.success();
+            }
+            if (nodeIds.get("a") != alice || nodeIds.get("c") == 9999) {
+                throw new AssertionError("Stale registry entries were used");
+            }
+            if (registry.get("Person", "name", "Alice") != alice ||
+                    registry.get("Person", "name", "Carol") != nodeIds.get("c")) {
+                throw new AssertionError("Hooks resolved through the index were not registered");
+            }
+        } finally {
+            database.shutdown();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void rebuildRegistersEveryNodeWithLabelAndKey() throws IOException {
+        File directory = Files.createTempDirectory("load2neo-registry-").toFile();
+        GraphDatabaseService database = new GraphDatabaseFactory().newEmbeddedDatabase(directory.getPath());
+        try {
+            long alice;
+            long bob;
+            try (Transaction tx = database.beginTx()) {
+                alice = createPerson(database, "Alice");
+                bob = createPerson(database, "Bob");
+                createPerson(database, null);
+                database.createNode(DynamicLabel.label("Robot")).setProperty("name", "Marvin");
+                tx.success();
+            }
+            HookRegistry registry = HookRegistry.forDatabase(database);
+            long count;
+            try (Transaction tx = database.beginTx()) {
+                count = registry.rebuild(database, "Person", "name");
+                tx.success();
+            }
+            if (count != 2 || registry.size() != 2) {
+                throw new AssertionError("Expected 2 nodes registered, counted " + count);
+            }
+            if (registry.get("Person", "name", "Alice") != alice || registry.get("Person", "name", "Bob") != bob) {
+                throw new AssertionError("Rebuilt registry does not hold every node");
+            }
+            if (registry.get("Robot", "name", "Marvin") != HookRegistry.NONE) {
+                throw new AssertionError("Rebuilt registry holds nodes with another label");
+            }
+        } finally {
+            database.shutdown();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+}
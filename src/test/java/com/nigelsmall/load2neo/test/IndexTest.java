@@ -0,0 +1,66 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffIndex;
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.Subgraph;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URL;
+
+public class IndexTest {
+
+    private File resource(String name) {
+        URL url = Thread.currentThread().getContextClassLoader().getResource(name);
+        return new File(url.getPath());
+    }
+
+    @Test
+    public void eachIndexedSubgraphCanBeReadInIsolation() throws IOException {
+        File file = resource("test.geoff");
+        GeoffIndex index = GeoffIndex.build(file);
+        if (index.count() != 3) {
+            throw new AssertionError("Expected 3 subgraphs, found " + index.count());
+        }
+        for (int i = 0; i < index.count(); i++) {
+            GeoffIndex.Entry entry = index.get(i);
+            GeoffReader reader = index.open(file, i);
+            Subgraph subgraph = reader.readSubgraph();
+            if (subgraph.order() != entry.order() || subgraph.size() != entry.size()) {
+                throw new AssertionError("Subgraph " + i + " does not match its index entry");
+            }
+            if (reader.hasMore()) {
+                throw new AssertionError("Reader for subgraph " + i + " does not stop at its end");
+            }
+            new SubgraphTest(subgraph).run();
+        }
+    }
+
+    @Test
+    public void indexSurvivesSaveAndLoad() throws IOException {
+        File file = resource("test.geoff");
+        GeoffIndex index = GeoffIndex.build(file);
+        File sidecar = File.createTempFile("test", ".geoff" + GeoffIndex.SUFFIX);
+        sidecar.deleteOnExit();
+        index.save(sidecar);
+        GeoffIndex loaded = GeoffIndex.load(sidecar);
+        if (loaded.count() != index.count()) {
+            throw new AssertionError("Loaded index has " + loaded.count() + " entries");
+        }
+        for (int i = 0; i < index.count(); i++) {
+            if (!index.get(i).toString().equals(loaded.get(i).toString())) {
+                throw new AssertionError("Entry " + i + " differs after reload");
+            }
+        }
+        GeoffReader reader = loaded.open(file, 1, 3);
+        int count = 0;
+        while (reader.hasMore()) {
+            reader.readSubgraph();
+            count += 1;
+        }
+        if (count != 2) {
+            throw new AssertionError("Expected 2 subgraphs in range, read " + count);
+        }
+    }
+
+}
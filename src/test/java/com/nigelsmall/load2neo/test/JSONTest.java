@@ -0,0 +1,63 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.json.JSONSubgraphReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class JSONTest {
+
+    private static final String DATA =
+            "{\"hook\":\"alice\",\"label\":\"Person\",\"key\":\"name\",\"properties\":{\"name\":\"Alice\"}}\n" +
+            "{\"node\":\"bob\",\"labels\":[\"Person\"],\"properties\":{\"name\":\"Bob\",\"age\":44,\"ids\":[1,9876543210]}}\n" +
+            "{\"start\":\"alice\",\"type\":\"KNOWS\",\"end\":\"bob\",\"properties\":{\"since\":1999}}\n" +
+            "{\"boundary\":true}\n" +
+            "{\"node\":null,\"properties\":{\"weight\":1.5}}\n" +
+            "{\"node\":null}\n" +
+            "{\"node\":null}\n";
+
+    private ArrayList<Subgraph> readAll(int batchSize) throws IOException {
+        JSONSubgraphReader reader = new JSONSubgraphReader(new StringReader(DATA), batchSize);
+        ArrayList<Subgraph> subgraphs = new ArrayList<>();
+        while (reader.hasMore()) {
+            subgraphs.add(reader.readSubgraph());
+        }
+        return subgraphs;
+    }
+
+    @Test
+    public void recordsAreReadUpToBoundaries() throws IOException {
+        ArrayList<Subgraph> subgraphs = readAll(0);
+        if (subgraphs.size() != 2) {
+            throw new AssertionError("Expected 2 subgraphs, read " + subgraphs.size());
+        }
+        SubgraphTest test = new SubgraphTest(subgraphs.get(0));
+        test.assertOrder(2);
+        test.assertSize(1);
+        test.assertHook("alice");
+        test.assertNodeLabel("bob", "Person");
+        test.assertNodeProperty("bob", "age", 44);
+        Object ids = subgraphs.get(0).getNodes().get("bob").getProperties().get("ids");
+        if (!Arrays.equals((Object[]) ids, new Long[] {1L, 9876543210L})) {
+            throw new AssertionError("Integer array was not widened to longs");
+        }
+        test.assertRelationship("alice", "KNOWS", "bob");
+        new SubgraphTest(subgraphs.get(1)).assertOrder(3);
+    }
+
+    @Test
+    public void recordsAreBatchedIntoSubgraphs() throws IOException {
+        ArrayList<Subgraph> subgraphs = readAll(2);
+        if (subgraphs.size() != 4) {
+            throw new AssertionError("Expected 4 subgraphs, read " + subgraphs.size());
+        }
+        new SubgraphTest(subgraphs.get(0)).assertOrder(2);
+        new SubgraphTest(subgraphs.get(1)).assertSize(1);
+        new SubgraphTest(subgraphs.get(3)).assertOrder(1);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.NeoLoader;
+import com.nigelsmall.load2neo.util.NameMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+
+public class PlanningTest {
+
+    // two differently named nodes with the same hook, in one subgraph
+    final private static String GEOFF = ":Person:name:=>(a {\"name\":\"Alice\",\"age\":33})\n" +
+            ":Person:name:=>(b {\"name\":\"Alice\",\"city\":\"London\"})\n" +
+            "(a)-[:KNOWS]->(c {\"name\":\"Carol\"})\n(b)-[:LIKES]->(c)";
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private void assertOneAlice(boolean planning) throws IOException {
+        NeoLoader loader = new NeoLoader(this.database);
+        loader.setPlanning(planning);
+        NameMap nodeIds;
+        try (Transaction tx = this.database.beginTx()) {
+            nodeIds = loader.load(new GeoffReader(GEOFF).readSubgraph());
+            tx.success();
+        }
+        if (nodeIds.get("a") != nodeIds.get("b")) {
+            throw new AssertionError("Nodes with the same hook were loaded as " + nodeIds.get("a") +
+                    " and " + nodeIds.get("b"));
+        }
+        if (loader.getCreatedCount() != 4 || loader.getUpdatedCount() != 1) {
+            throw new AssertionError("Expected 4 created and 1 updated, counted " + loader.getCreatedCount() +
+                    " and " + loader.getUpdatedCount());
+        }
+        try (Transaction tx = this.database.beginTx()) {
+            int count = 0;
+            for (Node node : GlobalGraphOperations.at(this.database).getAllNodesWithLabel(DynamicLabel.label("Person"))) {
+                int degree = 0;
+                for (Relationship relationship : node.getRelationships()) {
+                    degree += 1;
+                }
+                if (!node.getProperty("age").equals(33) || !node.getProperty("city").equals("London") ||
+                        degree != 2) {
+                    throw new AssertionError("Alice was not given everything written to either node");
+                }
+                count += 1;
+            }
+            if (count != 1) {
+                throw new AssertionError("Expected 1 person, found " + count);
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testSameHookIsCreatedOnceWhenPlanned() throws IOException {
+        assertOneAlice(true);
+    }
+
+    @Test
+    public void testSameHookIsCreatedOnceWhenNotPlanned() throws IOException {
+        assertOneAlice(false);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.StreamLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProfileTest {
+
+    final private static String GEOFF = ":Person:name:=>(a {\"name\":\"Alice\"})\n" +
+            "(a)-[:KNOWS]->(b:Person {\"name\":\"Bob\"})\n~~~~\n" +
+            ":Person:name:=>(a {\"name\":\"Alice\"})\n" +
+            "(a)-[:KNOWS]->(c:Person {\"name\":\"Carol\"})\n";
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private List<StreamLoader.Result> load(boolean profile, int batchSize) throws IOException {
+        StreamLoader loader = new StreamLoader(this.database);
+        loader.setProfile(profile);
+        loader.setBatchSize(batchSize);
+        final List<StreamLoader.Result> results = new ArrayList<>();
+        loader.loadGeoff(new StringReader(GEOFF), new StreamLoader.Callback() {
+
+            @Override
+            public void subgraphLoaded(StreamLoader.Result result) {
+                results.add(result);
+            }
+
+        });
+        if (results.size() != 2) {
+            throw new AssertionError("Expected 2 results, received " + results.size());
+        }
+        return results;
+    }
+
+    @Test
+    public void testEveryPhaseIsTimed() throws IOException {
+        for (StreamLoader.Result result : this.load(true, 1)) {
+            if (result.getParseNanos() <= 0 || result.getHookNanos() <= 0 || result.getNodeNanos() <= 0 ||
+                    result.getRelationshipNanos() <= 0 || result.getCommitNanos() <= 0) {
+                throw new AssertionError("Phase of subgraph " + result.getNumber() + " was not timed");
+            }
+            if (result.getAllocatedBytes() <= 0) {
+                throw new AssertionError("Allocation for subgraph " + result.getNumber() + " was not measured");
+            }
+        }
+    }
+
+    @Test
+    public void testCommitTimeIsSharedByBatch() throws IOException {
+        List<StreamLoader.Result> results = this.load(true, 2);
+        if (results.get(0).getCommitNanos() <= 0 ||
+                results.get(0).getCommitNanos() != results.get(1).getCommitNanos()) {
+            throw new AssertionError("Subgraphs in the same batch have different commit times");
+        }
+    }
+
+    @Test
+    public void testAllocationIsOnlyMeasuredWhenProfiling() throws IOException {
+        for (StreamLoader.Result result : this.load(false, 1)) {
+            if (result.getAllocatedBytes() != 0) {
+                throw new AssertionError("Allocation was measured without profiling");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.binary.GeoffDecoder;
+import com.nigelsmall.geoff.binary.GeoffEncoder;
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.geoff.reader.GeoffReaderException;
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class ReferenceTest {
+
+    final private static String GEOFF = "(#12)-[:KNOWS]->(bob)\n(#12 :Person {\"age\":33})\n(bob)<-[:LIKES]-(#7)";
+
+    private void assertReference(Subgraph subgraph, long nodeId) {
+        AbstractNode node = subgraph.getNodes().get("#" + nodeId);
+        if (node == null || node.getNodeId() == null || node.getNodeId() != nodeId) {
+            throw new AssertionError("Node " + nodeId + " is not referenced by ID");
+        }
+        if (node.isNamed()) {
+            throw new AssertionError("Reference to node " + nodeId + " is named");
+        }
+    }
+
+    // references are not named, so are not covered by SubgraphTest
+    private void assertRelationship(Subgraph subgraph, String startNodeName, String type, String endNodeName) {
+        for (AbstractRelationship rel : subgraph.getRelationships()) {
+            if (rel.getStartNode().getName().equals(startNodeName) && rel.getType().equals(type) &&
+                    rel.getEndNode().getName().equals(endNodeName)) {
+                return;
+            }
+        }
+        throw new AssertionError("Subgraph does not contain relationship \"" +
+                startNodeName + " " + type + " " + endNodeName + "\"");
+    }
+
+    @Test
+    public void referencesAreMergedByNodeId() throws IOException {
+        Subgraph subgraph = new GeoffReader(GEOFF).readSubgraph();
+        SubgraphTest test = new SubgraphTest(subgraph);
+        test.assertOrder(3);
+        test.assertSize(2);
+        assertRelationship(subgraph, "#12", "KNOWS", "bob");
+        assertRelationship(subgraph, "#7", "LIKES", "bob");
+        test.assertNodeLabel("#12", "Person");
+        test.assertNodeProperty("#12", "age", 33);
+        assertReference(subgraph, 12);
+        assertReference(subgraph, 7);
+    }
+
+    @Test
+    public void referencesSurviveBinaryEncoding() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GeoffEncoder encoder = new GeoffEncoder(out);
+        encoder.writeSubgraph(new GeoffReader(GEOFF).readSubgraph());
+        encoder.close();
+        Subgraph subgraph = new GeoffDecoder(new ByteArrayInputStream(out.toByteArray())).readSubgraph();
+        assertRelationship(subgraph, "#12", "KNOWS", "bob");
+        assertReference(subgraph, 12);
+        assertReference(subgraph, 7);
+    }
+
+    @Test(expected = GeoffReaderException.class)
+    public void hooksCannotReferToNodesById() throws IOException {
+        new GeoffReader(":Person:name:=>(#12)").readSubgraph();
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.ReplayLog;
+import com.nigelsmall.load2neo.StreamLoader;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.json.JSONSubgraphReader;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReplayLogTest {
+
+    private List<String> geoffHashes(String source) throws IOException {
+        GeoffReader reader = new GeoffReader(new StringReader(source));
+        reader.setHashing(true);
+        ArrayList<String> hashes = new ArrayList<>();
+        while (reader.hasMore()) {
+            hashes.add(ReplayLog.hash(reader.readSubgraph()));
+        }
+        return hashes;
+    }
+
+    private String jsonHash(String source) throws IOException {
+        Subgraph subgraph = new JSONSubgraphReader(new StringReader(source), 0).readSubgraph();
+        return ReplayLog.hash(subgraph);
+    }
+
+    @Test
+    public void testGeoffHashIgnoresBoundaries() throws IOException {
+        List<String> hashes = geoffHashes("(a {\"name\":\"Alice\"})-[:KNOWS]->(b)\n~~~~\n" +
+                "(a {\"name\":\"Bob\"})-[:KNOWS]->(b)\n~~~~\n" +
+                "(a {\"name\":\"Alice\"})-[:KNOWS]->(b)\n");
+        if (!hashes.get(0).equals(hashes.get(2))) {
+            throw new AssertionError("Equal subgraphs have different hashes");
+        }
+        if (hashes.get(0).equals(hashes.get(1))) {
+            throw new AssertionError("Different subgraphs have the same hash");
+        }
+    }
+
+    @Test
+    public void testEntityHashIgnoresOrder() throws IOException {
+        String hash1 = jsonHash("{\"node\":\"a\",\"labels\":[\"Person\"],\"properties\":{\"name\":\"Alice\"}}\n" +
+                "{\"node\":\"b\",\"properties\":{\"name\":\"Bob\"}}\n" +
+                "{\"start\":\"a\",\"type\":\"KNOWS\",\"end\":\"b\"}\n");
+        String hash2 = jsonHash("{\"start\":\"a\",\"type\":\"KNOWS\",\"end\":\"b\"}\n" +
+                "{\"node\":\"b\",\"properties\":{\"name\":\"Bob\"}}\n" +
+                "{\"node\":\"a\",\"labels\":[\"Person\"],\"properties\":{\"name\":\"Alice\"}}\n");
+        if (!hash1.equals(hash2)) {
+            throw new AssertionError("Reordered subgraphs have different hashes");
+        }
+        String hash3 = jsonHash("{\"node\":\"a\",\"labels\":[\"Person\"],\"properties\":{\"name\":\"Alice\"}}\n" +
+                "{\"node\":\"b\",\"properties\":{\"name\":\"Bob\"}}\n" +
+                "{\"start\":\"b\",\"type\":\"KNOWS\",\"end\":\"a\"}\n");
+        if (hash1.equals(hash3)) {
+            throw new AssertionError("Different subgraphs have the same hash");
+        }
+    }
+
+    private String entityHash(String geoff) throws IOException {
+        // without hashing, the reader gives no hash of its own
+        return ReplayLog.hash(new GeoffReader(geoff).readSubgraph());
+    }
+
+    @Test
+    public void testEntityHashTellsShapesApart() throws IOException {
+        String path = entityHash("()-[:R]->()-[:R]->()");
+        if (path.equals(entityHash("(a)-[:R]->()\n(a)-[:R]->()"))) {
+            throw new AssertionError("Path and named fan-out have the same hash");
+        }
+        if (path.equals(entityHash("()<-[:R]-()-[:R]->()"))) {
+            throw new AssertionError("Path and anonymous fan-out have the same hash");
+        }
+        if (!path.equals(entityHash("()-[:R]->()-[:R]->()"))) {
+            throw new AssertionError("Equal subgraphs have different hashes");
+        }
+    }
+
+    @Test
+    public void testEntityHashIgnoresOrderOfAnonymousNodes() throws IOException {
+        String hash1 = entityHash("({\"name\":\"Alice\"})-[:KNOWS]->({\"name\":\"Bob\"})\n" +
+                "({\"name\":\"Carol\"})-[:KNOWS]->({\"name\":\"Dave\"})");
+        String hash2 = entityHash("({\"name\":\"Carol\"})-[:KNOWS]->({\"name\":\"Dave\"})\n" +
+                "({\"name\":\"Alice\"})-[:KNOWS]->({\"name\":\"Bob\"})");
+        if (!hash1.equals(hash2)) {
+            throw new AssertionError("Reordered anonymous nodes have different hashes");
+        }
+        String hash3 = entityHash("({\"name\":\"Alice\"})-[:KNOWS]->({\"name\":\"Dave\"})\n" +
+                "({\"name\":\"Carol\"})-[:KNOWS]->({\"name\":\"Bob\"})");
+        if (hash1.equals(hash3)) {
+            throw new AssertionError("Different subgraphs have the same hash");
+        }
+    }
+
+    private List<StreamLoader.Result> load(GraphDatabaseService database, String geoff, int batchSize)
+            throws IOException {
+        StreamLoader loader = new StreamLoader(database);
+        loader.setIdempotent(true);
+        loader.setBatchSize(batchSize);
+        final List<StreamLoader.Result> results = new ArrayList<>();
+        loader.loadGeoff(new StringReader(geoff), new StreamLoader.Callback() {
+
+            @Override
+            public void subgraphLoaded(StreamLoader.Result result) {
+                results.add(result);
+            }
+
+        });
+        return results;
+    }
+
+    /**
+     * @return a description of every node and relationship, replay records
+     *         included, so that any write shows up as a difference
+     */
+    private String describe(GraphDatabaseService database) {
+        StringBuilder s = new StringBuilder();
+        try (Transaction tx = database.beginTx()) {
+            GlobalGraphOperations operations = GlobalGraphOperations.at(database);
+            for (Node node : operations.getAllNodes()) {
+                s.append(node.getId());
+                for (Label label : node.getLabels()) {
+                    s.append(':').append(label.name());
+                }
+                for (String key : node.getPropertyKeys()) {
+                    s.append(' ').append(key).append('=').append(node.getProperty(key));
+                }
+                s.append('\n');
+            }
+            for (Relationship relationship : operations.getAllRelationships()) {
+                s.append(relationship.getId()).append(relationship.getType().name()).append('\n');
+            }
+            tx.success();
+        }
+        return s.toString();
+    }
+
+    @Test
+    public void testSecondLoadWritesNothing() throws IOException {
+        String geoff = "(a:Person {\"name\":\"Alice\"})-[:KNOWS]->(b:Person {\"name\":\"Bob\"})\n~~~~\n" +
+                "(c:Person {\"name\":\"Carol\"})\n~~~~\n" +
+                "(a:Person {\"name\":\"Alice\"})-[:KNOWS]->(b:Person {\"name\":\"Bob\"})\n";
+        GraphDatabaseService database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            List<StreamLoader.Result> first = this.load(database, geoff, 2);
+            // the third subgraph repeats the first
+            if (first.get(0).isReplayed() || first.get(1).isReplayed() || !first.get(2).isReplayed() ||
+                    !first.get(2).toJSON().equals(first.get(0).toJSON())) {
+                throw new AssertionError("Only the repeated subgraph should be replayed");
+            }
+            String before = describe(database);
+            List<StreamLoader.Result> second = this.load(database, geoff, 1);
+            for (int i = 0; i < 3; i++) {
+                StreamLoader.Result result = second.get(i);
+                if (!result.isReplayed() || result.getCreatedCount() != 0 ||
+                        !result.toJSON().equals(first.get(i).toJSON())) {
+                    throw new AssertionError("Subgraph " + i + " was not replayed as first loaded");
+                }
+            }
+            if (!describe(database).equals(before)) {
+                throw new AssertionError("Replayed load wrote to the database");
+            }
+        } finally {
+            database.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.geoff.reader.GeoffReaderException;
+import com.nigelsmall.load2neo.Subgraph;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class ResyncTest {
+
+    final private static String GEOFF = "(a {\"name\":\"Alice\"})\n~~~~\n" +
+            "(b {\"name\":\"Bob\"})-[:KNOWS]->(c {\"name\":\n~~~~\n" +
+            "(d {\"name\":\"Dave\"})\n";
+
+    @Test
+    public void testReaderCarriesOnAfterBoundary() throws IOException {
+        GeoffReader reader = new GeoffReader(new StringReader(GEOFF));
+        reader.setCapturing(true);
+        Subgraph first = reader.readSubgraph();
+        if (!first.getNodes().containsKey("a")) {
+            throw new AssertionError("First subgraph not read");
+        }
+        try {
+            reader.readSubgraph();
+            throw new AssertionError("Malformed subgraph was read");
+        } catch (GeoffReaderException e) {
+            reader.skipToBoundary();
+        }
+        String text = reader.getSubgraphText();
+        if (!text.startsWith("(b {") || !text.trim().endsWith("~~~~")) {
+            throw new AssertionError("Unexpected text of malformed subgraph: " + text);
+        }
+        Subgraph third = reader.readSubgraph();
+        if (!third.getNodes().containsKey("d") || third.getNodes().containsKey("b")) {
+            throw new AssertionError("Reader did not resume at the next subgraph");
+        }
+        if (!reader.getSubgraphText().startsWith("(d {")) {
+            throw new AssertionError("Captured text was not reset");
+        }
+    }
+
+    @Test
+    public void testTildesWithinLineAreNotBoundaries() throws IOException {
+        GeoffReader reader = new GeoffReader(new StringReader("x ~~~~ y\n(z)\n~~~~\n(e)\n"));
+        reader.skipToBoundary();
+        if (!reader.readSubgraph().getNodes().containsKey("e")) {
+            throw new AssertionError("Skipped to a boundary within a line");
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.NeoLoader;
+import com.nigelsmall.load2neo.StreamLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SessionTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private void load(NeoLoader loader, String geoff, boolean commit) throws IOException {
+        try (Transaction tx = this.database.beginTx()) {
+            loader.load(new GeoffReader(geoff).readSubgraph());
+            if (commit) {
+                tx.success();
+            }
+        }
+        loader.endTransaction(commit);
+    }
+
+    private void assertGraph(int nodeCount, int relationshipCount) {
+        try (Transaction tx = this.database.beginTx()) {
+            GlobalGraphOperations operations = GlobalGraphOperations.at(this.database);
+            int nodes = 0;
+            for (Node node : operations.getAllNodes()) {
+                // leave out the reference node
+                if (node.hasProperty("name")) {
+                    nodes += 1;
+                }
+            }
+            int relationships = 0;
+            for (Relationship relationship : operations.getAllRelationships()) {
+                relationships += 1;
+            }
+            if (nodes != nodeCount || relationships != relationshipCount) {
+                throw new AssertionError("Expected " + nodeCount + " nodes and " + relationshipCount +
+                        " relationships, found " + nodes + " and " + relationships);
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testNamesAreKeptAcrossTransactions() throws IOException {
+        NeoLoader loader = new NeoLoader(this.database);
+        loader.setSession(true);
+        this.load(loader, "(a {\"name\":\"Alice\"})", true);
+        this.load(loader, "(a)-[:KNOWS]->(b {\"name\":\"Bob\"})", true);
+        assertGraph(2, 1);
+    }
+
+    @Test
+    public void testNamesFromRolledBackTransactionsAreBoundAfresh() throws IOException {
+        NeoLoader loader = new NeoLoader(this.database);
+        loader.setSession(true);
+        this.load(loader, "(a {\"name\":\"Alice\"})", false);
+        this.load(loader, "(a {\"name\":\"Alice\"})-[:KNOWS]->(b {\"name\":\"Bob\"})", true);
+        this.load(loader, "(a)-[:KNOWS]->(c {\"name\":\"Carol\"})", true);
+        assertGraph(3, 2);
+        try (Transaction tx = this.database.beginTx()) {
+            for (Relationship relationship : GlobalGraphOperations.at(this.database).getAllRelationships()) {
+                if (!relationship.getStartNode().getProperty("name").equals("Alice")) {
+                    throw new AssertionError("Relationship does not start at Alice");
+                }
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testBatchRetriedAfterRollbackKeepsOnlyCommittedNames() throws IOException {
+        StreamLoader loader = new StreamLoader(this.database);
+        loader.setSession(true);
+        loader.setBatchSize(2);
+        loader.setContinueOnError(true);
+        final List<StreamLoader.Result> results = new ArrayList<>();
+        // the second subgraph fails, rolling back the first along with it
+        loader.loadGeoff(new StringReader("(a {\"name\":\"Alice\"})\n~~~~\n(a)-[:KNOWS]->(#999)\n~~~~\n" +
+                "(a)-[:KNOWS]->(b {\"name\":\"Bob\"})\n"), new StreamLoader.Callback() {
+
+            @Override
+            public void subgraphLoaded(StreamLoader.Result result) {
+                results.add(result);
+            }
+
+        });
+        if (results.size() != 3 || results.get(0).isFailed() || !results.get(1).isFailed() ||
+                results.get(2).isFailed()) {
+            throw new AssertionError("Only the second subgraph should fail");
+        }
+        if (results.get(0).getNodeIds().get("a") != results.get(2).getNodeIds().get("a")) {
+            throw new AssertionError("Name bound differently after retry: " + results.get(0).toJSON() +
+                    " then " + results.get(2).toJSON());
+        }
+        assertGraph(2, 1);
+    }
+
+}
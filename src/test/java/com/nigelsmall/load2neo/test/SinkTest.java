@@ -0,0 +1,233 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.*;
+import com.nigelsmall.load2neo.util.NameMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class SinkTest {
+
+    final private static String GEOFF = ":Person:name:=>(a {\"name\":\"Alice\"})\n" +
+            "(a)-[:KNOWS {\"since\":1999}]->(b:Person {\"name\":\"Bob\",\"age\":null})\n" +
+            "(a)-[:KNOWS]->(#7)\n";
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    private long count(Label label) {
+        long count = 0;
+        try (Transaction tx = this.database.beginTx()) {
+            for (Node node : GlobalGraphOperations.at(this.database).getAllNodesWithLabel(label)) {
+                count += 1;
+            }
+            tx.success();
+        }
+        return count;
+    }
+
+    @Test
+    public void testCountingSinkCountsWrites() throws IOException {
+        CountingSink sink = new CountingSink();
+        NeoLoader loader = new NeoLoader(sink);
+        Subgraph subgraph = new GeoffReader(new StringReader(GEOFF)).readSubgraph();
+        loader.load(subgraph);
+        if (sink.getLookupCount() != 1) {
+            throw new AssertionError("Expected 1 lookup, counted " + sink.getLookupCount());
+        }
+        if (sink.getNodeCount() != 2) {
+            throw new AssertionError("Expected 2 nodes, counted " + sink.getNodeCount());
+        }
+        if (sink.getRelationshipCount() != 2) {
+            throw new AssertionError("Expected 2 relationships, counted " + sink.getRelationshipCount());
+        }
+        if (sink.getLabelCount() != 2) {
+            throw new AssertionError("Expected 2 labels, counted " + sink.getLabelCount());
+        }
+        if (sink.getPropertyCount() != 3) {
+            throw new AssertionError("Expected 3 properties, counted " + sink.getPropertyCount());
+        }
+    }
+
+    @Test
+    public void testNullSinkWritesNothingAndFindsNothing() throws IOException {
+        NullSink sink = new NullSink();
+        NeoLoader loader = new NeoLoader(sink);
+        NameMap nodeIds;
+        try (Transaction tx = sink.beginTx()) {
+            nodeIds = loader.load(new GeoffReader(new StringReader(GEOFF)).readSubgraph()).copy();
+            tx.success();
+        }
+        // the hooked node is not found, so is created along with the other
+        if (loader.getCreatedCount() != 4 || nodeIds.get("a") == nodeIds.get("b")) {
+            throw new AssertionError("Expected 2 nodes with distinct IDs and 2 relationships created");
+        }
+        if (!sink.nodeExists(7) || sink.findNodes("Person", "name", "Alice").iterator().hasNext() ||
+                sink.hasLabel(0, "Person") || sink.getProperty(0, "name") != null) {
+            throw new AssertionError("Null sink does not take the graph to be empty");
+        }
+    }
+
+    @Test
+    public void testNeoSinkWritesToDatabase() {
+        NeoSink sink = new NeoSink(this.database);
+        HashMap<String, Object> properties = new HashMap<>();
+        properties.put("name", "Alice");
+        properties.put("age", null);
+        try (Transaction tx = sink.beginTx()) {
+            long alice = sink.createNode(new HashSet<>(Arrays.asList("Person")), properties);
+            long bob = sink.createNode(null, null);
+            sink.addLabel(bob, "Person");
+            sink.setProperty(bob, "name", "Bob");
+            sink.createRelationship(alice, "KNOWS", Collections.<String, Object>singletonMap("since", 1999), bob);
+            if (!sink.hasLabel(bob, "Person") || !"Alice".equals(sink.getProperty(alice, "name")) ||
+                    sink.getProperty(alice, "age") != null) {
+                throw new AssertionError("Sink does not read back what it wrote");
+            }
+            Iterator<Long> found = sink.findNodes("Person", "name", "Bob").iterator();
+            if (!found.hasNext() || found.next() != bob || found.hasNext()) {
+                throw new AssertionError("Sink does not find Bob");
+            }
+            Relationship knows = this.database.getNodeById(alice).getSingleRelationship(
+                    DynamicRelationshipType.withName("KNOWS"), Direction.OUTGOING);
+            if (knows.getEndNode().getId() != bob || !knows.getProperty("since").equals(1999)) {
+                throw new AssertionError("Relationship was not written");
+            }
+            tx.success();
+        }
+        if (count(DynamicLabel.label("Person")) != 2) {
+            throw new AssertionError("Nodes were not committed");
+        }
+    }
+
+    @Test
+    public void testNeoSinkReportsIndexesAndConstraints() {
+        NeoSink sink = new NeoSink(this.database);
+        try (Transaction tx = this.database.beginTx()) {
+            this.database.schema().constraintFor(DynamicLabel.label("Person")).on("email").unique().create();
+            this.database.schema().indexFor(DynamicLabel.label("Person")).on("name").create();
+            tx.success();
+        }
+        try (Transaction tx = this.database.beginTx()) {
+            this.database.schema().awaitIndexesOnline(1, TimeUnit.MINUTES);
+            tx.success();
+        }
+        try (Transaction tx = sink.beginTx()) {
+            if (!sink.hasIndex("Person", "name") || !sink.isUnique("Person", "email") ||
+                    sink.isUnique("Person", "name") || sink.hasIndex("Person", "age")) {
+                throw new AssertionError("Sink does not report the schema");
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testNeoSinkReportsOnlyIndexesOnline() {
+        NeoSink sink = new NeoSink(this.database);
+        try (Transaction tx = this.database.beginTx()) {
+            for (int i = 0; i < 50000; i++) {
+                this.database.createNode(DynamicLabel.label("Person")).setProperty("name", "person" + i);
+            }
+            tx.success();
+        }
+        IndexDefinition index;
+        try (Transaction tx = this.database.beginTx()) {
+            index = this.database.schema().indexFor(DynamicLabel.label("Person")).on("name").create();
+            tx.success();
+        }
+        try (Transaction tx = sink.beginTx()) {
+            if (sink.hasIndex("Person", "name")) {
+                throw new AssertionError("Index still being populated is reported as usable");
+            }
+            this.database.schema().awaitIndexOnline(index, 1, TimeUnit.MINUTES);
+            if (!sink.hasIndex("Person", "name")) {
+                throw new AssertionError("Index online is not reported");
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Load a subgraph in a transaction that is rolled back, leaving its
+     * node cached by the sink.
+     *
+     * @return the ID of the node that no longer exists
+     */
+    private long loadAndRollBack(NeoLoader loader, NeoSink sink, String geoff) throws IOException {
+        long nodeId;
+        try (Transaction tx = sink.beginTx()) {
+            nodeId = loader.load(new GeoffReader(geoff).readSubgraph()).get("a");
+            tx.failure();
+        }
+        return nodeId;
+    }
+
+    @Test
+    public void testNeoSinkForgetsNodesRolledBack() throws IOException {
+        NeoSink sink = new NeoSink(this.database);
+        NeoLoader loader = new NeoLoader(sink);
+        long nodeId = this.loadAndRollBack(loader, sink, "(a:Person {\"name\":\"Alice\"})");
+        // checked within a transaction not begun by the sink
+        try (Transaction tx = this.database.beginTx()) {
+            if (sink.nodeExists(nodeId)) {
+                throw new AssertionError("Node rolled back is taken to exist");
+            }
+            tx.success();
+        }
+        try (Transaction tx = sink.beginTx()) {
+            loader.load(new GeoffReader("(#" + nodeId + " {\"name\":\"Alice\"})").readSubgraph());
+            tx.success();
+            throw new AssertionError("Reference to node rolled back was accepted");
+        } catch (NotFoundException e) {
+            // as expected
+        }
+    }
+
+    @Test
+    public void testNeoSinkRegistryFallsBackAfterRollback() throws IOException {
+        File file = File.createTempFile("load2neo-registry-", ".reg");
+        file.deleteOnExit();
+        HookRegistry registry = new HookRegistry(file);
+        try {
+            NeoSink sink = new NeoSink(this.database);
+            NeoLoader loader = new NeoLoader(sink);
+            loader.setHookRegistry(registry);
+            String geoff = ":Person:name:=>(a {\"name\":\"Alice\"})";
+            long nodeId = this.loadAndRollBack(loader, sink, geoff);
+            if (registry.get("Person", "name", "Alice") != nodeId) {
+                throw new AssertionError("Node rolled back was not registered");
+            }
+            long aliceId;
+            try (Transaction tx = sink.beginTx()) {
+                aliceId = loader.load(new GeoffReader(geoff).readSubgraph()).get("a");
+                tx.success();
+            }
+            if (count(DynamicLabel.label("Person")) != 1 || registry.get("Person", "name", "Alice") != aliceId) {
+                throw new AssertionError("Hook was not resolved afresh after rollback");
+            }
+        } finally {
+            registry.close();
+        }
+    }
+
+}
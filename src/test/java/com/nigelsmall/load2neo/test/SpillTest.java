@@ -0,0 +1,191 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.SpillableSubgraph;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.util.NameMap;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+public class SpillTest {
+
+    private Reader open(String name) throws IOException {
+        URL url = Thread.currentThread().getContextClassLoader().getResource(name);
+        return new InputStreamReader(new FileInputStream(url.getPath()), "UTF-8");
+    }
+
+    private boolean sameProperties(Map<String, Object> a, Map<String, Object> b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (!a.keySet().equals(b.keySet())) {
+            return false;
+        }
+        for (String key : a.keySet()) {
+            if (!Arrays.deepEquals(new Object[] {a.get(key)}, new Object[] {b.get(key)})) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String nameOf(Subgraph subgraph, AbstractNode node) {
+        // anonymous nodes are given different names each time they are read
+        return subgraph.getNodes().get(node.getName()).isNamed() ? node.getName() : "?";
+    }
+
+    private List<String> relationships(Subgraph subgraph) {
+        ArrayList<String> rels = new ArrayList<>();
+        for (AbstractRelationship rel : subgraph.getRelationships()) {
+            rels.add(nameOf(subgraph, rel.getStartNode()) + " " + rel.getType() + " " + nameOf(subgraph, rel.getEndNode()));
+        }
+        return rels;
+    }
+
+    @Test
+    public void spilledSubgraphsMatchHeapSubgraphs() throws IOException {
+        for (String name : new String[] {"test.geoff", "abba.geoff", "10000.geoff"}) {
+            GeoffReader heapReader = new GeoffReader(open(name));
+            GeoffReader spillReader = new GeoffReader(open(name));
+            spillReader.setSpillThreshold(5, null);
+            while (heapReader.hasMore()) {
+                Subgraph expected = heapReader.readSubgraph();
+                try (SpillableSubgraph actual = (SpillableSubgraph) spillReader.readSubgraph()) {
+                    if (expected.order() + expected.size() > 5 && !actual.isSpilled()) {
+                        throw new AssertionError("Subgraph of " + name + " was not spilled");
+                    }
+                    if (expected.order() != actual.order() || expected.size() != actual.size()) {
+                        throw new AssertionError("Spilled subgraph of " + name + " has order " + actual.order() +
+                                " and size " + actual.size());
+                    }
+                    Map<String, AbstractNode> actualNodes = actual.getNodes();
+                    int count = 0;
+                    for (AbstractNode node : actualNodes.values()) {
+                        count += 1;
+                        if (!node.isNamed()) {
+                            continue;
+                        }
+                        AbstractNode other = expected.getNodes().get(node.getName());
+                        if (other == null || other.isNamed() != node.isNamed() ||
+                                !Objects.equals(other.getLabels(), node.getLabels()) ||
+                                !Objects.equals(other.getHookLabel(), node.getHookLabel()) ||
+                                !Objects.equals(other.getHookKey(), node.getHookKey()) ||
+                                !sameProperties(other.getProperties(), node.getProperties())) {
+                            throw new AssertionError("Spilled node " + node + " does not match " + other);
+                        }
+                    }
+                    if (count != expected.order()) {
+                        throw new AssertionError("Iterated " + count + " spilled nodes of " + name);
+                    }
+                    if (!relationships(expected).equals(relationships(actual))) {
+                        throw new AssertionError("Spilled relationships of " + name + " do not match");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nameMapHoldsManyNames() {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            NameMap map = new NameMap(4, offHeap);
+            for (int i = 0; i < 100000; i++) {
+                map.put("node" + i, i * 3L);
+            }
+            if (map.put("node7", 1) != 21 || map.size() != 100000) {
+                throw new AssertionError("Unexpected update of existing name");
+            }
+            for (int i = 0; i < 100000; i++) {
+                long expected = i == 7 ? 1 : i * 3L;
+                if (map.get("node" + i) != expected) {
+                    throw new AssertionError("Unexpected value for node" + i);
+                }
+            }
+            if (map.get("node100000") != NameMap.NONE) {
+                throw new AssertionError("Unexpected value for missing name");
+            }
+        }
+    }
+
+    @Test
+    public void nameMapKeepsNamesAsUTF8() {
+        String[] names = {"caf\u00e9", "\u65e5\u672c", "\ud83d\ude00", "a\ud800b", ""};
+        NameMap map = new NameMap(4, false);
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], i);
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (map.get(names[i]) != i) {
+                throw new AssertionError("Unexpected value for " + names[i]);
+            }
+        }
+        for (Map.Entry<String, Long> entry : map.entries()) {
+            String expected = names[(int) (long) entry.getValue()];
+            // an unpaired surrogate cannot be encoded, so is replaced
+            if (!entry.getKey().equals(expected.replace('\ud800', '?'))) {
+                throw new AssertionError("Name " + expected + " decoded as " + entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void nameMapCanBeClearedAndCopied() {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            NameMap map = new NameMap(4, offHeap);
+            for (int i = 0; i < 100000; i++) {
+                map.put("node" + i, i);
+            }
+            NameMap copy = map.copy();
+            map.clear(4);
+            if (map.size() != 0 || map.get("node7") != NameMap.NONE) {
+                throw new AssertionError("Cleared map still holds names");
+            }
+            map.put("node7", 1);
+            if (copy.size() != 100000 || copy.isOffHeap() || copy.get("node7") != 7 || map.get("node7") != 1) {
+                throw new AssertionError("Copy does not stand apart from the map copied");
+            }
+            copy.put("node100000", 100000);
+            if (copy.get("node100000") != 100000 || copy.get("node99999") != 99999) {
+                throw new AssertionError("Copy cannot be added to");
+            }
+        }
+    }
+
+    @Test
+    public void nameMapSpreadsAcrossPages() {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            // far more than one small page of slots or names
+            NameMap map = new NameMap(4, offHeap, 1024);
+            for (int i = 0; i < 100000; i++) {
+                map.put("node" + i, i);
+            }
+            NameMap copy = map.copy();
+            int count = 0;
+            for (Map.Entry<String, Long> entry : map.entries()) {
+                if (!entry.getKey().equals("node" + entry.getValue())) {
+                    throw new AssertionError("Name " + entry.getKey() + " mapped to " + entry.getValue());
+                }
+                count += 1;
+            }
+            if (count != 100000 || map.get("node99999") != 99999 || copy.get("node12345") != 12345) {
+                throw new AssertionError("Names were lost across pages");
+            }
+            map.clear();
+            map.put("node7", 1);
+            if (map.size() != 1 || map.get("node7") != 1 || map.get("node8") != NameMap.NONE) {
+                throw new AssertionError("Paged map was not cleared");
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameMapPageSizeMustBeAPowerOfTwo() {
+        new NameMap(4, false, 3000);
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.CountingSink;
+import com.nigelsmall.load2neo.NeoSink;
+import com.nigelsmall.load2neo.StreamLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StreamLoaderTest {
+
+    private GraphDatabaseService database;
+
+    @Before
+    public void startDatabase() {
+        this.database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void stopDatabase() {
+        this.database.shutdown();
+    }
+
+    /**
+     * @return a document of subgraphs each creating one numbered person
+     */
+    private static String people(int count) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            s.append("(p:Person {\"id\":").append(i).append("})\n~~~~\n");
+        }
+        return s.toString();
+    }
+
+    private List<StreamLoader.Result> load(StreamLoader loader, String geoff) throws IOException {
+        final List<StreamLoader.Result> results = new ArrayList<>();
+        loader.loadGeoff(new StringReader(geoff), new StreamLoader.Callback() {
+
+            @Override
+            public void subgraphLoaded(StreamLoader.Result result) {
+                results.add(result);
+            }
+
+        });
+        return results;
+    }
+
+    /**
+     * Check that results arrive in order and that each names the person
+     * of its own subgraph.
+     */
+    private void assertPeopleInOrder(List<StreamLoader.Result> results, int count) throws IOException {
+        if (results.size() != count) {
+            throw new AssertionError("Expected " + count + " results, received " + results.size());
+        }
+        try (Transaction tx = this.database.beginTx()) {
+            for (int i = 0; i < count; i++) {
+                StreamLoader.Result result = results.get(i);
+                if (result.getNumber() != i || result.isFailed()) {
+                    throw new AssertionError("Result " + i + " is out of order or failed");
+                }
+                Node node = this.database.getNodeById(result.getNodeIds().get("p"));
+                if (!node.getProperty("id").equals(i)) {
+                    throw new AssertionError("Result " + i + " names the node of another subgraph");
+                }
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testBatchesShareTransactions() throws IOException {
+        CountingSink sink = new CountingSink(new NeoSink(this.database));
+        StreamLoader loader = new StreamLoader(this.database);
+        loader.setBatchSize(4);
+        loader.setSink(sink);
+        assertPeopleInOrder(this.load(loader, people(10)), 10);
+        if (sink.getTransactionCount() != 3) {
+            throw new AssertionError("Expected 3 transactions, counted " + sink.getTransactionCount());
+        }
+    }
+
+    @Test
+    public void testThreadedResultsAreReportedInOrder() throws IOException {
+        StreamLoader loader = new StreamLoader(this.database);
+        loader.setBatchSize(3);
+        loader.setThreads(4);
+        assertPeopleInOrder(this.load(loader, people(100)), 100);
+        try (Transaction tx = this.database.beginTx()) {
+            int count = 0;
+            for (Node node : GlobalGraphOperations.at(this.database).getAllNodesWithLabel(DynamicLabel.label("Person"))) {
+                count += 1;
+            }
+            if (count != 100) {
+                throw new AssertionError("Expected 100 people, found " + count);
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testReplaysAreSkipped() throws IOException {
+        StreamLoader loader = new StreamLoader(this.database);
+        loader.setIdempotent(true);
+        loader.setBatchSize(4);
+        this.load(loader, people(3));
+        // the first three are replayed, and the rest of each batch loaded
+        List<StreamLoader.Result> results = this.load(loader, people(6));
+        assertPeopleInOrder(results, 6);
+        for (int i = 0; i < 6; i++) {
+            StreamLoader.Result result = results.get(i);
+            if (result.isReplayed() != i < 3 || result.getCreatedCount() != (i < 3 ? 0 : 1)) {
+                throw new AssertionError("Subgraph " + i + " was wrongly " +
+                        (result.isReplayed() ? "replayed" : "loaded"));
+            }
+            if (result.isReplayed() && result.getCommitNanos() != 0) {
+                throw new AssertionError("Replayed subgraph " + i + " took part in a commit");
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSpillThresholdMustNotBeNegative() {
+        new StreamLoader(this.database).setSpillThreshold(-1);
+    }
+
+}
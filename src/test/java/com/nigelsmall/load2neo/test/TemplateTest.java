@@ -0,0 +1,104 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.Template;
+import com.nigelsmall.load2neo.json.ParameterRowReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TemplateTest {
+
+    final private static String TEMPLATE = ":Person:email:=>(a {\"email\":$email,\"name\":$name})\n" +
+            "(a)-[:LIVES_IN {\"since\":$since}]->(b:City {\"name\":$city})\n" +
+            "(a)-[:KNOWS]->({\"name\":$name})";
+
+    private List<Subgraph> readRows(Template template, String rows) throws IOException {
+        ParameterRowReader reader = new ParameterRowReader(template, new StringReader(rows));
+        ArrayList<Subgraph> subgraphs = new ArrayList<>();
+        while (reader.hasMore()) {
+            subgraphs.add(reader.readSubgraph());
+        }
+        return subgraphs;
+    }
+
+    @Test
+    public void testParametersAreListedInOrderOfFirstUse() throws IOException {
+        Template template = Template.parse(TEMPLATE);
+        if (!Arrays.asList("email", "name", "since", "city").equals(template.getParameters())) {
+            throw new AssertionError("Unexpected parameters " + template.getParameters());
+        }
+    }
+
+    @Test
+    public void testRowsAreFilledIn() throws IOException {
+        Template template = Template.parse(TEMPLATE);
+        List<Subgraph> subgraphs = readRows(template,
+                "[\"alice@example.com\",\"Alice\",1999,\"London\"]\n" +
+                "{\"city\":\"Paris\",\"since\":2004,\"name\":\"Bob\",\"email\":\"bob@example.com\"}\n");
+        if (subgraphs.size() != 2) {
+            throw new AssertionError("Expected two subgraphs, found " + subgraphs.size());
+        }
+        String[][] expected = {{"alice@example.com", "Alice", "London"}, {"bob@example.com", "Bob", "Paris"}};
+        for (int i = 0; i < 2; i++) {
+            Subgraph subgraph = subgraphs.get(i);
+            AbstractNode a = subgraph.getNodes().get("a");
+            if (!expected[i][0].equals(a.getProperties().get("email")) || !expected[i][1].equals(a.getProperties().get("name"))) {
+                throw new AssertionError("Unexpected node " + a);
+            }
+            if (!"Person".equals(a.getHookLabel()) || !"email".equals(a.getHookKey())) {
+                throw new AssertionError("Hook not copied to " + a);
+            }
+            if (!expected[i][2].equals(subgraph.getNodes().get("b").getProperties().get("name"))) {
+                throw new AssertionError("Unexpected node " + subgraph.getNodes().get("b"));
+            }
+            if (subgraph.order() != 3 || subgraph.size() != 2) {
+                throw new AssertionError("Unexpected subgraph " + subgraph);
+            }
+            for (AbstractRelationship relationship : subgraph.getRelationships()) {
+                if (relationship.getType().equals("LIVES_IN") && !(relationship.getProperties().get("since") instanceof Integer)) {
+                    throw new AssertionError("Unexpected relationship " + relationship);
+                }
+            }
+        }
+        // instances must not share the anonymous node
+        for (String name : subgraphs.get(0).getNodes().keySet()) {
+            if (!name.equals("a") && !name.equals("b") && subgraphs.get(1).getNodes().containsKey(name)) {
+                throw new AssertionError("Anonymous node shared between instances");
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedRowsAreRejected() throws IOException {
+        Template template = Template.parse(TEMPLATE);
+        for (String row : new String[] {"[\"x\",\"y\",1]", "[\"x\",\"y\",1,\"z\",2]",
+                "{\"email\":\"x\",\"email\":\"y\",\"since\":1,\"city\":\"z\"}", "{\"nickname\":\"x\"}"}) {
+            try {
+                readRows(template, row);
+                throw new AssertionError("Malformed row accepted: " + row);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testTemplateMustBeOneSubgraph() {
+        for (String source : new String[] {"", "(a {\"x\":$x})\n~~~~\n(b {\"y\":$y})", "(a {\"x\":$})"}) {
+            try {
+                Template.parse(source);
+                throw new AssertionError("Template accepted: " + source);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.geoff.reader.GeoffReader;
+import com.nigelsmall.geoff.reader.GeoffReaderException;
+import com.nigelsmall.geoff.reader.SubgraphSummary;
+import com.nigelsmall.geoff.validator.GeoffValidator;
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.Subgraph;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ValidatorTest {
+
+    private File resource(String name) {
+        URL url = Thread.currentThread().getContextClassLoader().getResource(name);
+        return new File(url.getPath());
+    }
+
+    private Reader open(String name) throws IOException {
+        return new InputStreamReader(new FileInputStream(resource(name)), "UTF-8");
+    }
+
+    @Test
+    public void scanCountsMatchReadCounts() throws IOException {
+        for (String name : new String[] {"test.geoff", "abba.geoff", "planets.geoff", "two_lines.geoff", "10000.geoff"}) {
+            GeoffReader reader = new GeoffReader(open(name));
+            GeoffReader scanner = new GeoffReader(open(name));
+            while (reader.hasMore()) {
+                Subgraph subgraph = reader.readSubgraph();
+                SubgraphSummary summary = scanner.scanSubgraph();
+                int hooks = 0;
+                for (AbstractNode node : subgraph.getNodes().values()) {
+                    if (node.getHookLabel() != null) {
+                        hooks += 1;
+                    }
+                }
+                if (subgraph.order() != summary.order() || subgraph.size() != summary.size() || hooks != summary.hooks()) {
+                    throw new AssertionError("Scan of " + name + " found " + summary);
+                }
+            }
+            if (scanner.hasMore()) {
+                throw new AssertionError("Scan of " + name + " did not reach the end");
+            }
+        }
+    }
+
+    private String errorOf(String geoff, boolean scan) throws IOException {
+        GeoffReader reader = new GeoffReader(geoff);
+        try {
+            while (reader.hasMore()) {
+                if (scan) {
+                    reader.scanSubgraph();
+                } else {
+                    reader.readSubgraph();
+                }
+            }
+        } catch (GeoffReaderException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    @Test
+    public void scanRejectsWhatReadRejects() throws IOException {
+        for (String geoff : new String[] {":L:k:=>(#1)", "(a {\"x\":\"bad\\q\"})", "(a {\"x\":1e})",
+                "(a {\"x\":[1,\"b\"]})", "(a {\"x\":12345678901234567890})", "(a)-[:R]-(b)"}) {
+            String readError = errorOf(geoff, false);
+            String scanError = errorOf(geoff, true);
+            if (readError == null || !readError.equals(scanError)) {
+                throw new AssertionError("Read of " + geoff + " gave " + readError + " but scan gave " + scanError);
+            }
+        }
+    }
+
+    @Test
+    public void errorsAreReportedWithPosition() throws IOException {
+        GeoffValidator.Report report = GeoffValidator.check(open("royal.geoff"));
+        if (report.isValid()) {
+            throw new AssertionError("Malformed document passed validation");
+        }
+        GeoffReaderException error = (GeoffReaderException) report.getError();
+        if (error.getLineNumber() != 9 || error.getColumnNumber() != 42 || report.getSubgraphCount() != 1) {
+            throw new AssertionError("Unexpected error report: " + report);
+        }
+    }
+
+    @Test
+    public void documentsCanBeCheckedInParallel() throws Exception {
+        List<File> files = Arrays.asList(resource("test.geoff"), resource("royal.geoff"), resource("abba.geoff"));
+        List<GeoffValidator.Report> reports = GeoffValidator.check(files, 3);
+        ArrayList<Boolean> valid = new ArrayList<>();
+        for (GeoffValidator.Report report : reports) {
+            valid.add(report.isValid());
+        }
+        if (!valid.equals(Arrays.asList(true, false, true))) {
+            throw new AssertionError("Unexpected validity " + valid);
+        }
+        if (reports.get(0).getSubgraphCount() != 3 || reports.get(2).getRelationshipCount() != 10) {
+            throw new AssertionError("Unexpected counts " + reports.get(0) + " / " + reports.get(2));
+        }
+    }
+
+}
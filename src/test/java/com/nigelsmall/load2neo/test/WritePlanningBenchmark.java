@@ -0,0 +1,169 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.NeoLoader;
+import com.nigelsmall.load2neo.Subgraph;
+import org.apache.commons.io.FileUtils;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares loads with and without write planning. Run from the command
+ * line against an embedded database in a temporary directory:
+ *
+ * <pre>
+ * java com.nigelsmall.load2neo.test.WritePlanningBenchmark [THREADS] [LOADS]
+ * </pre>
+ *
+ * The concurrent test runs many small loads, each updating a random set of
+ * shared hooked nodes, and counts the deadlocks detected. The single load
+ * test times one large subgraph of mixed labels and relationships.
+ */
+public class WritePlanningBenchmark {
+
+    final private static Label PERSON = DynamicLabel.label("Person");
+    final private static int PEOPLE = 200;
+    final private static int HOOKS_PER_LOAD = 20;
+
+    private static Subgraph hookSubgraph(Random random, int loadNumber) {
+        Subgraph subgraph = new Subgraph();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < PEOPLE; i++) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, random);
+        for (int i = 0; i < HOOKS_PER_LOAD; i++) {
+            HashMap<String, Object> properties = new HashMap<>();
+            properties.put("id", ids.get(i));
+            properties.put("touched", loadNumber);
+            AbstractNode node = new AbstractNode("p" + loadNumber + "_" + i, null, properties);
+            subgraph.mergeNode(node).setHook("Person", "id");
+        }
+        return subgraph;
+    }
+
+    private static Subgraph largeSubgraph(Random random, int order, int size) {
+        Subgraph subgraph = new Subgraph();
+        String[] labels = {"Person", "Place", "Thing", "Event", "Group"};
+        String[] types = {"KNOWS", "LIKES", "VISITED", "OWNS"};
+        for (int i = 0; i < order; i++) {
+            Set<String> nodeLabels = Collections.singleton(labels[random.nextInt(labels.length)]);
+            subgraph.mergeNode(new AbstractNode("n" + i, nodeLabels,
+                    Collections.<String, Object>singletonMap("number", i)));
+        }
+        for (int i = 0; i < size; i++) {
+            AbstractNode startNode = new AbstractNode("n" + random.nextInt(order), null, null);
+            AbstractNode endNode = new AbstractNode("n" + random.nextInt(order), null, null);
+            subgraph.addRelationship(new AbstractRelationship(startNode, types[random.nextInt(types.length)],
+                    null, endNode));
+        }
+        return subgraph;
+    }
+
+    private static void concurrentLoads(final GraphDatabaseService database, final boolean planning,
+                                        int threads, final int loads) throws Exception {
+        final AtomicInteger deadlocks = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        long t0 = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            final int threadNumber = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Random random = new Random(threadNumber);
+                    NeoLoader loader = new NeoLoader(database);
+                    loader.setPlanning(planning);
+                    for (int i = 0; i < loads; i++) {
+                        Subgraph subgraph = hookSubgraph(random, threadNumber * loads + i);
+                        // retry each load until it succeeds, as a client would
+                        for (int attempt = 0; attempt < 10; attempt++) {
+                            try (Transaction tx = database.beginTx()) {
+                                loader.load(subgraph);
+                                tx.success();
+                            } catch (DeadlockDetectedException e) {
+                                deadlocks.incrementAndGet();
+                                continue;
+                            } catch (RuntimeException e) {
+                                // count any other error and move on to the next load
+                                failures.incrementAndGet();
+                            }
+                            break;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        long t1 = System.currentTimeMillis() - t0;
+        System.out.println(String.format("concurrent, planning=%s: %d loads in %dms, %d deadlocks, %d other errors",
+                planning, threads * loads, t1, deadlocks.get(), failures.get()));
+    }
+
+    private static void singleLoad(GraphDatabaseService database, boolean planning) {
+        Subgraph subgraph = largeSubgraph(new Random(42), 20000, 40000);
+        NeoLoader loader = new NeoLoader(database);
+        loader.setPlanning(planning);
+        long t0 = System.currentTimeMillis();
+        try (Transaction tx = database.beginTx()) {
+            loader.load(subgraph);
+            tx.success();
+        }
+        long t1 = System.currentTimeMillis() - t0;
+        System.out.println(String.format("single, planning=%s: %d nodes and %d relationships in %dms",
+                planning, subgraph.order(), subgraph.size(), t1));
+    }
+
+    public static void main(String... args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int loads = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        File directory = File.createTempFile("load2neo-benchmark-", "");
+        directory.delete();
+        GraphDatabaseService database = new GraphDatabaseFactory().newEmbeddedDatabase(directory.getPath());
+        try {
+            try (Transaction tx = database.beginTx()) {
+                database.schema().indexFor(PERSON).on("id").create();
+                tx.success();
+            }
+            try (Transaction tx = database.beginTx()) {
+                database.schema().awaitIndexesOnline(1, TimeUnit.MINUTES);
+                for (int i = 0; i < PEOPLE; i++) {
+                    database.createNode(PERSON).setProperty("id", i);
+                }
+                tx.success();
+            }
+            // warm up, then alternate so that neither mode has an advantage
+            singleLoad(database, true);
+            for (int round = 0; round < 2; round++) {
+                singleLoad(database, false);
+                singleLoad(database, true);
+                concurrentLoads(database, false, threads, loads);
+                concurrentLoads(database, true, threads, loads);
+            }
+        } finally {
+            database.shutdown();
+            try {
+                FileUtils.deleteDirectory(directory);
+            } catch (IOException e) {
+                // leave it for the operating system to tidy up
+            }
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.nigelsmall.load2neo.test;
+
+import com.nigelsmall.load2neo.AbstractNode;
+import com.nigelsmall.load2neo.AbstractRelationship;
+import com.nigelsmall.load2neo.Subgraph;
+import com.nigelsmall.load2neo.xml.XMLSubgraphReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class XMLTest {
+
+    @Test
+    public void subgraphsAreReadInTurn() throws IOException {
+        XMLSubgraphReader reader = new XMLSubgraphReader(new InputStreamReader(
+                Thread.currentThread().getContextClassLoader().getResourceAsStream("test.xml"), "UTF-8"));
+        ArrayList<Subgraph> subgraphs = new ArrayList<>();
+        while (reader.hasMore()) {
+            subgraphs.add(reader.readSubgraph());
+        }
+        if (subgraphs.size() != 3) {
+            throw new AssertionError("Expected 3 subgraphs, read " + subgraphs.size());
+        }
+        SubgraphTest implicit = new SubgraphTest(subgraphs.get(0));
+        implicit.assertOrder(2);
+        implicit.assertSize(0);
+        implicit.assertNode("a");
+        SubgraphTest explicit = new SubgraphTest(subgraphs.get(1));
+        explicit.assertOrder(3);
+        explicit.assertSize(2);
+        explicit.assertHook("alice");
+        explicit.assertNodeLabel("alice", "Person");
+        explicit.assertNodeProperty("alice", "name", "Alice");
+        explicit.assertNodeLabel("bob", "Person");
+        explicit.assertNodeProperty("bob", "age", 44);
+        explicit.assertNodeProperty("bob", "admin", true);
+        AbstractRelationship rel = explicit.assertRelationship("alice", "KNOWS", "bob");
+        explicit.assertRelationshipProperty(rel, "since", 1999);
+        AbstractNode bob = subgraphs.get(1).getNodes().get("bob");
+        if (!(bob.getProperties().get("age") instanceof Integer) ||
+                !Arrays.equals((Object[]) bob.getProperties().get("tags"), new String[] {"x", "y"})) {
+            throw new AssertionError("Properties of bob are not correctly typed");
+        }
+        new SubgraphTest(subgraphs.get(2)).assertOrder(0);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownElementsAreRejected() throws IOException {
+        XMLSubgraphReader reader = new XMLSubgraphReader(new StringReader("<graph><edge/></graph>"));
+        while (reader.hasMore()) {
+            reader.readSubgraph();
+        }
+    }
+
+    private Object readProperty(String property) throws IOException {
+        Subgraph subgraph = new XMLSubgraphReader(new StringReader("<graph><node name=\"a\">" + property +
+                "</node></graph>")).readSubgraph();
+        return subgraph.getNodes().get("a").getProperties().get("p");
+    }
+
+    @Test
+    public void emptyArraysKeepTheirType() throws IOException {
+        if (!(readProperty("<property key=\"p\" type=\"long[]\"/>") instanceof Long[]) ||
+                !(readProperty("<property key=\"p\" type=\"double[]\"/>") instanceof Double[])) {
+            throw new AssertionError("Empty array was not given its declared type");
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyArraysOfUnknownTypeAreRejected() throws IOException {
+        readProperty("<property key=\"p\" type=\"date[]\"/>");
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyArraysWithoutTypeAreRejected() throws IOException {
+        readProperty("<property key=\"p\" type=\"[]\"/>");
+    }
+
+}